@@ -0,0 +1,54 @@
+package com.trivadis.tricoin.benchmark;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+
+/**
+ * Encodes TriCoin calls the way the generated wrapper does, including building the
+ * {@link Function}.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@SuppressWarnings("rawtypes")
+public class EncodingBenchmark {
+
+    private final String address = "0x65a1fec365a19e2e2ccd36f51dbd74043a3d572b";
+    private final BigInteger value = new BigInteger("10000000000000000000");
+
+    @Benchmark
+    public String transfer() {
+        return FunctionEncoder.encode(new Function(
+                "transfer",
+                Arrays.<Type>asList(new Address(address), new Uint256(value)),
+                Collections.<TypeReference<?>>emptyList()));
+    }
+
+    @Benchmark
+    public String approve() {
+        return FunctionEncoder.encode(new Function(
+                "approve",
+                Arrays.<Type>asList(new Address(address), new Uint256(value)),
+                Collections.<TypeReference<?>>emptyList()));
+    }
+
+    @Benchmark
+    public String balanceOf() {
+        return FunctionEncoder.encode(new Function(
+                "balanceOf",
+                Arrays.<Type>asList(new Address(address)),
+                Arrays.<TypeReference<?>>asList(new TypeReference<Uint256>() {})));
+    }
+}
@@ -0,0 +1,91 @@
+package com.trivadis.tricoin.benchmark;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.trivadis.tricoin.TriCoin;
+import com.trivadis.tricoin.TriCoinEventDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.web3j.crypto.Credentials;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.protocol.http.HttpService;
+import org.web3j.tx.Contract;
+import org.web3j.tx.ManagedTransaction;
+import org.web3j.utils.Numeric;
+
+/**
+ * Decodes Transfer and Burn logs one at a time, and from a receipt as
+ * {@link TriCoin#getTransferEvents} does. The receipt holds 12 Transfer and 4 Burn logs.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EventDecodingBenchmark {
+
+    private static final String CONTRACT = "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857";
+
+    private Log transferLog;
+    private Log burnLog;
+    private TransactionReceipt receipt;
+    private TriCoin contract;
+
+    @Setup
+    public void setUp() {
+        transferLog = log(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, topic(1), topic(2));
+        burnLog = log(TriCoinEventDecoder.BURN_EVENT_TOPIC, topic(3));
+        List<Log> logs = new ArrayList<Log>();
+        for (int i = 0; i < 16; i++) {
+            logs.add(i % 4 == 3
+                    ? log(TriCoinEventDecoder.BURN_EVENT_TOPIC, topic(i))
+                    : log(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, topic(i), topic(i + 1)));
+        }
+        receipt = new TransactionReceipt();
+        receipt.setLogs(logs);
+        // The service is never called; loading a contract does not touch the network
+        contract = TriCoin.load(CONTRACT, Web3j.build(new HttpService("http://127.0.0.1:1/")),
+                Credentials.create("0x1"), ManagedTransaction.GAS_PRICE, Contract.GAS_LIMIT);
+    }
+
+    @Benchmark
+    public TriCoin.TransferEventResponse decodeTransfer() {
+        return TriCoinEventDecoder.decodeTransfer(transferLog);
+    }
+
+    @Benchmark
+    public TriCoin.BurnEventResponse decodeBurn() {
+        return TriCoinEventDecoder.decodeBurn(burnLog);
+    }
+
+    @Benchmark
+    public List<TriCoin.TransferEventResponse> getTransferEvents() {
+        return contract.getTransferEvents(receipt);
+    }
+
+    @Benchmark
+    public List<TriCoin.BurnEventResponse> getBurnEvents() {
+        return contract.getBurnEvents(receipt);
+    }
+
+    private static String topic(int account) {
+        return Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(0x1000 + account), 64);
+    }
+
+    private static Log log(String... topics) {
+        Log log = new Log();
+        log.setAddress(CONTRACT);
+        log.setTopics(Arrays.asList(topics));
+        log.setData(Numeric.toHexStringWithPrefixZeroPadded(new BigInteger("10000000000000000000"), 64));
+        log.setBlockNumber("0x2a");
+        log.setLogIndex("0x0");
+        log.setTransactionHash(Numeric.toHexStringWithPrefixZeroPadded(BigInteger.ONE, 64));
+        return log;
+    }
+}
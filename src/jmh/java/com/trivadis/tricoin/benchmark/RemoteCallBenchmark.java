@@ -0,0 +1,72 @@
+package com.trivadis.tricoin.benchmark;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.trivadis.tricoin.TriCoin;
+import com.trivadis.tricoin.rpc.BatchingHttpService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.web3j.crypto.Credentials;
+import org.web3j.protocol.Web3j;
+import org.web3j.tx.Contract;
+import org.web3j.tx.ManagedTransaction;
+
+/**
+ * Measures {@code RemoteCall}s end to end, from building the request to decoding the result,
+ * against a {@link StubJsonRpcServer} on the loopback interface.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RemoteCallBenchmark {
+
+    private static final int BULK_SIZE = 100;
+
+    private StubJsonRpcServer server;
+    private TriCoin contract;
+    private List<String> owners;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new StubJsonRpcServer();
+        BatchingHttpService service = new BatchingHttpService(server.getUrl());
+        Web3j web3j = Web3j.build(service);
+        contract = TriCoin.load("0x78021bafea6605a9bba9a7cc8c12b5d2172fc857", web3j,
+                Credentials.create("0x1"), ManagedTransaction.GAS_PRICE, Contract.GAS_LIMIT);
+        contract.setBatchService(service);
+        owners = new ArrayList<String>(BULK_SIZE);
+        for (int i = 0; i < BULK_SIZE; i++) {
+            owners.add(String.format("0x%040x", 0x1000 + i));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public BigInteger balanceOf() throws Exception {
+        return contract.balanceOf("0x65a1fec365a19e2e2ccd36f51dbd74043a3d572b").send();
+    }
+
+    @Benchmark
+    public BigInteger totalSupply() throws Exception {
+        return contract.totalSupply().send();
+    }
+
+    /**
+     * Reads {@value #BULK_SIZE} balances in one batch, plus the block number they are pinned to.
+     */
+    @Benchmark
+    public TriCoin.BulkReadResponse balancesOf() throws Exception {
+        return contract.balancesOf(owners).send();
+    }
+}
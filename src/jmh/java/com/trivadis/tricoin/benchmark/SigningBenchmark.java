@@ -0,0 +1,59 @@
+package com.trivadis.tricoin.benchmark;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.Type;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.TransactionEncoder;
+import org.web3j.tx.ChainId;
+import org.web3j.tx.Contract;
+import org.web3j.tx.ManagedTransaction;
+
+/**
+ * Signs a TriCoin transfer offline, as {@code RawTransactionManager} and the transaction pipeline
+ * do before sending it.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SigningBenchmark {
+
+    private Credentials credentials;
+    private RawTransaction transaction;
+
+    @Setup
+    @SuppressWarnings("rawtypes")
+    public void setUp() {
+        credentials = Credentials.create("0x4646464646464646464646464646464646464646464646464646464646464646");
+        String data = FunctionEncoder.encode(new Function(
+                "transfer",
+                Arrays.<Type>asList(new Address("0x65a1fec365a19e2e2ccd36f51dbd74043a3d572b"),
+                        new Uint256(new BigInteger("10000000000000000000"))),
+                Collections.<TypeReference<?>>emptyList()));
+        transaction = RawTransaction.createTransaction(BigInteger.valueOf(42), ManagedTransaction.GAS_PRICE,
+                Contract.GAS_LIMIT, "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857", data);
+    }
+
+    @Benchmark
+    public byte[] sign() {
+        return TransactionEncoder.signMessage(transaction, credentials);
+    }
+
+    @Benchmark
+    public byte[] signWithChainId() {
+        return TransactionEncoder.signMessage(transaction, ChainId.RINKEBY, credentials);
+    }
+}
@@ -0,0 +1,87 @@
+package com.trivadis.tricoin.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.web3j.protocol.ObjectMapperFactory;
+
+/**
+ * A JSON-RPC server on the loopback interface that answers single and batched requests with
+ * fixed results, so that benchmarks measure the client rather than a node.
+ */
+class StubJsonRpcServer implements AutoCloseable {
+
+    static final String CALL_RESULT = "0x0000000000000000000000000000000000000000000000000de0b6b3a7640000";
+    static final String BLOCK_NUMBER = "0x2a";
+
+    private final ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    StubJsonRpcServer() throws IOException {
+        // Without TCP_NODELAY, delayed ACKs add about 40 ms to every exchange
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        JsonNode request;
+        try (InputStream body = exchange.getRequestBody()) {
+            request = objectMapper.readTree(body);
+        }
+        JsonNode response;
+        if (request.isArray()) {
+            ArrayNode responses = objectMapper.createArrayNode();
+            for (JsonNode element : request) {
+                responses.add(answer(element));
+            }
+            response = responses;
+        } else {
+            response = answer(request);
+        }
+        byte[] bytes = objectMapper.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private ObjectNode answer(JsonNode request) {
+        ObjectNode response = objectMapper.createObjectNode();
+        response.put("jsonrpc", "2.0");
+        response.set("id", request.get("id"));
+        String method = request.path("method").asText();
+        if ("eth_call".equals(method)) {
+            response.put("result", CALL_RESULT);
+        } else if ("eth_blockNumber".equals(method)) {
+            response.put("result", BLOCK_NUMBER);
+        } else {
+            response.putNull("result");
+        }
+        return response;
+    }
+}
@@ -1,14 +1,24 @@
 package com.trivadis.tricoin;
 
+import com.trivadis.tricoin.evm.TriCoinSimulator;
+import com.trivadis.tricoin.metrics.TriCoinMetrics;
+import com.trivadis.tricoin.events.LogBackfill;
+import com.trivadis.tricoin.rpc.BatchCaller;
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import com.trivadis.tricoin.rpc.LogSubscriptionService;
+import com.trivadis.tricoin.tx.TransactionPipeline;
+import java.io.IOException;
 import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import org.web3j.abi.EventEncoder;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import org.web3j.abi.FunctionEncoder;
 import org.web3j.abi.TypeReference;
-import org.web3j.abi.datatypes.Address;
-import org.web3j.abi.datatypes.Event;
 import org.web3j.abi.datatypes.Function;
 import org.web3j.abi.datatypes.Type;
 import org.web3j.abi.datatypes.Utf8String;
@@ -18,11 +28,16 @@ import org.web3j.crypto.Credentials;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.DefaultBlockParameter;
 import org.web3j.protocol.core.RemoteCall;
+import org.web3j.protocol.core.Request;
 import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthCall;
 import org.web3j.protocol.core.methods.response.Log;
 import org.web3j.protocol.core.methods.response.TransactionReceipt;
 import org.web3j.tx.Contract;
 import org.web3j.tx.TransactionManager;
+import org.web3j.tx.exceptions.ContractCallException;
+import org.web3j.utils.Numeric;
 import rx.Observable;
 import rx.functions.Func1;
 
@@ -38,6 +53,24 @@ import rx.functions.Func1;
 public class TriCoin extends Contract {
     private static final String BINARY = "60606040526002805460ff19166012179055341561001c57600080fd5b68056bc75e2d631000006003819055600160a060020a03331660009081526004602052604090819020919091558051908101604052600781527f547269436f696e000000000000000000000000000000000000000000000000006020820152600090805161008e9291602001906100dc565b5060408051908101604052600381527f5452490000000000000000000000000000000000000000000000000000000000602082015260019080516100d69291602001906100dc565b50610177565b828054600181600116156101000203166002900490600052602060002090601f016020900481019282601f1061011d57805160ff191683800117855561014a565b8280016001018555821561014a579182015b8281111561014a57825182559160200191906001019061012f565b5061015692915061015a565b5090565b61017491905b808211156101565760008155600101610160565b90565b6108d1806101866000396000f3006060604052600436106100b95763ffffffff7c010000000000000000000000000000000000000000000000000000000060003504166306fdde0381146100be578063095ea7b31461014857806318160ddd1461017e57806323b872dd146101a3578063313ce567146101cb57806342966c68146101f457806370a082311461020a57806379cc67901461022957806395d89b411461024b578063a9059cbb1461025e578063cae9ca5114610282578063dd62ed3e146102e7575b600080fd5b34156100c957600080fd5b6100d161030c565b60405160208082528190810183818151815260200191508051906020019080838360005b8381101561010d5780820151838201526020016100f5565b50505050905090810190601f16801561013a5780820380516001836020036101000a031916815260200191505b509250505060405180910390f35b341561015357600080fd5b61016a600160a060020a03600435166024356103aa565b604051901515815260200160405180910390f35b341561018957600080fd5b6101916103da565b60405190815260200160405180910390f35b34156101ae57600080fd5b61016a600160a060020a03600435811690602435166044356103e0565b34156101d657600080fd5b6101de610457565b60405160ff909116815260200160405180910390f35b34156101ff57600080fd5b61016a600435610460565b341561021557600080fd5b610191600160a060020a03600435166104eb565b341561023457600080fd5b61016a600160a060020a03600435166024356104fd565b341561025657600080fd5b6100d16105d9565b341561026957600080fd5b610280600160a060020a0360043516602435610644565b005b341561028d57600080fd5b61016a60048035600160a060020a03169060248035919060649060443590810190830135806020601f8201819004810201604051908101604052818152929190602084018383808284375094965061065395505050505050565b34156102f257600080fd5b610191600160a060020a0360043581169060243516610781565b60008054600181600116156101000203166002900480601f0160208091040260200160405190810160405280929190818152602001828054600181600116156101000203166002900480156103a25780601f10610377576101008083540402835291602001916103a2565b820191906000526020600020905b81548152906001019060200180831161038557829003601f168201915b505050505081565b600160a060020a033381166000908152600560209081526040808320938616835292905220819055600192915050565b60035481565b600160a060020a0380841660009081526005602090815260408083203390941683529290529081205482111561041557600080fd5b600160a060020a038085166000908152600560209081526040808320339094168352929052208054839003905561044d84848461079e565b5060019392505050565b60025460ff1681565b600160a060020a0333166000908152600460205260408120548290101561048657600080fd5b600160a060020a03331660008181526004602052604090819020805485900390556003805485900390557fcc16f5dbb4873280815c1ee09dbd06736cffcc184412cf7a71a0fdb75d397ca59084905190815260200160405180910390a2506001919050565b60046020526000908152604090205481565b600160a060020a0382166000908152600460205260408120548290101561052357600080fd5b600160a060020a038084166000908152600560209081526040808320339094168352929052205482111561055657600080fd5b600160a060020a038084166000818152600460209081526040808320805488900390556005825280832033909516835293905282902080548590039055600380548590039055907fcc16f5dbb4873280815c1ee09dbd06736cffcc184412cf7a71a0fdb75d397ca59084905190815260200160405180910390a250600192915050565b60018054600181600116156101000203166002900480601f0160208091040260200160405190810160405280929190818152602001828054600181600116156101000203166002900480156103a25780601f10610377576101008083540402835291602001916103a2565b61064f33838361079e565b5050565b60008361066081856103aa565b156107795780600160a060020a0316638f4ffcb1338630876040518563ffffffff167c01000000000000000000000000000000000000000000000000000000000281526004018085600160a060020a0316600160a060020a0316815260200184815260200183600160a060020a0316600160a060020a0316815260200180602001828103825283818151815260200191508051906020019080838360005b838110156107165780820151838201526020016106fe565b50505050905090810190601f1680156107435780820380516001836020036101000a031916815260200191505b5095505050505050600060405180830381600087803b151561076457600080fd5b5af1151561077157600080fd5b505050600191505b509392505050565b600560209081526000928352604080842090915290825290205481565b6000600160a060020a03831615156107b557600080fd5b600160a060020a038416600090815260046020526040902054829010156107db57600080fd5b600160a060020a038316600090815260046020526040902054828101101561080257600080fd5b50600160a060020a0380831660008181526004602052604080822080549488168084528284208054888103909155938590528154870190915591909301927fddf252ad1be2c89b69c2b068fc378daa952ba7f163c4a11628f55a4df523b3ef9085905190815260200160405180910390a3600160a060020a0380841660009081526004602052604080822054928716825290205401811461089f57fe5b505050505600a165627a7a72305820aa2a06a2c9d00f00774aa74571248b450cd648b08f49b3c0a418284ee6ad3d8f0029";
 
+    /** Drops the logs the event decoders reject, such as ones with an unexpected number of topics. */
+    private static final Func1<Object, Boolean> NOT_NULL = new Func1<Object, Boolean>() {
+        @Override
+        public Boolean call(Object value) {
+            return value != null;
+        }
+    };
+
+    private BatchWeb3jService batchService;
+
+    private int batchSize = BatchCaller.DEFAULT_BATCH_SIZE;
+
+    private int maxBatchesInFlight = BatchCaller.DEFAULT_MAX_BATCHES_IN_FLIGHT;
+
+    private TransactionPipeline transactionPipeline;
+
+    private TriCoinMetrics metrics;
+
     protected TriCoin(String contractAddress, Web3j web3j, Credentials credentials, BigInteger gasPrice, BigInteger gasLimit) {
         super(BINARY, contractAddress, web3j, credentials, gasPrice, gasLimit);
     }
@@ -47,75 +80,130 @@ public class TriCoin extends Contract {
     }
 
     public List<TransferEventResponse> getTransferEvents(TransactionReceipt transactionReceipt) {
-        final Event event = new Event("Transfer", 
-                Arrays.<TypeReference<?>>asList(new TypeReference<Address>() {}, new TypeReference<Address>() {}),
-                Arrays.<TypeReference<?>>asList(new TypeReference<Uint256>() {}));
-        List<Contract.EventValuesWithLog> valueList = extractEventParametersWithLog(event, transactionReceipt);
-        ArrayList<TransferEventResponse> responses = new ArrayList<TransferEventResponse>(valueList.size());
-        for (Contract.EventValuesWithLog eventValues : valueList) {
-            TransferEventResponse typedResponse = new TransferEventResponse();
-            typedResponse.log = eventValues.getLog();
-            typedResponse.from = (String) eventValues.getIndexedValues().get(0).getValue();
-            typedResponse.to = (String) eventValues.getIndexedValues().get(1).getValue();
-            typedResponse.value = (BigInteger) eventValues.getNonIndexedValues().get(0).getValue();
-            responses.add(typedResponse);
+        List<Log> logs = transactionReceipt.getLogs();
+        ArrayList<TransferEventResponse> responses = new ArrayList<TransferEventResponse>(logs.size());
+        TriCoinMetrics current = metrics;
+        long start = current == null ? 0 : System.nanoTime();
+        for (Log log : logs) {
+            TransferEventResponse typedResponse = TriCoinEventDecoder.decodeTransfer(log);
+            if (typedResponse != null) {
+                responses.add(typedResponse);
+            }
+        }
+        if (current != null) {
+            current.recordDecode("Transfer", responses.size(), System.nanoTime() - start);
         }
         return responses;
     }
 
     public Observable<TransferEventResponse> transferEventObservable(DefaultBlockParameter startBlock, DefaultBlockParameter endBlock) {
-        final Event event = new Event("Transfer", 
-                Arrays.<TypeReference<?>>asList(new TypeReference<Address>() {}, new TypeReference<Address>() {}),
-                Arrays.<TypeReference<?>>asList(new TypeReference<Uint256>() {}));
         EthFilter filter = new EthFilter(startBlock, endBlock, getContractAddress());
-        filter.addSingleTopic(EventEncoder.encode(event));
+        filter.addSingleTopic(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC);
         return web3j.ethLogObservable(filter).map(new Func1<Log, TransferEventResponse>() {
             @Override
             public TransferEventResponse call(Log log) {
-                Contract.EventValuesWithLog eventValues = extractEventParametersWithLog(event, log);
-                TransferEventResponse typedResponse = new TransferEventResponse();
-                typedResponse.log = log;
-                typedResponse.from = (String) eventValues.getIndexedValues().get(0).getValue();
-                typedResponse.to = (String) eventValues.getIndexedValues().get(1).getValue();
-                typedResponse.value = (BigInteger) eventValues.getNonIndexedValues().get(0).getValue();
-                return typedResponse;
+                return decodeTransfer(log);
             }
-        });
+        }).filter(NOT_NULL);
     }
 
     public List<BurnEventResponse> getBurnEvents(TransactionReceipt transactionReceipt) {
-        final Event event = new Event("Burn", 
-                Arrays.<TypeReference<?>>asList(new TypeReference<Address>() {}),
-                Arrays.<TypeReference<?>>asList(new TypeReference<Uint256>() {}));
-        List<Contract.EventValuesWithLog> valueList = extractEventParametersWithLog(event, transactionReceipt);
-        ArrayList<BurnEventResponse> responses = new ArrayList<BurnEventResponse>(valueList.size());
-        for (Contract.EventValuesWithLog eventValues : valueList) {
-            BurnEventResponse typedResponse = new BurnEventResponse();
-            typedResponse.log = eventValues.getLog();
-            typedResponse.from = (String) eventValues.getIndexedValues().get(0).getValue();
-            typedResponse.value = (BigInteger) eventValues.getNonIndexedValues().get(0).getValue();
-            responses.add(typedResponse);
+        List<Log> logs = transactionReceipt.getLogs();
+        ArrayList<BurnEventResponse> responses = new ArrayList<BurnEventResponse>(logs.size());
+        TriCoinMetrics current = metrics;
+        long start = current == null ? 0 : System.nanoTime();
+        for (Log log : logs) {
+            BurnEventResponse typedResponse = TriCoinEventDecoder.decodeBurn(log);
+            if (typedResponse != null) {
+                responses.add(typedResponse);
+            }
+        }
+        if (current != null) {
+            current.recordDecode("Burn", responses.size(), System.nanoTime() - start);
         }
         return responses;
     }
 
     public Observable<BurnEventResponse> burnEventObservable(DefaultBlockParameter startBlock, DefaultBlockParameter endBlock) {
-        final Event event = new Event("Burn", 
-                Arrays.<TypeReference<?>>asList(new TypeReference<Address>() {}),
-                Arrays.<TypeReference<?>>asList(new TypeReference<Uint256>() {}));
         EthFilter filter = new EthFilter(startBlock, endBlock, getContractAddress());
-        filter.addSingleTopic(EventEncoder.encode(event));
+        filter.addSingleTopic(TriCoinEventDecoder.BURN_EVENT_TOPIC);
         return web3j.ethLogObservable(filter).map(new Func1<Log, BurnEventResponse>() {
             @Override
             public BurnEventResponse call(Log log) {
-                Contract.EventValuesWithLog eventValues = extractEventParametersWithLog(event, log);
-                BurnEventResponse typedResponse = new BurnEventResponse();
-                typedResponse.log = log;
-                typedResponse.from = (String) eventValues.getIndexedValues().get(0).getValue();
-                typedResponse.value = (BigInteger) eventValues.getNonIndexedValues().get(0).getValue();
-                return typedResponse;
+                return decodeBurn(log);
             }
-        });
+        }).filter(NOT_NULL);
+    }
+
+    /**
+     * Observes the Transfer and Burn logs of this contract through a single filter, so that both
+     * kinds arrive in chain order.
+     */
+    public Observable<Log> eventLogObservable(DefaultBlockParameter startBlock, DefaultBlockParameter endBlock) {
+        EthFilter filter = new EthFilter(startBlock, endBlock, getContractAddress());
+        filter.addOptionalTopics(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, TriCoinEventDecoder.BURN_EVENT_TOPIC);
+        return web3j.ethLogObservable(filter);
+    }
+
+    /**
+     * Like {@link #eventLogObservable}, but the node pushes new logs over {@code service} instead of
+     * being polled.
+     */
+    public Observable<Log> eventLogSubscription(LogSubscriptionService service) {
+        return service.logObservable(getContractAddress(),
+                Arrays.asList(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, TriCoinEventDecoder.BURN_EVENT_TOPIC));
+    }
+
+    public Observable<TransferEventResponse> transferEventSubscription(LogSubscriptionService service) {
+        return service.logObservable(getContractAddress(), Collections.singletonList(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC))
+                .map(new Func1<Log, TransferEventResponse>() {
+                    @Override
+                    public TransferEventResponse call(Log log) {
+                        return decodeTransfer(log);
+                    }
+                }).filter(NOT_NULL);
+    }
+
+    public Observable<BurnEventResponse> burnEventSubscription(LogSubscriptionService service) {
+        return service.logObservable(getContractAddress(), Collections.singletonList(TriCoinEventDecoder.BURN_EVENT_TOPIC))
+                .map(new Func1<Log, BurnEventResponse>() {
+                    @Override
+                    public BurnEventResponse call(Log log) {
+                        return decodeBurn(log);
+                    }
+                }).filter(NOT_NULL);
+    }
+
+    /**
+     * Returns a backfill of the Transfer and Burn logs of this contract, which can be tuned before
+     * fetching a historical range. Both kinds of logs are delivered interleaved, in block and log
+     * index order; {@link TriCoinEventDecoder} tells them apart.
+     */
+    public LogBackfill eventBackfill() {
+        return new LogBackfill(web3j, getContractAddress(),
+                TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, TriCoinEventDecoder.BURN_EVENT_TOPIC);
+    }
+
+    public Observable<TransferEventResponse> transferEventBackfill(BigInteger startBlock, BigInteger endBlock) {
+        return new LogBackfill(web3j, getContractAddress(), TriCoinEventDecoder.TRANSFER_EVENT_TOPIC)
+                .observable(startBlock, endBlock)
+                .map(new Func1<Log, TransferEventResponse>() {
+                    @Override
+                    public TransferEventResponse call(Log log) {
+                        return decodeTransfer(log);
+                    }
+                }).filter(NOT_NULL);
+    }
+
+    public Observable<BurnEventResponse> burnEventBackfill(BigInteger startBlock, BigInteger endBlock) {
+        return new LogBackfill(web3j, getContractAddress(), TriCoinEventDecoder.BURN_EVENT_TOPIC)
+                .observable(startBlock, endBlock)
+                .map(new Func1<Log, BurnEventResponse>() {
+                    @Override
+                    public BurnEventResponse call(Log log) {
+                        return decodeBurn(log);
+                    }
+                }).filter(NOT_NULL);
     }
 
     public RemoteCall<String> name() {
@@ -141,6 +229,17 @@ public class TriCoin extends Contract {
         return executeRemoteCallSingleValueReturn(function, BigInteger.class);
     }
 
+    /**
+     * Reads the total supply as of {@code blockNumber} rather than the latest block.
+     */
+    public RemoteCall<BigInteger> totalSupply(final BigInteger blockNumber) {
+        return new RemoteCall<BigInteger>(() -> {
+            Function function = function("totalSupply");
+            return executeBulkCall(Collections.singletonList("totalSupply"),
+                    Collections.singletonList(function), blockNumber).values.get("totalSupply");
+        });
+    }
+
     public RemoteCall<TransactionReceipt> transferFrom(String _from, String _to, BigInteger _value) {
         final Function function = new Function(
                 "transferFrom", 
@@ -216,6 +315,189 @@ public class TriCoin extends Contract {
         return executeRemoteCallSingleValueReturn(function, BigInteger.class);
     }
 
+    /**
+     * Submits a transfer through the transaction pipeline without waiting for it to be mined.
+     */
+    public CompletableFuture<TransactionReceipt> transferAsync(String _to, BigInteger _value) {
+        final Function function = function("transfer",
+                new org.web3j.abi.datatypes.Address(_to),
+                new org.web3j.abi.datatypes.generated.Uint256(_value));
+        return requireTransactionPipeline().submit(contractAddress, function);
+    }
+
+    public CompletableFuture<TransactionReceipt> transferFromAsync(String _from, String _to, BigInteger _value) {
+        final Function function = function("transferFrom",
+                new org.web3j.abi.datatypes.Address(_from),
+                new org.web3j.abi.datatypes.Address(_to),
+                new org.web3j.abi.datatypes.generated.Uint256(_value));
+        return requireTransactionPipeline().submit(contractAddress, function);
+    }
+
+    public CompletableFuture<TransactionReceipt> approveAsync(String _spender, BigInteger _value) {
+        final Function function = function("approve",
+                new org.web3j.abi.datatypes.Address(_spender),
+                new org.web3j.abi.datatypes.generated.Uint256(_value));
+        return requireTransactionPipeline().submit(contractAddress, function);
+    }
+
+    /**
+     * Sets the pipeline used by the {@code ...Async} transaction methods. Its sender should be the
+     * account this contract was loaded with.
+     */
+    public void setTransactionPipeline(TransactionPipeline transactionPipeline) {
+        this.transactionPipeline = transactionPipeline;
+    }
+
+    private TransactionPipeline requireTransactionPipeline() {
+        if (transactionPipeline == null) {
+            throw new IllegalStateException("No transaction pipeline set");
+        }
+        return transactionPipeline;
+    }
+
+    /**
+     * Reads the balances of many holders at the latest block. The calls are packed into JSON-RPC
+     * batches if a batch service is set, and all of them are pinned to the same block. Like the
+     * single-value calls, an empty {@code 0x} result throws a {@link ContractCallException}.
+     */
+    public RemoteCall<BulkReadResponse> balancesOf(final Collection<String> owners) {
+        return new RemoteCall<BulkReadResponse>(() -> balancesOf(owners, latestBlockNumber()).send());
+    }
+
+    public RemoteCall<BulkReadResponse> balancesOf(final Collection<String> owners, final BigInteger blockNumber) {
+        return new RemoteCall<BulkReadResponse>(() -> {
+            List<Function> functions = new ArrayList<Function>(owners.size());
+            for (String owner : owners) {
+                functions.add(function("balanceOf", new org.web3j.abi.datatypes.Address(owner)));
+            }
+            return executeBulkCall(owners, functions, blockNumber);
+        });
+    }
+
+    /**
+     * Reads the amounts {@code spender} may still transfer on behalf of each of the owners, pinned
+     * to the latest block.
+     */
+    public RemoteCall<BulkReadResponse> allowances(final Collection<String> owners, final String spender) {
+        return new RemoteCall<BulkReadResponse>(() -> allowances(owners, spender, latestBlockNumber()).send());
+    }
+
+    public RemoteCall<BulkReadResponse> allowances(final Collection<String> owners, final String spender, final BigInteger blockNumber) {
+        return new RemoteCall<BulkReadResponse>(() -> {
+            List<Function> functions = new ArrayList<Function>(owners.size());
+            for (String owner : owners) {
+                functions.add(function("allowance", new org.web3j.abi.datatypes.Address(owner),
+                        new org.web3j.abi.datatypes.Address(spender)));
+            }
+            return executeBulkCall(owners, functions, blockNumber);
+        });
+    }
+
+    /**
+     * Records the time to receipt and gas used of this contract's transactions, and the events
+     * decoded by it.
+     */
+    public void setMetrics(TriCoinMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    protected RemoteCall<TransactionReceipt> executeRemoteCallTransaction(Function function) {
+        RemoteCall<TransactionReceipt> call = super.executeRemoteCallTransaction(function);
+        TriCoinMetrics current = metrics;
+        if (current == null) {
+            return call;
+        }
+        return new RemoteCall<TransactionReceipt>(() -> {
+            long start = System.nanoTime();
+            try {
+                TransactionReceipt receipt = call.send();
+                current.recordTransaction(function.getName(), System.nanoTime() - start, receipt.getGasUsed());
+                return receipt;
+            } catch (Exception e) {
+                current.recordTransactionFailure(function.getName());
+                throw e;
+            }
+        });
+    }
+
+    private TransferEventResponse decodeTransfer(Log log) {
+        TriCoinMetrics current = metrics;
+        if (current == null) {
+            return TriCoinEventDecoder.decodeTransfer(log);
+        }
+        long start = System.nanoTime();
+        TransferEventResponse response = TriCoinEventDecoder.decodeTransfer(log);
+        current.recordDecode("Transfer", response == null ? 0 : 1, System.nanoTime() - start);
+        return response;
+    }
+
+    private BurnEventResponse decodeBurn(Log log) {
+        TriCoinMetrics current = metrics;
+        if (current == null) {
+            return TriCoinEventDecoder.decodeBurn(log);
+        }
+        long start = System.nanoTime();
+        BurnEventResponse response = TriCoinEventDecoder.decodeBurn(log);
+        current.recordDecode("Burn", response == null ? 0 : 1, System.nanoTime() - start);
+        return response;
+    }
+
+    /**
+     * Sets the service used to send bulk reads as JSON-RPC batches. Without one, bulk reads fall
+     * back to one {@code eth_call} per entry.
+     */
+    public void setBatchService(BatchWeb3jService batchService) {
+        this.batchService = batchService;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setMaxBatchesInFlight(int maxBatchesInFlight) {
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    /**
+     * A function whose return values are not decoded here; {@link Function} takes a raw
+     * {@code List<Type>}.
+     */
+    @SuppressWarnings("rawtypes")
+    private static Function function(String name, Type<?>... inputParameters) {
+        return new Function(name, Arrays.<Type>asList(inputParameters), Collections.<TypeReference<?>>emptyList());
+    }
+
+    private BigInteger latestBlockNumber() throws IOException {
+        return web3j.ethBlockNumber().send().getBlockNumber();
+    }
+
+    private BulkReadResponse executeBulkCall(Collection<String> keys, List<Function> functions, BigInteger blockNumber) throws IOException {
+        DefaultBlockParameter block = DefaultBlockParameter.valueOf(blockNumber);
+        List<Request<?, EthCall>> requests = new ArrayList<Request<?, EthCall>>(functions.size());
+        for (Function function : functions) {
+            requests.add(web3j.ethCall(Transaction.createEthCallTransaction(
+                    transactionManager.getFromAddress(), contractAddress, FunctionEncoder.encode(function)), block));
+        }
+        List<EthCall> results = new BatchCaller(batchService, batchSize, maxBatchesInFlight).call(requests, EthCall.class);
+        BulkReadResponse response = new BulkReadResponse();
+        response.blockNumber = blockNumber;
+        response.values = new LinkedHashMap<String, BigInteger>(keys.size() * 4 / 3 + 1);
+        int i = 0;
+        for (String key : keys) {
+            EthCall result = results.get(i++);
+            if (result.hasError()) {
+                throw new IOException("eth_call for " + key + " failed: " + result.getError().getMessage());
+            }
+            String value = Numeric.cleanHexPrefix(result.getValue());
+            if (value.isEmpty()) {
+                throw new ContractCallException("Empty value (0x) returned from contract for " + key);
+            }
+            response.values.put(key, Numeric.toBigIntNoPrefix(value));
+        }
+        return response;
+    }
+
     public static RemoteCall<TriCoin> deploy(Web3j web3j, Credentials credentials, BigInteger gasPrice, BigInteger gasLimit) {
         return deployRemoteCall(TriCoin.class, web3j, credentials, gasPrice, gasLimit, BINARY, "");
     }
@@ -232,6 +514,21 @@ public class TriCoin extends Contract {
         return new TriCoin(contractAddress, web3j, transactionManager, gasPrice, gasLimit);
     }
 
+    /**
+     * Returns the init code the contract is deployed with.
+     */
+    public static String getBinary() {
+        return BINARY;
+    }
+
+    /**
+     * Returns a simulator for transactions to this contract, which fetches storage through the
+     * batch service if one is set.
+     */
+    public TriCoinSimulator simulator() {
+        return new TriCoinSimulator(web3j, getContractAddress(), batchService);
+    }
+
     public static class TransferEventResponse {
         public Log log;
 
@@ -249,4 +546,10 @@ public class TriCoin extends Contract {
 
         public BigInteger value;
     }
+
+    public static class BulkReadResponse {
+        public BigInteger blockNumber;
+
+        public Map<String, BigInteger> values;
+    }
 }
@@ -0,0 +1,121 @@
+package com.trivadis.tricoin;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Decodes the two events emitted by the TriCoin contract directly from the hex strings of a
+ * {@link Log}.
+ *
+ * <p>Both events have a fixed layout: the addresses are indexed and therefore sit in the topics,
+ * and the only non-indexed value is a single {@code uint256} word in the data. This avoids building
+ * an {@link org.web3j.abi.datatypes.Event} and the intermediate {@link org.web3j.abi.datatypes.Type}
+ * lists of the generic decoder for every log.
+ */
+public final class TriCoinEventDecoder {
+
+    /** {@code keccak256("Transfer(address,address,uint256)")}. */
+    public static final String TRANSFER_EVENT_TOPIC =
+            "0xddf252ad1be2c89b69c2b068fc378daa952ba7f163c4a11628f55a4df523b3ef";
+
+    /** {@code keccak256("Burn(address,uint256)")}. */
+    public static final String BURN_EVENT_TOPIC =
+            "0xcc16f5dbb4873280815c1ee09dbd06736cffcc184412cf7a71a0fdb75d397ca5";
+
+    private static final int WORD_HEX_LENGTH = 64;
+    private static final int TOPIC_LENGTH = 2 + WORD_HEX_LENGTH;
+    private static final int ADDRESS_OFFSET = TOPIC_LENGTH - 40;
+
+    private TriCoinEventDecoder() {
+    }
+
+    public static boolean isTransfer(Log log) {
+        return hasTopic0(log, TRANSFER_EVENT_TOPIC, 3);
+    }
+
+    public static boolean isBurn(Log log) {
+        return hasTopic0(log, BURN_EVENT_TOPIC, 2);
+    }
+
+    /**
+     * @return the decoded event, or {@code null} if the log is not a TriCoin Transfer event
+     */
+    public static TriCoin.TransferEventResponse decodeTransfer(Log log) {
+        if (!isTransfer(log)) {
+            return null;
+        }
+        List<String> topics = log.getTopics();
+        TriCoin.TransferEventResponse typedResponse = new TriCoin.TransferEventResponse();
+        typedResponse.log = log;
+        typedResponse.from = decodeAddress(topics.get(1));
+        typedResponse.to = decodeAddress(topics.get(2));
+        typedResponse.value = decodeUint256(log.getData());
+        return typedResponse;
+    }
+
+    /**
+     * @return the decoded event, or {@code null} if the log is not a TriCoin Burn event
+     */
+    public static TriCoin.BurnEventResponse decodeBurn(Log log) {
+        if (!isBurn(log)) {
+            return null;
+        }
+        TriCoin.BurnEventResponse typedResponse = new TriCoin.BurnEventResponse();
+        typedResponse.log = log;
+        typedResponse.from = decodeAddress(log.getTopics().get(1));
+        typedResponse.value = decodeUint256(log.getData());
+        return typedResponse;
+    }
+
+    /**
+     * Decodes an address from a 32 byte topic, in the same lower case, {@code 0x} prefixed form
+     * as {@link org.web3j.abi.datatypes.Address#toString()}.
+     */
+    public static String decodeAddress(String topic) {
+        if (topic.length() != TOPIC_LENGTH) {
+            throw new IllegalArgumentException("Not a 32 byte topic: " + topic);
+        }
+        String address = "0x" + topic.substring(ADDRESS_OFFSET);
+        for (int i = 2; i < address.length(); i++) {
+            char c = address.charAt(i);
+            if (c >= 'A' && c <= 'F') {
+                return address.toLowerCase();
+            }
+        }
+        return address;
+    }
+
+    /**
+     * Decodes the first 32 byte word of {@code 0x} prefixed hex data as an unsigned integer.
+     * Values below 2^60 are parsed without an intermediate string.
+     */
+    public static BigInteger decodeUint256(String data) {
+        if (data == null || data.length() < TOPIC_LENGTH) {
+            throw new IllegalArgumentException("Data does not contain a 32 byte word: " + data);
+        }
+        int start = 2;
+        int end = TOPIC_LENGTH;
+        while (start < end && data.charAt(start) == '0') {
+            start++;
+        }
+        if (end - start > 15) {
+            return new BigInteger(data.substring(start, end), 16);
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(data.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException("Invalid hex digit in " + data);
+            }
+            value = (value << 4) | digit;
+        }
+        return BigInteger.valueOf(value);
+    }
+
+    private static boolean hasTopic0(Log log, String topic, int topicCount) {
+        List<String> topics = log.getTopics();
+        return topics != null && topics.size() == topicCount && topic.equals(topics.get(0));
+    }
+}
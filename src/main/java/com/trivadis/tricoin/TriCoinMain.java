@@ -1,16 +1,29 @@
 package com.trivadis.tricoin;
 
+import com.trivadis.tricoin.keys.CredentialManager;
+import com.trivadis.tricoin.keys.SealedKeyCache;
+import com.trivadis.tricoin.metrics.MetricsHttpServer;
+import com.trivadis.tricoin.metrics.TriCoinMetrics;
+import com.trivadis.tricoin.rpc.BatchingHttpService;
+import com.trivadis.tricoin.rpc.NodePool;
+import com.trivadis.tricoin.tx.ReceiptTracker;
+import com.trivadis.tricoin.tx.TransactionPipeline;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.web3j.crypto.Credentials;
-import org.web3j.crypto.WalletUtils;
 import org.web3j.protocol.Web3j;
 import org.web3j.protocol.core.methods.response.TransactionReceipt;
-import org.web3j.protocol.http.HttpService;
+import org.web3j.tx.ChainId;
 import org.web3j.tx.Contract;
 import org.web3j.tx.ManagedTransaction;
+import org.web3j.tx.RawTransactionManager;
 
 import java.math.BigInteger;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A simple web3j application that demonstrates a number of core features of web3j:
@@ -50,21 +63,44 @@ public class TriCoinMain {
 
         // We start by creating a new web3j instance to connect to remote nodes on the network.
         // Note: if using web3j Android, use Web3jFactory.build(...
-        Web3j web3j = Web3j.build(new HttpService(
-                "https://rinkeby.infura.io/kRf3lcK5sXaytiitWie6"));
+        // Metrics are available through JMX and at http://localhost:9404/metrics
+        TriCoinMetrics metrics = new TriCoinMetrics();
+        metrics.registerMBean();
+        MetricsHttpServer metricsServer = new MetricsHttpServer(metrics, Integer.getInteger("tricoin.metrics.port", 9404));
+
+        // The pool spreads reads over all nodes given in -Dtricoin.nodes (comma separated), and can
+        // additionally pack many reads into one JSON-RPC batch request.
+        NodePool web3jService = new NodePool();
+        for (String url : System.getProperty("tricoin.nodes", "https://rinkeby.infura.io/kRf3lcK5sXaytiitWie6").split(",")) {
+            url = url.trim();
+            if (url.isEmpty()) {
+                continue;
+            }
+            BatchingHttpService node = new BatchingHttpService(url);
+            node.setMetrics(metrics);
+            web3jService.addNode(url, node);
+        }
+        Web3j web3j = Web3j.build(web3jService);
         log.info("Connected to Ethereum client version: "
                 + web3j.web3ClientVersion().send().getWeb3ClientVersion());
 
-        // We then need to load our Ethereum wallet file
-        Credentials credentials =
-                WalletUtils.loadCredentials(
-                        "xxxx",
-                        "UTC--2018-04-08T10-59-33.474000000Z--dd06426c25e2a21a121613be469c025088e89d35.json");
+        // We then need to load our Ethereum wallet files. All keystore files in -Dtricoin.keystore are
+        // decrypted in parallel; with -Dtricoin.keycache the unlocked keys are kept in a sealed
+        // cache file that opens much faster on the next start. The cache has its own passphrase,
+        // taken from the TRICOIN_KEYCACHE_PASSPHRASE environment variable.
+        CredentialManager credentialManager = new CredentialManager();
+        String keyCache = System.getProperty("tricoin.keycache");
+        if (keyCache != null) {
+            String passphrase = System.getenv("TRICOIN_KEYCACHE_PASSPHRASE");
+            if (passphrase == null || passphrase.isEmpty()) {
+                throw new IllegalStateException("-Dtricoin.keycache needs a passphrase in TRICOIN_KEYCACHE_PASSPHRASE");
+            }
+            credentialManager.setSealedCache(new SealedKeyCache(Paths.get(keyCache), passphrase));
+        }
+        credentialManager.loadDirectory(Paths.get(System.getProperty("tricoin.keystore", ".")), "xxxx");
+        Credentials credentials = credentialManager.getStore().require("0xdd06426c25e2a21a121613be469c025088e89d35");
         log.info("Credentials loaded");
-        Credentials bob =
-                WalletUtils.loadCredentials(
-                        "xxxx",
-                        "UTC--2018-04-08T14-29-23.479000000Z--014269ef97299b8eb17d662ca85b49e85f533cd0.json");
+        Credentials bob = credentialManager.getStore().require("0x014269ef97299b8eb17d662ca85b49e85f533cd0");
 
 
 
@@ -82,7 +118,13 @@ public class TriCoinMain {
 
 
         log.info("Loading smart contract");
-        TriCoin contract =   TriCoin.load("0x78021bafea6605a9bba9a7cc8c12b5d2172fc857",web3j,credentials,ManagedTransaction.GAS_PRICE, Contract.GAS_LIMIT);
+        // All transactions wait for their receipts through one shared, batched poller
+        ReceiptTracker receiptTracker = new ReceiptTracker(web3j, web3jService);
+        TriCoin contract =   TriCoin.load("0x78021bafea6605a9bba9a7cc8c12b5d2172fc857",web3j,
+                new RawTransactionManager(web3j, credentials, ChainId.RINKEBY, receiptTracker.receiptProcessor()),
+                ManagedTransaction.GAS_PRICE, Contract.GAS_LIMIT);
+        contract.setBatchService(web3jService);
+        contract.setMetrics(metrics);
 
         String contractAddress = contract.getContractAddress();
         log.info("View contract at https://rinkeby.etherscan.io/address/" + contractAddress);
@@ -101,5 +143,28 @@ public class TriCoinMain {
 
         log.info("Balance of 0x65A1FeC365a19E2e2Ccd36f51DbD74043A3d572b: " + contract.balanceOf("0x65A1FeC365a19E2e2Ccd36f51DbD74043A3d572b").send());
 
+        // The pipeline sends several transfers without waiting for each one to be mined
+        try (TransactionPipeline pipeline = new TransactionPipeline(
+                web3j, credentials, ChainId.RINKEBY, ManagedTransaction.GAS_PRICE, Contract.GAS_LIMIT, receiptTracker)) {
+            pipeline.setMetrics(metrics);
+            contract.setTransactionPipeline(pipeline);
+            List<CompletableFuture<TransactionReceipt>> receipts = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                receipts.add(contract.transferAsync(bob.getAddress(), new BigInteger("1000000000000000000")));
+            }
+            for (CompletableFuture<TransactionReceipt> receipt : receipts) {
+                log.info("View Transaction at https://rinkeby.etherscan.io/tx/" + receipt.get().getTransactionHash());
+            }
+        }
+
+        // Several balances can be read in one batch, all at the same block
+        TriCoin.BulkReadResponse balances = contract.balancesOf(Arrays.asList(
+                credentials.getAddress(), bob.getAddress(), "0x65A1FeC365a19E2e2Ccd36f51DbD74043A3d572b")).send();
+        log.info("Balances at block " + balances.blockNumber + ": " + balances.values);
+
+        receiptTracker.close();
+        web3jService.close();
+        metricsServer.close();
+
     }
 }
@@ -0,0 +1,381 @@
+package com.trivadis.tricoin.cache;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.trivadis.tricoin.TriCoin;
+import com.trivadis.tricoin.TriCoinEventDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.RemoteCall;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+import rx.subscriptions.CompositeSubscription;
+
+/**
+ * A read-through cache in front of the TriCoin view methods.
+ *
+ * <ul>
+ *     <li>{@code name}, {@code symbol} and {@code decimals} never change once the contract is
+ *     deployed and are read only once.</li>
+ *     <li>{@code totalSupply}, {@code balanceOf} and {@code allowance} are read as of the head
+ *     block the cache knows about and stored with that block number, in a size-bounded LRU map.
+ *     While the cache follows the contract's events, a balance stays valid in later blocks until a
+ *     Transfer or Burn event touches the address, and the total supply until a Burn event, but only
+ *     up to the block whose events have all been seen. Without events, and always for allowances
+ *     (the contract emits no Approval event), an entry is only valid for the block it was read
+ *     at.</li>
+ * </ul>
+ *
+ * <p>The head block is advanced by {@link #follow()}, or by calling {@link #onNewBlock(long)},
+ * {@link #onEvent(Log)} and {@link #onEventsProcessed(long)} from existing streams. Until a head
+ * block is known, every read goes to the node.
+ */
+public class TriCoinViewCache implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TriCoinViewCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+    private static final String TOTAL_SUPPLY = "totalSupply";
+    private static final String BALANCE_OF = "balanceOf:";
+    private static final String ALLOWANCE = "allowance:";
+
+    private final TriCoin contract;
+    private final Web3j web3j;
+    private final int maxEntries;
+    private final Map<String, CachedValue> entries;
+    private final Map<String, Long> invalidatedAt = new HashMap<String, Long>();
+    private final TreeMap<Long, Set<String>> invalidatedByBlock = new TreeMap<Long, Set<String>>();
+    private final CompositeSubscription subscriptions = new CompositeSubscription();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder invalidations = new LongAdder();
+
+    private volatile String name;
+    private volatile String symbol;
+    private volatile BigInteger decimals;
+    private volatile long headBlock = -1;
+    private volatile long eventsThrough = -1;
+    private volatile boolean eventDriven;
+    // Invalidations at or below this block were dropped to bound the map, so no read from an
+    // earlier block may be stored.
+    private long invalidationFloor = -1;
+
+    public TriCoinViewCache(TriCoin contract, Web3j web3j) {
+        this(contract, web3j, DEFAULT_MAX_ENTRIES);
+    }
+
+    public TriCoinViewCache(TriCoin contract, Web3j web3j, int maxEntries) {
+        this.contract = contract;
+        this.web3j = web3j;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, CachedValue>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedValue> eldest) {
+                if (size() > TriCoinViewCache.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Follows new blocks from now on. For each one, the contract's Transfer and Burn events since
+     * the last block are fetched and passed to {@link #onEvent(Log)} before the block becomes the
+     * head, so entries are never reused for a block whose events have not been seen.
+     */
+    public void follow() {
+        synchronized (entries) {
+            // Entries read before the events were followed may miss the events in between.
+            entries.clear();
+            eventsThrough = headBlock;
+        }
+        eventDriven = true;
+        subscriptions.add(web3j.blockObservable(false).subscribe(
+                block -> catchUp(block.getBlock().getNumber().longValueExact()),
+                error -> log.error("Block stream failed", error)));
+    }
+
+    /**
+     * Declares whether all Transfer and Burn events are passed to {@link #onEvent(Log)}, followed
+     * by {@link #onEventsProcessed(long)} for their block, which lets balances stay cached across
+     * blocks. {@link #follow()} sets this.
+     */
+    public void setEventDriven(boolean eventDriven) {
+        this.eventDriven = eventDriven;
+    }
+
+    public void onNewBlock(long blockNumber) {
+        synchronized (entries) {
+            if (blockNumber > headBlock) {
+                headBlock = blockNumber;
+            }
+        }
+    }
+
+    /**
+     * Declares that all Transfer and Burn events up to and including {@code blockNumber} were
+     * passed to {@link #onEvent(Log)}. Entries are reused in later blocks only up to this block.
+     */
+    public void onEventsProcessed(long blockNumber) {
+        synchronized (entries) {
+            if (blockNumber > eventsThrough) {
+                eventsThrough = blockNumber;
+            }
+        }
+        onNewBlock(blockNumber);
+    }
+
+    /**
+     * Invalidates the entries a Transfer or Burn log affects.
+     */
+    public void onEvent(Log eventLog) {
+        long blockNumber = eventLog.getBlockNumber().longValueExact();
+        if (TriCoinEventDecoder.isTransfer(eventLog)) {
+            TriCoin.TransferEventResponse event = TriCoinEventDecoder.decodeTransfer(eventLog);
+            invalidate(BALANCE_OF + event.from, blockNumber);
+            invalidate(BALANCE_OF + event.to, blockNumber);
+        } else if (TriCoinEventDecoder.isBurn(eventLog)) {
+            TriCoin.BurnEventResponse event = TriCoinEventDecoder.decodeBurn(eventLog);
+            invalidate(BALANCE_OF + event.from, blockNumber);
+            invalidate(TOTAL_SUPPLY, blockNumber);
+        }
+        onNewBlock(blockNumber);
+    }
+
+    public RemoteCall<String> name() {
+        return new RemoteCall<String>(() -> {
+            String value = name;
+            if (value == null) {
+                misses.increment();
+                value = contract.name().send();
+                name = value;
+            } else {
+                hits.increment();
+            }
+            return value;
+        });
+    }
+
+    public RemoteCall<String> symbol() {
+        return new RemoteCall<String>(() -> {
+            String value = symbol;
+            if (value == null) {
+                misses.increment();
+                value = contract.symbol().send();
+                symbol = value;
+            } else {
+                hits.increment();
+            }
+            return value;
+        });
+    }
+
+    public RemoteCall<BigInteger> decimals() {
+        return new RemoteCall<BigInteger>(() -> {
+            BigInteger value = decimals;
+            if (value == null) {
+                misses.increment();
+                value = contract.decimals().send();
+                decimals = value;
+            } else {
+                hits.increment();
+            }
+            return value;
+        });
+    }
+
+    public RemoteCall<BigInteger> totalSupply() {
+        return new RemoteCall<BigInteger>(() -> {
+            long block = headBlock;
+            if (block < 0) {
+                misses.increment();
+                return contract.totalSupply().send();
+            }
+            BigInteger cached = lookup(TOTAL_SUPPLY, block, eventDriven);
+            if (cached != null) {
+                return cached;
+            }
+            BigInteger value = contract.totalSupply(BigInteger.valueOf(block)).send();
+            store(TOTAL_SUPPLY, block, value);
+            return value;
+        });
+    }
+
+    public RemoteCall<BigInteger> balanceOf(final String owner) {
+        return new RemoteCall<BigInteger>(() -> {
+            long block = headBlock;
+            if (block < 0) {
+                misses.increment();
+                return contract.balanceOf(owner).send();
+            }
+            String key = BALANCE_OF + owner.toLowerCase();
+            BigInteger cached = lookup(key, block, eventDriven);
+            if (cached != null) {
+                return cached;
+            }
+            BigInteger value = contract.balancesOf(Collections.singletonList(owner), BigInteger.valueOf(block))
+                    .send().values.get(owner);
+            store(key, block, value);
+            return value;
+        });
+    }
+
+    public RemoteCall<BigInteger> allowance(final String owner, final String spender) {
+        return new RemoteCall<BigInteger>(() -> {
+            long block = headBlock;
+            if (block < 0) {
+                misses.increment();
+                return contract.allowance(owner, spender).send();
+            }
+            String key = ALLOWANCE + owner.toLowerCase() + ":" + spender.toLowerCase();
+            BigInteger cached = lookup(key, block, false);
+            if (cached != null) {
+                return cached;
+            }
+            BigInteger value = contract.allowances(Collections.singletonList(owner), spender, BigInteger.valueOf(block))
+                    .send().values.get(owner);
+            store(key, block, value);
+            return value;
+        });
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getInvalidationCount() {
+        return invalidations.sum();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        subscriptions.unsubscribe();
+    }
+
+    private void catchUp(long blockNumber) {
+        long from = eventsThrough >= 0 ? eventsThrough + 1 : blockNumber;
+        if (from <= blockNumber) {
+            EthFilter filter = new EthFilter(DefaultBlockParameter.valueOf(BigInteger.valueOf(from)),
+                    DefaultBlockParameter.valueOf(BigInteger.valueOf(blockNumber)), contract.getContractAddress());
+            filter.addOptionalTopics(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, TriCoinEventDecoder.BURN_EVENT_TOPIC);
+            try {
+                EthLog response = web3j.ethGetLogs(filter).send();
+                if (response.hasError()) {
+                    throw new IOException(response.getError().getMessage());
+                }
+                for (EthLog.LogResult<?> result : response.getLogs()) {
+                    Object eventLog = result.get();
+                    if (eventLog instanceof Log) {
+                        onEvent((Log) eventLog);
+                    }
+                }
+                onEventsProcessed(blockNumber);
+            } catch (IOException e) {
+                // Entries are not reused past the last complete block; the next block retries.
+                log.warn("Could not fetch TriCoin events of blocks {} to {}", from, blockNumber, e);
+            }
+        }
+        onNewBlock(blockNumber);
+    }
+
+    private BigInteger lookup(String key, long block, boolean validInLaterBlocks) {
+        CachedValue entry;
+        synchronized (entries) {
+            entry = entries.get(key);
+        }
+        if (entry != null && (entry.block == block
+                || (validInLaterBlocks && entry.block < block && block <= eventsThrough))) {
+            hits.increment();
+            return entry.value;
+        }
+        misses.increment();
+        return null;
+    }
+
+    private void store(String key, long block, BigInteger value) {
+        if (value == null) {
+            return;
+        }
+        synchronized (entries) {
+            Long invalidated = invalidatedAt.get(key);
+            if (block < invalidationFloor || (invalidated != null && block < invalidated)) {
+                return;
+            }
+            CachedValue existing = entries.get(key);
+            if (existing == null || existing.block <= block) {
+                entries.put(key, new CachedValue(block, value));
+            }
+        }
+    }
+
+    private void invalidate(String key, long blockNumber) {
+        synchronized (entries) {
+            if (entries.remove(key) != null) {
+                invalidations.increment();
+            }
+            Long previous = invalidatedAt.get(key);
+            if (previous != null && previous >= blockNumber) {
+                return;
+            }
+            if (previous != null) {
+                Set<String> keys = invalidatedByBlock.get(previous);
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    invalidatedByBlock.remove(previous);
+                }
+            }
+            invalidatedAt.put(key, blockNumber);
+            invalidatedByBlock.computeIfAbsent(blockNumber, block -> new HashSet<String>()).add(key);
+            // Drop the oldest blocks' invalidations first; the floor keeps them in effect.
+            while (invalidatedAt.size() > maxEntries) {
+                Map.Entry<Long, Set<String>> oldest = invalidatedByBlock.pollFirstEntry();
+                invalidatedAt.keySet().removeAll(oldest.getValue());
+                invalidationFloor = Math.max(invalidationFloor, oldest.getKey());
+            }
+        }
+    }
+
+    private static final class CachedValue {
+        final long block;
+        final BigInteger value;
+
+        CachedValue(long block, BigInteger value) {
+            this.block = block;
+            this.value = value;
+        }
+    }
+}
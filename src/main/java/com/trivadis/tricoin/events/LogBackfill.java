@@ -0,0 +1,273 @@
+package com.trivadis.tricoin.events;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+import rx.Observable;
+
+/**
+ * Fetches the logs of a contract over a historical block range with {@code eth_getLogs}.
+ *
+ * <p>The range is split into windows that are fetched in parallel, at most {@code parallelism}
+ * at a time. A window the node rejects, times out on, or answers with {@code maxResultsPerWindow}
+ * or more logs (which providers do when they truncate) is split in half and fetched again, and
+ * the window size for the rest of the range shrinks with it. Unsplit windows that come back with
+ * fewer than {@code sparseThreshold} logs let the window size grow again, up to {@code maxWindow}.
+ *
+ * <p>A single block that comes back with {@code maxResultsPerWindow} or more logs cannot be split,
+ * so it is delivered as it is with a warning; raise {@code maxResultsPerWindow} above the
+ * provider's limit if one block can hold that many logs.
+ *
+ * <p>Logs are always delivered in block and log index order, whatever order the windows
+ * complete in.
+ */
+public class LogBackfill {
+
+    private static final Logger log = LoggerFactory.getLogger(LogBackfill.class);
+
+    public static final long DEFAULT_INITIAL_WINDOW = 5_000;
+    public static final long DEFAULT_MIN_WINDOW = 1;
+    public static final long DEFAULT_MAX_WINDOW = 500_000;
+    public static final int DEFAULT_PARALLELISM = 4;
+    public static final int DEFAULT_MAX_RESULTS_PER_WINDOW = 10_000;
+    public static final int DEFAULT_SPARSE_THRESHOLD = 1_000;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+
+    /** Orders logs by block number and log index, comparing the raw hex quantities. */
+    public static final Comparator<Log> LOG_ORDER = (a, b) -> {
+        int byBlock = compareQuantity(a.getBlockNumberRaw(), b.getBlockNumberRaw());
+        return byBlock != 0 ? byBlock : compareQuantity(a.getLogIndexRaw(), b.getLogIndexRaw());
+    };
+
+    private static final AtomicInteger THREAD_IDS = new AtomicInteger();
+
+    /** Receives the logs of a backfill in order. */
+    public interface LogHandler {
+        void onLog(Log log) throws Exception;
+    }
+
+    private final Web3j web3j;
+    private final String contractAddress;
+    private final List<String> topics;
+
+    private long initialWindow = DEFAULT_INITIAL_WINDOW;
+    private long minWindow = DEFAULT_MIN_WINDOW;
+    private long maxWindow = DEFAULT_MAX_WINDOW;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private int maxResultsPerWindow = DEFAULT_MAX_RESULTS_PER_WINDOW;
+    private int sparseThreshold = DEFAULT_SPARSE_THRESHOLD;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long retryDelayMillis = 500;
+
+    /**
+     * @param topics the accepted values of topic0; logs matching any of them are fetched
+     */
+    public LogBackfill(Web3j web3j, String contractAddress, String... topics) {
+        this.web3j = web3j;
+        this.contractAddress = contractAddress;
+        this.topics = Arrays.asList(topics);
+    }
+
+    public LogBackfill setInitialWindow(long initialWindow) {
+        this.initialWindow = initialWindow;
+        return this;
+    }
+
+    public LogBackfill setMinWindow(long minWindow) {
+        this.minWindow = minWindow;
+        return this;
+    }
+
+    public LogBackfill setMaxWindow(long maxWindow) {
+        this.maxWindow = maxWindow;
+        return this;
+    }
+
+    public LogBackfill setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    public LogBackfill setMaxResultsPerWindow(int maxResultsPerWindow) {
+        this.maxResultsPerWindow = maxResultsPerWindow;
+        return this;
+    }
+
+    public LogBackfill setSparseThreshold(int sparseThreshold) {
+        this.sparseThreshold = sparseThreshold;
+        return this;
+    }
+
+    public LogBackfill setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+        return this;
+    }
+
+    public LogBackfill setRetryDelayMillis(long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+        return this;
+    }
+
+    /**
+     * Emits the logs between both blocks (inclusive) in order, then completes. Logs are emitted
+     * on the subscribing thread.
+     */
+    public Observable<Log> observable(final BigInteger startBlock, final BigInteger endBlock) {
+        return Observable.create(subscriber -> {
+            try {
+                run(startBlock, endBlock, logEntry -> {
+                    if (subscriber.isUnsubscribed()) {
+                        throw new InterruptedException("Unsubscribed");
+                    }
+                    subscriber.onNext(logEntry);
+                });
+                subscriber.onCompleted();
+            } catch (Throwable e) {
+                if (!subscriber.isUnsubscribed()) {
+                    subscriber.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Fetches the logs between both blocks (inclusive) and hands them to {@code handler} in order
+     * on the calling thread.
+     */
+    public void run(BigInteger startBlock, BigInteger endBlock, LogHandler handler) throws Exception {
+        long from = startBlock.longValueExact();
+        long to = endBlock.longValueExact();
+        AtomicLong window = new AtomicLong(clamp(initialWindow));
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism, runnable -> {
+            Thread thread = new Thread(runnable, "log-backfill-" + THREAD_IDS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        ArrayDeque<Future<List<Log>>> inFlight = new ArrayDeque<Future<List<Log>>>();
+        try {
+            long next = from;
+            while (next <= to || !inFlight.isEmpty()) {
+                while (inFlight.size() < parallelism && next <= to) {
+                    final long windowStart = next;
+                    final long windowEnd = Math.min(to, next + window.get() - 1);
+                    inFlight.add(executor.submit(() -> fetch(windowStart, windowEnd, window, false)));
+                    next = windowEnd + 1;
+                }
+                for (Log logEntry : inFlight.poll().get()) {
+                    handler.onLog(logEntry);
+                }
+            }
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private List<Log> fetch(long start, long end, AtomicLong window, boolean split) throws IOException, InterruptedException {
+        int attempt = 0;
+        while (true) {
+            String failure;
+            try {
+                EthLog response = web3j.ethGetLogs(filter(start, end)).send();
+                if (!response.hasError()) {
+                    List<Log> logs = toLogs(response);
+                    if (logs.size() < maxResultsPerWindow || start == end) {
+                        if (logs.size() >= maxResultsPerWindow) {
+                            // A single block cannot be split any further
+                            log.warn("Block {} returned {} logs, at least maxResultsPerWindow; if the node "
+                                    + "truncated the response, logs are missing", start, logs.size());
+                        }
+                        long size = end - start + 1;
+                        if (!split && logs.size() < sparseThreshold) {
+                            window.accumulateAndGet(size * 2, (current, grown) -> clamp(Math.max(current, grown)));
+                        }
+                        return logs;
+                    }
+                    failure = logs.size() + " results, assuming the response was truncated";
+                } else {
+                    failure = response.getError().getMessage();
+                }
+            } catch (InterruptedIOException e) {
+                throw e;
+            } catch (IOException e) {
+                failure = e.toString();
+            }
+            if (start < end) {
+                long mid = start + (end - start) / 2;
+                log.debug("Splitting blocks {}-{}: {}", start, end, failure);
+                window.accumulateAndGet(mid - start + 1, (current, shrunk) -> clamp(Math.min(current, shrunk)));
+                List<Log> logs = new ArrayList<Log>(fetch(start, mid, window, true));
+                logs.addAll(fetch(mid + 1, end, window, true));
+                return logs;
+            }
+            if (++attempt > maxRetries) {
+                throw new IOException("Fetching logs of block " + start + " failed: " + failure);
+            }
+            log.debug("Retrying block {} ({}): {}", start, attempt, failure);
+            Thread.sleep(retryDelayMillis * attempt);
+        }
+    }
+
+    private EthFilter filter(long start, long end) {
+        EthFilter filter = new EthFilter(
+                DefaultBlockParameter.valueOf(BigInteger.valueOf(start)),
+                DefaultBlockParameter.valueOf(BigInteger.valueOf(end)),
+                contractAddress);
+        if (topics.size() == 1) {
+            filter.addSingleTopic(topics.get(0));
+        } else if (!topics.isEmpty()) {
+            filter.addOptionalTopics(topics.toArray(new String[topics.size()]));
+        }
+        return filter;
+    }
+
+    private long clamp(long size) {
+        return Math.max(minWindow, Math.min(maxWindow, size));
+    }
+
+    private static List<Log> toLogs(EthLog response) {
+        if (response.getLogs() == null || response.getLogs().isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Log> logs = new ArrayList<Log>(response.getLogs().size());
+        for (EthLog.LogResult<?> result : response.getLogs()) {
+            logs.add((Log) result.get());
+        }
+        for (int i = 1; i < logs.size(); i++) {
+            if (LOG_ORDER.compare(logs.get(i - 1), logs.get(i)) > 0) {
+                Collections.sort(logs, LOG_ORDER);
+                break;
+            }
+        }
+        return logs;
+    }
+
+    /** Compares two {@code 0x} prefixed hex quantities, which carry no leading zeros. */
+    static int compareQuantity(String a, String b) {
+        if (a.length() != b.length()) {
+            return a.length() - b.length();
+        }
+        return a.compareToIgnoreCase(b);
+    }
+}
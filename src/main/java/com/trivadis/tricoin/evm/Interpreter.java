@@ -0,0 +1,566 @@
+package com.trivadis.tricoin.evm;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+/**
+ * Executes EVM bytecode for a single message call without sub-calls, charging gas as of the
+ * Byzantium fork, which is what the TriCoin contract was compiled for.
+ *
+ * <p>Words are non-negative {@link BigInteger}s below 2^256. Storage is read through a
+ * {@link StorageView} and writes are collected per execution, so the caller decides whether to
+ * keep them.
+ */
+final class Interpreter {
+
+    static final BigInteger TWO_256 = BigInteger.ONE.shiftLeft(256);
+    static final BigInteger MAX_WORD = TWO_256.subtract(BigInteger.ONE);
+    private static final BigInteger TWO_255 = BigInteger.ONE.shiftLeft(255);
+    private static final BigInteger MAX_INT = BigInteger.valueOf(Integer.MAX_VALUE);
+
+    private static final int STACK_LIMIT = 1024;
+    private static final long SSTORE_SET = 20_000;
+    private static final long SSTORE_RESET = 5_000;
+    private static final long SSTORE_REFUND = 15_000;
+
+    /**
+     * Reads storage slots that were not written by the current execution.
+     */
+    interface StorageView {
+        BigInteger load(BigInteger slot) throws IOException;
+    }
+
+    /**
+     * How an execution ended. {@code UNSUPPORTED} means it reached a defined opcode this
+     * interpreter does not implement, so its outcome is unknown.
+     */
+    enum Status {
+        STOPPED, RETURNED, REVERTED, INVALID, OUT_OF_GAS, UNSUPPORTED
+    }
+
+    static final class Result {
+        final Status status;
+        final byte[] output;
+        final long gasUsed;
+        final long refund;
+        final Map<BigInteger, BigInteger> writes;
+        final List<Log> logs;
+
+        Result(Status status, byte[] output, long gasUsed, long refund, Map<BigInteger, BigInteger> writes, List<Log> logs) {
+            this.status = status;
+            this.output = output;
+            this.gasUsed = gasUsed;
+            this.refund = refund;
+            this.writes = writes;
+            this.logs = logs;
+        }
+
+        boolean isSuccess() {
+            return status == Status.STOPPED || status == Status.RETURNED;
+        }
+    }
+
+    private static final class Halt extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final Status status;
+
+        Halt(Status status) {
+            super(status.name(), null, false, false);
+            this.status = status;
+        }
+    }
+
+    private static final Halt INVALID = new Halt(Status.INVALID);
+    private static final Halt OUT_OF_GAS = new Halt(Status.OUT_OF_GAS);
+    private static final Halt UNSUPPORTED = new Halt(Status.UNSUPPORTED);
+
+    private final byte[] code;
+    private final BitSet jumpDestinations = new BitSet();
+
+    Interpreter(byte[] code) {
+        this.code = code;
+        for (int pc = 0; pc < code.length; pc++) {
+            int op = code[pc] & 0xff;
+            if (op == 0x5b) {
+                jumpDestinations.set(pc);
+            } else if (op >= 0x60 && op <= 0x7f) {
+                pc += op - 0x5f;
+            }
+        }
+    }
+
+    byte[] getCode() {
+        return code;
+    }
+
+    Result execute(BigInteger address, BigInteger caller, BigInteger value, byte[] callData, long gasLimit,
+                   StorageView storage) throws IOException {
+        return new Frame(address, caller, value, callData, gasLimit, storage).run();
+    }
+
+    private final class Frame {
+        final BigInteger address;
+        final BigInteger caller;
+        final BigInteger value;
+        final byte[] callData;
+        final long gasLimit;
+        final StorageView storage;
+        final Map<BigInteger, BigInteger> writes = new LinkedHashMap<BigInteger, BigInteger>();
+        final List<Log> logs = new ArrayList<Log>();
+        final BigInteger[] stack = new BigInteger[STACK_LIMIT];
+        byte[] memory = new byte[1024];
+        long memoryWords;
+        int sp;
+        long gas;
+        long refund;
+
+        Frame(BigInteger address, BigInteger caller, BigInteger value, byte[] callData, long gasLimit, StorageView storage) {
+            this.address = address;
+            this.caller = caller;
+            this.value = value;
+            this.callData = callData;
+            this.gasLimit = gasLimit;
+            this.storage = storage;
+            this.gas = gasLimit;
+        }
+
+        Result run() throws IOException {
+            try {
+                return loop();
+            } catch (Halt halt) {
+                return new Result(halt.status, new byte[0], gasLimit, 0, writes, logs);
+            }
+        }
+
+        private Result finish(Status status, byte[] output) {
+            return new Result(status, output, gasLimit - gas, status == Status.REVERTED ? 0 : refund, writes, logs);
+        }
+
+        private Result loop() throws Halt, IOException {
+            int pc = 0;
+            while (pc < code.length) {
+                int op = code[pc] & 0xff;
+                pc++;
+                if (op >= 0x60 && op <= 0x7f) {
+                    use(3);
+                    int size = op - 0x5f;
+                    byte[] word = new byte[size];
+                    System.arraycopy(code, pc, word, 0, Math.max(0, Math.min(size, code.length - pc)));
+                    push(new BigInteger(1, word));
+                    pc += size;
+                    continue;
+                }
+                if (op >= 0x80 && op <= 0x8f) {
+                    use(3);
+                    int n = op - 0x7f;
+                    require(n, 1);
+                    push(stack[sp - n]);
+                    continue;
+                }
+                if (op >= 0x90 && op <= 0x9f) {
+                    use(3);
+                    int n = op - 0x8f;
+                    require(n + 1, 0);
+                    BigInteger top = stack[sp - 1];
+                    stack[sp - 1] = stack[sp - 1 - n];
+                    stack[sp - 1 - n] = top;
+                    continue;
+                }
+                BigInteger a;
+                BigInteger b;
+                switch (op) {
+                    case 0x00:
+                        return finish(Status.STOPPED, new byte[0]);
+                    case 0x01:
+                        use(3);
+                        push(pop().add(pop()).and(MAX_WORD));
+                        break;
+                    case 0x02:
+                        use(5);
+                        push(pop().multiply(pop()).and(MAX_WORD));
+                        break;
+                    case 0x03:
+                        use(3);
+                        a = pop();
+                        push(a.subtract(pop()).and(MAX_WORD));
+                        break;
+                    case 0x04:
+                        use(5);
+                        a = pop();
+                        b = pop();
+                        push(b.signum() == 0 ? BigInteger.ZERO : a.divide(b));
+                        break;
+                    case 0x05:
+                        use(5);
+                        a = signed(pop());
+                        b = signed(pop());
+                        push(b.signum() == 0 ? BigInteger.ZERO : a.divide(b).and(MAX_WORD));
+                        break;
+                    case 0x06:
+                        use(5);
+                        a = pop();
+                        b = pop();
+                        push(b.signum() == 0 ? BigInteger.ZERO : a.mod(b));
+                        break;
+                    case 0x07:
+                        use(5);
+                        a = signed(pop());
+                        b = signed(pop());
+                        push(b.signum() == 0 ? BigInteger.ZERO : a.abs().mod(b.abs()).multiply(BigInteger.valueOf(a.signum())).and(MAX_WORD));
+                        break;
+                    case 0x08:
+                        use(8);
+                        a = pop();
+                        b = pop();
+                        BigInteger addModulus = pop();
+                        push(addModulus.signum() == 0 ? BigInteger.ZERO : a.add(b).mod(addModulus));
+                        break;
+                    case 0x09:
+                        use(8);
+                        a = pop();
+                        b = pop();
+                        BigInteger mulModulus = pop();
+                        push(mulModulus.signum() == 0 ? BigInteger.ZERO : a.multiply(b).mod(mulModulus));
+                        break;
+                    case 0x0a:
+                        a = pop();
+                        b = pop();
+                        use(10 + 50 * ((b.bitLength() + 7) / 8));
+                        push(a.modPow(b, TWO_256));
+                        break;
+                    case 0x0b:
+                        use(5);
+                        a = pop();
+                        b = pop();
+                        if (a.compareTo(BigInteger.valueOf(31)) < 0) {
+                            int bit = a.intValue() * 8 + 7;
+                            BigInteger low = BigInteger.ONE.shiftLeft(bit + 1).subtract(BigInteger.ONE);
+                            b = b.testBit(bit) ? b.or(MAX_WORD.xor(low)) : b.and(low);
+                        }
+                        push(b);
+                        break;
+                    case 0x10:
+                        use(3);
+                        push(bool(pop().compareTo(pop()) < 0));
+                        break;
+                    case 0x11:
+                        use(3);
+                        push(bool(pop().compareTo(pop()) > 0));
+                        break;
+                    case 0x12:
+                        use(3);
+                        push(bool(signed(pop()).compareTo(signed(pop())) < 0));
+                        break;
+                    case 0x13:
+                        use(3);
+                        push(bool(signed(pop()).compareTo(signed(pop())) > 0));
+                        break;
+                    case 0x14:
+                        use(3);
+                        push(bool(pop().equals(pop())));
+                        break;
+                    case 0x15:
+                        use(3);
+                        push(bool(pop().signum() == 0));
+                        break;
+                    case 0x16:
+                        use(3);
+                        push(pop().and(pop()));
+                        break;
+                    case 0x17:
+                        use(3);
+                        push(pop().or(pop()));
+                        break;
+                    case 0x18:
+                        use(3);
+                        push(pop().xor(pop()));
+                        break;
+                    case 0x19:
+                        use(3);
+                        push(MAX_WORD.xor(pop()));
+                        break;
+                    case 0x1a:
+                        use(3);
+                        a = pop();
+                        b = pop();
+                        push(a.compareTo(BigInteger.valueOf(32)) < 0
+                                ? b.shiftRight(8 * (31 - a.intValue())).and(BigInteger.valueOf(0xff))
+                                : BigInteger.ZERO);
+                        break;
+                    case 0x20: {
+                        long offset = offset(pop());
+                        long length = offset(pop());
+                        use(30 + 6 * words(length));
+                        expand(offset, length);
+                        push(new BigInteger(1, Hash.sha3(slice(offset, length))));
+                        break;
+                    }
+                    case 0x30:
+                        use(2);
+                        push(address);
+                        break;
+                    case 0x32:
+                    case 0x33:
+                        use(2);
+                        push(caller);
+                        break;
+                    case 0x34:
+                        use(2);
+                        push(value);
+                        break;
+                    case 0x35: {
+                        use(3);
+                        a = pop();
+                        byte[] word = new byte[32];
+                        if (a.compareTo(BigInteger.valueOf(callData.length)) < 0) {
+                            int start = a.intValue();
+                            System.arraycopy(callData, start, word, 0, Math.min(32, callData.length - start));
+                        }
+                        push(new BigInteger(1, word));
+                        break;
+                    }
+                    case 0x36:
+                        use(2);
+                        push(BigInteger.valueOf(callData.length));
+                        break;
+                    case 0x37:
+                        copy(callData);
+                        break;
+                    case 0x38:
+                        use(2);
+                        push(BigInteger.valueOf(code.length));
+                        break;
+                    case 0x39:
+                        copy(code);
+                        break;
+                    case 0x3a:
+                    case 0x3d:
+                        use(2);
+                        push(BigInteger.ZERO);
+                        break;
+                    case 0x50:
+                        use(2);
+                        pop();
+                        break;
+                    case 0x51: {
+                        use(3);
+                        long offset = offset(pop());
+                        expand(offset, 32);
+                        push(new BigInteger(1, Arrays.copyOfRange(memory, (int) offset, (int) offset + 32)));
+                        break;
+                    }
+                    case 0x52: {
+                        use(3);
+                        long offset = offset(pop());
+                        expand(offset, 32);
+                        byte[] word = Numeric.toBytesPadded(pop(), 32);
+                        System.arraycopy(word, 0, memory, (int) offset, 32);
+                        break;
+                    }
+                    case 0x53: {
+                        use(3);
+                        long offset = offset(pop());
+                        expand(offset, 1);
+                        memory[(int) offset] = pop().byteValue();
+                        break;
+                    }
+                    case 0x54:
+                        use(200);
+                        push(load(pop()));
+                        break;
+                    case 0x55: {
+                        a = pop();
+                        b = pop();
+                        BigInteger current = load(a);
+                        if (current.signum() == 0 && b.signum() != 0) {
+                            use(SSTORE_SET);
+                        } else {
+                            use(SSTORE_RESET);
+                            if (current.signum() != 0 && b.signum() == 0) {
+                                refund += SSTORE_REFUND;
+                            }
+                        }
+                        writes.put(a, b);
+                        break;
+                    }
+                    case 0x56:
+                        use(8);
+                        pc = jump(pop());
+                        break;
+                    case 0x57:
+                        use(10);
+                        a = pop();
+                        if (pop().signum() != 0) {
+                            pc = jump(a);
+                        }
+                        break;
+                    case 0x58:
+                        use(2);
+                        push(BigInteger.valueOf(pc - 1));
+                        break;
+                    case 0x59:
+                        use(2);
+                        push(BigInteger.valueOf(memoryWords * 32));
+                        break;
+                    case 0x5a:
+                        use(2);
+                        push(BigInteger.valueOf(gas));
+                        break;
+                    case 0x5b:
+                        use(1);
+                        break;
+                    case 0xa0:
+                    case 0xa1:
+                    case 0xa2:
+                    case 0xa3:
+                    case 0xa4: {
+                        int topicCount = op - 0xa0;
+                        long offset = offset(pop());
+                        long length = offset(pop());
+                        use(375 + 375 * topicCount + 8 * length);
+                        expand(offset, length);
+                        List<String> topics = new ArrayList<String>(topicCount);
+                        for (int i = 0; i < topicCount; i++) {
+                            topics.add(Numeric.toHexStringWithPrefixZeroPadded(pop(), 64));
+                        }
+                        Log log = new Log();
+                        log.setAddress(Numeric.toHexStringWithPrefixZeroPadded(address, 40));
+                        log.setTopics(topics);
+                        log.setData(Numeric.toHexString(slice(offset, length)));
+                        logs.add(log);
+                        break;
+                    }
+                    case 0xf3:
+                    case 0xfd: {
+                        long offset = offset(pop());
+                        long length = offset(pop());
+                        expand(offset, length);
+                        byte[] output = slice(offset, length);
+                        return finish(op == 0xf3 ? Status.RETURNED : Status.REVERTED, output);
+                    }
+                    case 0xfe:
+                        throw INVALID;
+                    default:
+                        throw isDefined(op) ? UNSUPPORTED : INVALID;
+                }
+            }
+            return finish(Status.STOPPED, new byte[0]);
+        }
+
+        private BigInteger load(BigInteger slot) throws IOException {
+            BigInteger written = writes.get(slot);
+            return written != null ? written : storage.load(slot);
+        }
+
+        private void copy(byte[] source) throws Halt {
+            long memoryOffset = offset(pop());
+            BigInteger sourceOffset = pop();
+            long length = offset(pop());
+            use(3 + 3 * words(length));
+            if (length == 0) {
+                return;
+            }
+            expand(memoryOffset, length);
+            Arrays.fill(memory, (int) memoryOffset, (int) (memoryOffset + length), (byte) 0);
+            if (sourceOffset.compareTo(BigInteger.valueOf(source.length)) < 0) {
+                int start = sourceOffset.intValue();
+                System.arraycopy(source, start, memory, (int) memoryOffset, (int) Math.min(length, source.length - start));
+            }
+        }
+
+        private byte[] slice(long offset, long length) {
+            return length == 0 ? new byte[0] : Arrays.copyOfRange(memory, (int) offset, (int) (offset + length));
+        }
+
+        private int jump(BigInteger destination) throws Halt {
+            if (destination.compareTo(BigInteger.valueOf(code.length)) >= 0
+                    || !jumpDestinations.get(destination.intValue())) {
+                throw INVALID;
+            }
+            return destination.intValue();
+        }
+
+        private void expand(long offset, long length) throws Halt {
+            if (length == 0) {
+                return;
+            }
+            long words = words(offset + length);
+            if (words > memoryWords) {
+                use(memoryCost(words) - memoryCost(memoryWords));
+                memoryWords = words;
+                if (words * 32 > memory.length) {
+                    memory = Arrays.copyOf(memory, (int) Math.max(words * 32, memory.length * 2L));
+                }
+            }
+        }
+
+        private void use(long amount) throws Halt {
+            if (amount > gas) {
+                throw OUT_OF_GAS;
+            }
+            gas -= amount;
+        }
+
+        private void push(BigInteger word) throws Halt {
+            if (sp == STACK_LIMIT) {
+                throw INVALID;
+            }
+            stack[sp++] = word;
+        }
+
+        private BigInteger pop() throws Halt {
+            if (sp == 0) {
+                throw INVALID;
+            }
+            return stack[--sp];
+        }
+
+        private void require(int items, int pushes) throws Halt {
+            if (sp < items || sp + pushes > STACK_LIMIT) {
+                throw INVALID;
+            }
+        }
+
+        /**
+         * Returns a memory offset or length; anything that does not fit into an int can never be
+         * paid for.
+         */
+        private long offset(BigInteger word) throws Halt {
+            if (word.compareTo(MAX_INT) > 0) {
+                throw OUT_OF_GAS;
+            }
+            return word.longValue();
+        }
+    }
+
+    private static long words(long bytes) {
+        return (bytes + 31) / 32;
+    }
+
+    private static long memoryCost(long words) {
+        return 3 * words + words * words / 512;
+    }
+
+    private static BigInteger signed(BigInteger word) {
+        return word.compareTo(TWO_255) >= 0 ? word.subtract(TWO_256) : word;
+    }
+
+    private static BigInteger bool(boolean value) {
+        return value ? BigInteger.ONE : BigInteger.ZERO;
+    }
+
+    private static boolean isDefined(int op) {
+        return (op >= 0x30 && op <= 0x45) || (op >= 0xf0 && op <= 0xff);
+    }
+}
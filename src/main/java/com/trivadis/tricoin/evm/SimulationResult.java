@@ -0,0 +1,58 @@
+package com.trivadis.tricoin.evm;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * The outcome of running a transaction locally with {@link TriCoinSimulator}.
+ */
+public class SimulationResult {
+
+    public final boolean success;
+
+    /**
+     * Whether the simulator could run the whole transaction. If not, for example because it calls
+     * another contract, the transaction is reported as failed with {@code "cannot be simulated"},
+     * but whether it would fail on chain is unknown.
+     */
+    public final boolean supported;
+
+    /**
+     * Why the transaction fails: {@code "revert"}, {@code "invalid opcode"},
+     * {@code "out of gas"} or {@code "cannot be simulated"}; {@code null} if it succeeds.
+     */
+    public final String failure;
+
+    /**
+     * The gas the transaction's receipt would show, after refunds.
+     */
+    public final BigInteger gasUsed;
+
+    /**
+     * The lowest gas limit the transaction succeeds with, which is higher than {@link #gasUsed}
+     * if it frees storage.
+     */
+    public final BigInteger gasRequired;
+
+    public final String output;
+
+    public final List<Log> logs;
+
+    SimulationResult(boolean success, boolean supported, String failure, BigInteger gasUsed,
+                     BigInteger gasRequired, String output, List<Log> logs) {
+        this.success = success;
+        this.supported = supported;
+        this.failure = failure;
+        this.gasUsed = gasUsed;
+        this.gasRequired = gasRequired;
+        this.output = output;
+        this.logs = logs;
+    }
+
+    @Override
+    public String toString() {
+        return success ? "success, " + gasUsed + " gas" : failure + ", " + gasUsed + " gas";
+    }
+}
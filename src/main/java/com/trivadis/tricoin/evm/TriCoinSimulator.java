@@ -0,0 +1,268 @@
+package com.trivadis.tricoin.evm;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.trivadis.tricoin.TriCoin;
+import com.trivadis.tricoin.rpc.BatchCaller;
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.methods.response.EthGetStorageAt;
+import org.web3j.tx.Contract;
+import org.web3j.utils.Numeric;
+
+/**
+ * Runs TriCoin transactions in the JVM against a snapshot of the contract's storage, to find out
+ * whether they would fail and how much gas they use without asking a node.
+ *
+ * <p>The runtime code is obtained by running the contract's init code, so it is exactly the code
+ * the contract was deployed with. Storage is read with {@code eth_getStorageAt} at the block the
+ * snapshot is pinned to. A list of transactions is first run with missing slots read as zero,
+ * to learn which slots it touches; those are then fetched in JSON-RPC batches, and the list runs
+ * again until no slot is missing.
+ *
+ * <p>Transactions passed to {@link #apply} are assumed to be mined, and later simulations see
+ * their effects. {@link #refresh()} drops the snapshot and these effects, and pins the next
+ * simulation to the then latest block; {@link #refresh(BigInteger)} pins it to a given block, so
+ * a caller can apply the transactions that are not mined by then again.
+ *
+ * <p>Calls to other contracts, as made by {@code approveAndCall}, cannot be simulated; their
+ * results are not {@link SimulationResult#supported supported}.
+ */
+public class TriCoinSimulator {
+
+    private static final long TX_GAS = 21_000;
+    private static final long TX_DATA_ZERO_GAS = 4;
+    private static final long TX_DATA_NON_ZERO_GAS = 68;
+    private static final int MAX_PRELOAD_ROUNDS = 4;
+
+    private static final Interpreter RUNTIME = new Interpreter(deployedCode());
+
+    private final Web3j web3j;
+    private final String contractAddress;
+    private final BigInteger address;
+    private final BatchCaller batchCaller;
+    private final Map<BigInteger, BigInteger> snapshot = new HashMap<BigInteger, BigInteger>();
+    private final Map<BigInteger, BigInteger> applied = new HashMap<BigInteger, BigInteger>();
+
+    private BigInteger blockNumber;
+    private long gasLimit = Contract.GAS_LIMIT.longValueExact();
+
+    /**
+     * @param batchService used to fetch storage slots in batches; may be {@code null}, in which
+     *                     case they are fetched one by one
+     */
+    public TriCoinSimulator(Web3j web3j, String contractAddress, BatchWeb3jService batchService) {
+        this.web3j = web3j;
+        this.contractAddress = contractAddress;
+        this.address = Numeric.toBigInt(contractAddress);
+        this.batchCaller = new BatchCaller(batchService);
+    }
+
+    public String getContractAddress() {
+        return contractAddress;
+    }
+
+    public synchronized void setGasLimit(BigInteger gasLimit) {
+        this.gasLimit = gasLimit.longValueExact();
+    }
+
+    /**
+     * @return the block the storage snapshot is pinned to, or {@code null} before the first
+     * simulation
+     */
+    public synchronized BigInteger getBlockNumber() {
+        return blockNumber;
+    }
+
+    public SimulationResult simulate(String from, Function function) throws IOException {
+        return simulate(from, FunctionEncoder.encode(function), BigInteger.ZERO);
+    }
+
+    public synchronized SimulationResult simulate(String from, String data, BigInteger value) throws IOException {
+        return run(from, Collections.singletonList(data), value, false).get(0);
+    }
+
+    /**
+     * Simulates the transactions one after the other, each seeing the effects of the successful
+     * ones before it, without keeping any of these effects.
+     */
+    public synchronized List<SimulationResult> simulateAll(String from, List<Function> functions) throws IOException {
+        List<String> data = new ArrayList<String>(functions.size());
+        for (Function function : functions) {
+            data.add(FunctionEncoder.encode(function));
+        }
+        return run(from, data, BigInteger.ZERO, false);
+    }
+
+    public SimulationResult apply(String from, Function function) throws IOException {
+        return apply(from, FunctionEncoder.encode(function), BigInteger.ZERO);
+    }
+
+    /**
+     * Simulates a transaction and, if it succeeds, keeps its effects for later simulations.
+     */
+    public synchronized SimulationResult apply(String from, String data, BigInteger value) throws IOException {
+        return run(from, Collections.singletonList(data), value, true).get(0);
+    }
+
+    public synchronized void refresh() {
+        refresh(null);
+    }
+
+    /**
+     * @param blockNumber the block to pin the snapshot to, or {@code null} for the latest block
+     *                    at the next simulation
+     */
+    public synchronized void refresh(BigInteger blockNumber) {
+        snapshot.clear();
+        applied.clear();
+        this.blockNumber = blockNumber;
+    }
+
+    private List<SimulationResult> run(String from, List<String> data, BigInteger value, boolean keep)
+            throws IOException {
+        if (blockNumber == null) {
+            blockNumber = web3j.ethBlockNumber().send().getBlockNumber();
+        }
+        BigInteger caller = Numeric.toBigInt(from);
+        List<byte[]> callData = new ArrayList<byte[]>(data.size());
+        for (String hex : data) {
+            callData.add(Numeric.hexStringToByteArray(hex));
+        }
+        for (int round = 0; round < MAX_PRELOAD_ROUNDS; round++) {
+            Set<BigInteger> missing = new LinkedHashSet<BigInteger>();
+            Map<BigInteger, BigInteger> writes = new HashMap<BigInteger, BigInteger>();
+            List<SimulationResult> results = runAll(caller, callData, value, writes, slot -> {
+                BigInteger stored = snapshot.get(slot);
+                if (stored == null) {
+                    missing.add(slot);
+                    return BigInteger.ZERO;
+                }
+                return stored;
+            });
+            if (missing.isEmpty()) {
+                if (keep) {
+                    applied.putAll(writes);
+                }
+                return results;
+            }
+            load(missing);
+        }
+        Map<BigInteger, BigInteger> writes = new HashMap<BigInteger, BigInteger>();
+        List<SimulationResult> results = runAll(caller, callData, value, writes, slot -> {
+            if (!snapshot.containsKey(slot)) {
+                load(Collections.singleton(slot));
+            }
+            return snapshot.get(slot);
+        });
+        if (keep) {
+            applied.putAll(writes);
+        }
+        return results;
+    }
+
+    /**
+     * Runs the transactions against {@code snapshotView} and the kept effects of earlier
+     * transactions, collecting the writes of the successful ones in {@code writes}. Rounds that
+     * read missing slots as zero are only used to find these slots, so their writes must never
+     * be kept.
+     */
+    private List<SimulationResult> runAll(BigInteger caller, List<byte[]> callData, BigInteger value,
+                                          Map<BigInteger, BigInteger> writes, Interpreter.StorageView snapshotView)
+            throws IOException {
+        Interpreter.StorageView view = slot -> {
+            BigInteger written = writes.get(slot);
+            if (written == null) {
+                written = applied.get(slot);
+            }
+            return written != null ? written : snapshotView.load(slot);
+        };
+        List<SimulationResult> results = new ArrayList<SimulationResult>(callData.size());
+        for (byte[] data : callData) {
+            long intrinsicGas = intrinsicGas(data);
+            if (intrinsicGas > gasLimit) {
+                results.add(new SimulationResult(false, true, "out of gas", BigInteger.valueOf(gasLimit),
+                        BigInteger.valueOf(intrinsicGas), "0x", Collections.emptyList()));
+                continue;
+            }
+            Interpreter.Result result = RUNTIME.execute(address, caller, value, data, gasLimit - intrinsicGas, view);
+            long required = intrinsicGas + result.gasUsed;
+            long used = required - Math.min(result.refund, required / 2);
+            if (result.isSuccess()) {
+                writes.putAll(result.writes);
+            }
+            results.add(new SimulationResult(result.isSuccess(), result.status != Interpreter.Status.UNSUPPORTED,
+                    failure(result.status), BigInteger.valueOf(used), BigInteger.valueOf(required),
+                    Numeric.toHexString(result.output), result.logs));
+        }
+        return results;
+    }
+
+    private void load(Set<BigInteger> slots) throws IOException {
+        List<BigInteger> keys = new ArrayList<BigInteger>(slots);
+        List<Request<?, EthGetStorageAt>> requests = new ArrayList<Request<?, EthGetStorageAt>>(keys.size());
+        for (BigInteger slot : keys) {
+            requests.add(web3j.ethGetStorageAt(contractAddress, slot, DefaultBlockParameter.valueOf(blockNumber)));
+        }
+        List<EthGetStorageAt> responses = batchCaller.call(requests, EthGetStorageAt.class);
+        for (int i = 0; i < keys.size(); i++) {
+            EthGetStorageAt response = responses.get(i);
+            if (response.hasError()) {
+                throw new IOException("eth_getStorageAt failed: " + response.getError().getMessage());
+            }
+            snapshot.put(keys.get(i), Numeric.toBigInt(response.getData()));
+        }
+    }
+
+    private static long intrinsicGas(byte[] data) {
+        long gas = TX_GAS;
+        for (byte b : data) {
+            gas += b == 0 ? TX_DATA_ZERO_GAS : TX_DATA_NON_ZERO_GAS;
+        }
+        return gas;
+    }
+
+    private static String failure(Interpreter.Status status) {
+        switch (status) {
+            case REVERTED:
+                return "revert";
+            case INVALID:
+                return "invalid opcode";
+            case OUT_OF_GAS:
+                return "out of gas";
+            case UNSUPPORTED:
+                return "cannot be simulated";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Runs the contract's init code to obtain the code it deploys.
+     */
+    private static byte[] deployedCode() {
+        Interpreter init = new Interpreter(Numeric.hexStringToByteArray(TriCoin.getBinary()));
+        try {
+            Interpreter.Result result = init.execute(BigInteger.ZERO, BigInteger.ZERO, BigInteger.ZERO,
+                    new byte[0], Contract.GAS_LIMIT.longValueExact(), slot -> BigInteger.ZERO);
+            if (result.status != Interpreter.Status.RETURNED) {
+                throw new IllegalStateException("TriCoin init code ended with " + result.status);
+            }
+            return result.output;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.trivadis.tricoin.journal;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.trivadis.tricoin.TriCoin;
+import com.trivadis.tricoin.TriCoinEventDecoder;
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * Iterates over the records of an {@link EventJournal}. The accessors read the current record
+ * directly from the mapped segment; nothing is copied unless a {@link String} or
+ * {@link BigInteger} is asked for.
+ */
+public class Cursor {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final EventJournal journal;
+    private final long end;
+    private long next;
+    private ByteBuffer segment;
+    private int offset;
+
+    Cursor(EventJournal journal, long end) {
+        this.journal = journal;
+        this.end = end;
+    }
+
+    /**
+     * Moves to the next record.
+     *
+     * @return false if there are no more records
+     */
+    public boolean next() throws IOException {
+        if (next >= end) {
+            return false;
+        }
+        offset = journal.recordOffset(next);
+        if (segment == null || offset == 0) {
+            segment = journal.segment(next);
+        }
+        next++;
+        return true;
+    }
+
+    /**
+     * Positions the cursor so that the following {@link #next()} moves to {@code record}.
+     */
+    public void seek(long record) {
+        next = record;
+        segment = null;
+    }
+
+    /**
+     * @return the index of the current record
+     */
+    public long position() {
+        return next - 1;
+    }
+
+    public long blockNumber() {
+        return segment.getLong(offset + EventJournal.BLOCK_NUMBER);
+    }
+
+    public int logIndex() {
+        return segment.getInt(offset + EventJournal.LOG_INDEX);
+    }
+
+    public int transactionIndex() {
+        return segment.getInt(offset + EventJournal.TRANSACTION_INDEX);
+    }
+
+    public byte type() {
+        return segment.get(offset + EventJournal.TYPE);
+    }
+
+    public boolean isTransfer() {
+        return type() == EventJournal.TRANSFER;
+    }
+
+    public boolean isBurn() {
+        return type() == EventJournal.BURN;
+    }
+
+    public String from() {
+        return hex(EventJournal.FROM, 20);
+    }
+
+    /**
+     * @return the recipient, or {@code null} for Burn events
+     */
+    public String to() {
+        return isTransfer() ? hex(EventJournal.TO, 20) : null;
+    }
+
+    public BigInteger value() {
+        byte[] bytes = new byte[32];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = segment.get(offset + EventJournal.VALUE + i);
+        }
+        return new BigInteger(1, bytes);
+    }
+
+    public String transactionHash() {
+        return hex(EventJournal.TRANSACTION_HASH, 32);
+    }
+
+    /**
+     * @return a read-only view of the current record's {@value EventJournal#RECORD_SIZE} bytes
+     */
+    public ByteBuffer record() {
+        ByteBuffer record = segment.duplicate();
+        record.limit(offset + EventJournal.RECORD_SIZE);
+        record.position(offset);
+        return record.slice().asReadOnlyBuffer();
+    }
+
+    public TriCoin.TransferEventResponse toTransferEvent() {
+        TriCoin.TransferEventResponse event = new TriCoin.TransferEventResponse();
+        event.log = toLog();
+        event.from = from();
+        event.to = to();
+        event.value = value();
+        return event;
+    }
+
+    public TriCoin.BurnEventResponse toBurnEvent() {
+        TriCoin.BurnEventResponse event = new TriCoin.BurnEventResponse();
+        event.log = toLog();
+        event.from = from();
+        event.value = value();
+        return event;
+    }
+
+    /**
+     * Rebuilds the log of the current record. The block hash and contract address are not
+     * journaled and are left empty.
+     */
+    public Log toLog() {
+        Log log = new Log();
+        log.setBlockNumber("0x" + Long.toHexString(blockNumber()));
+        log.setLogIndex("0x" + Integer.toHexString(logIndex()));
+        log.setTransactionIndex("0x" + Integer.toHexString(transactionIndex()));
+        log.setTransactionHash(transactionHash());
+        log.setData(hex(EventJournal.VALUE, 32));
+        String fromTopic = "0x000000000000000000000000" + from().substring(2);
+        if (isTransfer()) {
+            log.setTopics(Arrays.asList(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, fromTopic,
+                    "0x000000000000000000000000" + to().substring(2)));
+        } else {
+            log.setTopics(Arrays.asList(TriCoinEventDecoder.BURN_EVENT_TOPIC, fromTopic));
+        }
+        return log;
+    }
+
+    private String hex(int field, int length) {
+        char[] chars = new char[2 + 2 * length];
+        chars[0] = '0';
+        chars[1] = 'x';
+        for (int i = 0; i < length; i++) {
+            int b = segment.get(offset + field + i) & 0xff;
+            chars[2 + 2 * i] = HEX[b >>> 4];
+            chars[3 + 2 * i] = HEX[b & 0xf];
+        }
+        return new String(chars);
+    }
+}
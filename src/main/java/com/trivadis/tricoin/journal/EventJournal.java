@@ -0,0 +1,502 @@
+package com.trivadis.tricoin.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import com.trivadis.tricoin.TriCoin;
+import com.trivadis.tricoin.TriCoinEventDecoder;
+import org.web3j.protocol.core.methods.response.Log;
+
+/**
+ * An append-only journal of decoded TriCoin Transfer and Burn events, stored in fixed-width
+ * records in memory-mapped segment files.
+ *
+ * <p>Record layout ({@value #RECORD_SIZE} bytes, big-endian):
+ *
+ * <pre>
+ *   0  long     block number
+ *   8  int      log index
+ *  12  int      transaction index
+ *  16  byte     event type ({@link #TRANSFER} or {@link #BURN}), followed by 3 bytes padding
+ *  20  byte[20] from address
+ *  40  byte[20] to address, zero for Burn events, followed by 4 bytes padding
+ *  64  byte[32] value
+ *  96  byte[32] transaction hash
+ * </pre>
+ *
+ * <p>Records only become visible once a checkpoint covers them. A checkpoint is written every
+ * {@code checkpointInterval} blocks, or explicitly with {@link #checkpoint(long)}; it records the
+ * last complete block, the number of records up to and including it and the total amount burnt
+ * so far. The segments are flushed to disk before the checkpoint itself is written, so after a
+ * crash or restart the journal reopens at its last checkpoint and the consumer resumes from
+ * {@link #getResumeBlock()}. Anything written after that checkpoint is overwritten.
+ *
+ * <p>Blocks are only checkpointed automatically once they are {@code confirmations} blocks below
+ * the head, which is the highest block passed to {@link #setHeadBlock(long)} or appended. Until
+ * then a chain reorganisation can still take them back: a log marked as removed rolls the
+ * journal back to before its block, and the logs of the new chain are appended in its place. A
+ * log that is already in the journal, by block number and log index, is skipped, so overlapping
+ * backfills and subscriptions can feed the same journal.
+ *
+ * <p>Only one process may write a journal; any number of readers can open it with
+ * {@link #openReadOnly(Path)}.
+ */
+public class EventJournal implements Closeable {
+
+    public static final int RECORD_SIZE = 128;
+    public static final int CHECKPOINT_SIZE = 64;
+    public static final int DEFAULT_RECORDS_PER_SEGMENT = 1 << 19;
+    public static final long DEFAULT_CHECKPOINT_INTERVAL = 1_000;
+    public static final long DEFAULT_CONFIRMATIONS = 12;
+
+    public static final byte TRANSFER = 1;
+    public static final byte BURN = 2;
+
+    static final int BLOCK_NUMBER = 0;
+    static final int LOG_INDEX = 8;
+    static final int TRANSACTION_INDEX = 12;
+    static final int TYPE = 16;
+    static final int FROM = 20;
+    static final int TO = 40;
+    static final int VALUE = 64;
+    static final int TRANSACTION_HASH = 96;
+
+    private static final String CHECKPOINT_FILE = "checkpoints.journal";
+    private static final String SEGMENT_PREFIX = "events-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+    private static final int CHECKPOINTS_PER_MAPPING = 4096;
+
+    private final Path directory;
+    private final int recordsPerSegment;
+    private final boolean readOnly;
+    private final List<MappedByteBuffer> segments = new ArrayList<MappedByteBuffer>();
+    private final CRC32 crc = new CRC32();
+
+    private FileChannel checkpointChannel;
+    private MappedByteBuffer checkpoints;
+    private int checkpointCount;
+    private Checkpoint lastCheckpoint;
+
+    /** The state after each complete block that has records and is not yet checkpointed */
+    private final Deque<Checkpoint> completedBlocks = new ArrayDeque<Checkpoint>();
+
+    private long checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+    private long confirmations = DEFAULT_CONFIRMATIONS;
+    private long headBlock = -1;
+    private long recordCount;
+    private long currentBlock = -1;
+    private int currentLogIndex = -1;
+    private BigInteger burned = BigInteger.ZERO;
+    private volatile long committedCount;
+
+    private EventJournal(Path directory, int recordsPerSegment, boolean readOnly) {
+        this.directory = directory;
+        this.recordsPerSegment = recordsPerSegment;
+        this.readOnly = readOnly;
+    }
+
+    /**
+     * Opens the journal in {@code directory} for appending, creating it if it does not exist.
+     */
+    public static EventJournal open(Path directory) throws IOException {
+        return open(directory, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    public static EventJournal open(Path directory, int recordsPerSegment) throws IOException {
+        Files.createDirectories(directory);
+        EventJournal journal = new EventJournal(directory, recordsPerSegment, false);
+        journal.load();
+        return journal;
+    }
+
+    /**
+     * Opens an existing journal for reading. The records covered by its last checkpoint at the
+     * time of opening are visible.
+     */
+    public static EventJournal openReadOnly(Path directory) throws IOException {
+        return openReadOnly(directory, DEFAULT_RECORDS_PER_SEGMENT);
+    }
+
+    public static EventJournal openReadOnly(Path directory, int recordsPerSegment) throws IOException {
+        EventJournal journal = new EventJournal(directory, recordsPerSegment, true);
+        journal.load();
+        return journal;
+    }
+
+    public void setCheckpointInterval(long checkpointInterval) {
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Sets how many blocks a block must be below the head before it is checkpointed
+     * automatically. A reorganisation deeper than this cannot be rolled back.
+     */
+    public void setConfirmations(long confirmations) {
+        this.confirmations = confirmations;
+    }
+
+    /**
+     * Tells the journal about the chain head, so that blocks become confirmed even while the
+     * contract emits no events.
+     */
+    public void setHeadBlock(long headBlock) throws IOException {
+        if (headBlock > this.headBlock) {
+            this.headBlock = headBlock;
+            checkpointConfirmed();
+        }
+    }
+
+    /**
+     * @return the first block whose events are not yet in the journal
+     */
+    public long getResumeBlock() {
+        return lastCheckpoint == null ? 0 : lastCheckpoint.blockNumber + 1;
+    }
+
+    public Checkpoint getLastCheckpoint() {
+        return lastCheckpoint;
+    }
+
+    /**
+     * @return the number of records covered by the last checkpoint
+     */
+    public long size() {
+        return committedCount;
+    }
+
+    /**
+     * Appends a Transfer or Burn log of the contract; other logs are ignored. Logs must be
+     * appended in block order. A log that is already journaled is skipped, and a log marked as
+     * removed rolls back everything from its block on.
+     *
+     * @throws IllegalStateException if a removed log belongs to a checkpointed block
+     */
+    public void append(Log eventLog) throws IOException {
+        boolean transfer = TriCoinEventDecoder.isTransfer(eventLog);
+        if (!transfer && !TriCoinEventDecoder.isBurn(eventLog)) {
+            return;
+        }
+        long blockNumber = eventLog.getBlockNumber().longValueExact();
+        int logIndex = eventLog.getLogIndex().intValueExact();
+        if (eventLog.isRemoved()) {
+            rollBack(blockNumber);
+            return;
+        }
+        if (isJournaled(blockNumber, logIndex)) {
+            return;
+        }
+        startBlock(blockNumber);
+        ByteBuffer segment = segmentFor(recordCount, true);
+        int offset = recordOffset(recordCount);
+        List<String> topics = eventLog.getTopics();
+        segment.putLong(offset + BLOCK_NUMBER, blockNumber);
+        segment.putInt(offset + LOG_INDEX, logIndex);
+        segment.putInt(offset + TRANSACTION_INDEX, eventLog.getTransactionIndexRaw() == null
+                ? 0 : eventLog.getTransactionIndex().intValueExact());
+        segment.putInt(offset + TYPE, (transfer ? TRANSFER : BURN) << 24);
+        putHex(segment, offset + FROM, topics.get(1), 26, 20);
+        if (transfer) {
+            putHex(segment, offset + TO, topics.get(2), 26, 20);
+        } else {
+            fill(segment, offset + TO, 20);
+        }
+        putHex(segment, offset + VALUE, eventLog.getData(), 2, 32);
+        String transactionHash = eventLog.getTransactionHash();
+        if (transactionHash != null) {
+            putHex(segment, offset + TRANSACTION_HASH, transactionHash, 2, 32);
+        } else {
+            fill(segment, offset + TRANSACTION_HASH, 32);
+        }
+        if (!transfer) {
+            burned = burned.add(TriCoinEventDecoder.decodeUint256(eventLog.getData()));
+        }
+        recordCount++;
+        currentLogIndex = logIndex;
+    }
+
+    /**
+     * Records that all events up to and including {@code blockNumber} have been appended, and
+     * that the block is deep enough not to be reorganised away any more.
+     */
+    public void checkpoint(long blockNumber) throws IOException {
+        if (readOnly) {
+            throw new IllegalStateException("Journal is read-only");
+        }
+        if (lastCheckpoint != null && blockNumber <= lastCheckpoint.blockNumber) {
+            return;
+        }
+        Checkpoint checkpoint = new Checkpoint(blockNumber, recordCount, burned);
+        if (blockNumber < currentBlock) {
+            checkpoint = lastCheckpoint == null ? new Checkpoint(blockNumber, 0, BigInteger.ZERO)
+                    : new Checkpoint(blockNumber, lastCheckpoint.recordCount, lastCheckpoint.burned);
+            for (Checkpoint completed : completedBlocks) {
+                if (completed.blockNumber > blockNumber) {
+                    break;
+                }
+                checkpoint = new Checkpoint(blockNumber, completed.recordCount, completed.burned);
+            }
+        }
+        while (!completedBlocks.isEmpty() && completedBlocks.peekFirst().blockNumber <= blockNumber) {
+            completedBlocks.removeFirst();
+        }
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+        if (checkpointCount == checkpoints.capacity() / CHECKPOINT_SIZE) {
+            checkpoints.force();
+            checkpoints = mapCheckpoints(checkpointCount + CHECKPOINTS_PER_MAPPING);
+        }
+        int offset = checkpointCount * CHECKPOINT_SIZE;
+        checkpoints.putLong(offset, checkpoint.blockNumber);
+        checkpoints.putLong(offset + 8, checkpoint.recordCount);
+        byte[] burnedBytes = toBytes32(checkpoint.burned);
+        for (int i = 0; i < 32; i++) {
+            checkpoints.put(offset + 16 + i, burnedBytes[i]);
+        }
+        checkpoints.putLong(offset + 48, System.currentTimeMillis());
+        checkpoints.putLong(offset + 56, checksum(checkpoints, offset));
+        checkpoints.force();
+        checkpointCount++;
+        lastCheckpoint = checkpoint;
+        committedCount = checkpoint.recordCount;
+    }
+
+    /**
+     * Compares the last checkpoint with the contract's total supply at the checkpoint's block.
+     *
+     * @param initialSupply the supply minted by the contract's constructor
+     * @return true if the supply implied by the journal matches the chain
+     */
+    public boolean verify(TriCoin contract, BigInteger initialSupply) throws Exception {
+        if (lastCheckpoint == null) {
+            return true;
+        }
+        BigInteger onChain = contract.totalSupply(BigInteger.valueOf(lastCheckpoint.blockNumber)).send();
+        return lastCheckpoint.totalSupply(initialSupply).equals(onChain);
+    }
+
+    /**
+     * @return a cursor over the committed records, reading them in place from the mapped segments
+     */
+    public Cursor cursor() {
+        return new Cursor(this, committedCount);
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!readOnly) {
+            for (MappedByteBuffer segment : segments) {
+                segment.force();
+            }
+        }
+        if (checkpointChannel != null) {
+            checkpointChannel.close();
+        }
+    }
+
+    ByteBuffer segment(long record) throws IOException {
+        return segmentFor(record, false);
+    }
+
+    int recordOffset(long record) {
+        return (int) (record % recordsPerSegment) * RECORD_SIZE;
+    }
+
+    private void startBlock(long blockNumber) throws IOException {
+        if (blockNumber > currentBlock) {
+            if (currentBlock >= 0 && (lastCheckpoint == null || currentBlock > lastCheckpoint.blockNumber)
+                    && (completedBlocks.isEmpty() || completedBlocks.peekLast().blockNumber < currentBlock)) {
+                completedBlocks.addLast(new Checkpoint(currentBlock, recordCount, burned));
+            }
+            currentBlock = blockNumber;
+            currentLogIndex = -1;
+            checkpointConfirmed();
+        }
+    }
+
+    /**
+     * Checkpoints the last complete block that is {@code confirmations} deep, if it is at least
+     * {@code checkpointInterval} blocks past the last checkpoint.
+     */
+    private void checkpointConfirmed() throws IOException {
+        if (readOnly || currentBlock < 0) {
+            return;
+        }
+        long head = Math.max(headBlock, currentBlock);
+        long confirmed = Math.min(currentBlock - 1, head - confirmations);
+        long checkpointed = lastCheckpoint == null ? -1 : lastCheckpoint.blockNumber;
+        if (confirmed - checkpointed >= checkpointInterval) {
+            checkpoint(confirmed);
+        }
+    }
+
+    /**
+     * Tells whether the log at {@code blockNumber} and {@code logIndex} is already journaled.
+     *
+     * @throws IllegalArgumentException if it is not, but comes before the last appended log
+     */
+    private boolean isJournaled(long blockNumber, int logIndex) throws IOException {
+        if (lastCheckpoint != null && blockNumber <= lastCheckpoint.blockNumber) {
+            return true;
+        }
+        if (blockNumber > currentBlock || blockNumber == currentBlock && logIndex > currentLogIndex) {
+            return false;
+        }
+        for (long record = recordCount - 1; record >= committedCount; record--) {
+            ByteBuffer segment = segmentFor(record, false);
+            int offset = recordOffset(record);
+            long recordBlock = segment.getLong(offset + BLOCK_NUMBER);
+            if (recordBlock < blockNumber) {
+                break;
+            }
+            if (recordBlock == blockNumber && segment.getInt(offset + LOG_INDEX) == logIndex) {
+                return true;
+            }
+        }
+        throw new IllegalArgumentException("Log " + logIndex + " of block " + blockNumber
+                + " appended after block " + currentBlock);
+    }
+
+    /**
+     * Drops the records of {@code blockNumber} and all later blocks.
+     */
+    private void rollBack(long blockNumber) {
+        if (blockNumber > currentBlock) {
+            return;
+        }
+        if (lastCheckpoint != null && blockNumber <= lastCheckpoint.blockNumber) {
+            throw new IllegalStateException("Block " + blockNumber + " was removed from the chain after it was"
+                    + " checkpointed; the journal needs more than " + confirmations + " confirmations");
+        }
+        while (!completedBlocks.isEmpty() && completedBlocks.peekLast().blockNumber >= blockNumber) {
+            completedBlocks.removeLast();
+        }
+        Checkpoint before = completedBlocks.isEmpty() ? lastCheckpoint : completedBlocks.peekLast();
+        recordCount = before == null ? 0 : before.recordCount;
+        burned = before == null ? BigInteger.ZERO : before.burned;
+        currentBlock = before == null ? -1 : before.blockNumber;
+        // the block before is complete, any further log of it is a duplicate or out of order
+        currentLogIndex = Integer.MAX_VALUE;
+    }
+
+    private void load() throws IOException {
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        if (readOnly) {
+            checkpointChannel = FileChannel.open(checkpointFile, StandardOpenOption.READ);
+        } else {
+            checkpointChannel = FileChannel.open(checkpointFile,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        }
+        int stored = (int) (checkpointChannel.size() / CHECKPOINT_SIZE);
+        checkpoints = mapCheckpoints(readOnly ? stored : Math.max(stored, CHECKPOINTS_PER_MAPPING));
+        for (int i = 0; i < stored; i++) {
+            int offset = i * CHECKPOINT_SIZE;
+            if (checkpoints.getLong(offset + 56) != checksum(checkpoints, offset)) {
+                break;
+            }
+            byte[] burnedBytes = new byte[32];
+            for (int b = 0; b < 32; b++) {
+                burnedBytes[b] = checkpoints.get(offset + 16 + b);
+            }
+            lastCheckpoint = new Checkpoint(checkpoints.getLong(offset),
+                    checkpoints.getLong(offset + 8), new BigInteger(1, burnedBytes));
+            checkpointCount = i + 1;
+        }
+        if (lastCheckpoint != null) {
+            recordCount = lastCheckpoint.recordCount;
+            committedCount = recordCount;
+            burned = lastCheckpoint.burned;
+            currentBlock = lastCheckpoint.blockNumber;
+        }
+    }
+
+    private MappedByteBuffer mapCheckpoints(int count) throws IOException {
+        return checkpointChannel.map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE,
+                0, (long) count * CHECKPOINT_SIZE);
+    }
+
+    private synchronized ByteBuffer segmentFor(long record, boolean create) throws IOException {
+        int index = (int) (record / recordsPerSegment);
+        while (segments.size() <= index) {
+            Path file = directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, segments.size(), SEGMENT_SUFFIX));
+            if (!create && !Files.exists(file)) {
+                throw new IOException("Missing journal segment " + file);
+            }
+            long length = (long) recordsPerSegment * RECORD_SIZE;
+            if (readOnly) {
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    segments.add(channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(length, channel.size())));
+                }
+            } else {
+                try (FileChannel channel = FileChannel.open(file,
+                        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                    segments.add(channel.map(FileChannel.MapMode.READ_WRITE, 0, length));
+                }
+            }
+        }
+        return segments.get(index);
+    }
+
+    private long checksum(ByteBuffer buffer, int offset) {
+        crc.reset();
+        for (int i = 0; i < CHECKPOINT_SIZE - 8; i++) {
+            crc.update(buffer.get(offset + i));
+        }
+        return crc.getValue();
+    }
+
+    private static void putHex(ByteBuffer buffer, int offset, String hex, int start, int length) {
+        for (int i = 0; i < length; i++) {
+            int high = Character.digit(hex.charAt(start + 2 * i), 16);
+            int low = Character.digit(hex.charAt(start + 2 * i + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new NumberFormatException("Invalid hex digit in " + hex);
+            }
+            buffer.put(offset + i, (byte) ((high << 4) | low));
+        }
+    }
+
+    private static void fill(ByteBuffer buffer, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + i, (byte) 0);
+        }
+    }
+
+    private static byte[] toBytes32(BigInteger value) {
+        byte[] bytes = value.toByteArray();
+        byte[] padded = new byte[32];
+        int length = Math.min(bytes.length, 32);
+        System.arraycopy(bytes, bytes.length - length, padded, 32 - length, length);
+        return padded;
+    }
+
+    public static class Checkpoint {
+        public final long blockNumber;
+
+        public final long recordCount;
+
+        public final BigInteger burned;
+
+        public Checkpoint(long blockNumber, long recordCount, BigInteger burned) {
+            this.blockNumber = blockNumber;
+            this.recordCount = recordCount;
+            this.burned = burned;
+        }
+
+        public BigInteger totalSupply(BigInteger initialSupply) {
+            return initialSupply.subtract(burned);
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.trivadis.tricoin.keys;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.crypto.CipherException;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Wallet;
+import org.web3j.crypto.WalletFile;
+
+/**
+ * Unlocks keystore files into a {@link CredentialStore}.
+ *
+ * <p>Keystore files are decrypted in parallel, one per available processor by default. The key
+ * derivation of a standard keystore file (scrypt with n = 262144, r = 8) allocates 256 MiB, so
+ * the number of derivations that run at the same time is further bounded by a memory budget,
+ * half of the maximum heap by default. A derivation is charged {@code 128 * r * n} bytes of the
+ * budget; one that needs more than the whole budget runs alone.
+ *
+ * <p>With a {@link SealedKeyCache}, keys that were unlocked before with the same password are
+ * taken from the cache and only new or changed keystore files are decrypted, after which the cache
+ * is saved again. A wrong password misses the cache and fails on the keystore file as before.
+ */
+public class CredentialManager {
+
+    private static final Logger log = LoggerFactory.getLogger(CredentialManager.class);
+
+    private static final String KEYSTORE_PREFIX = "UTC--";
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    static {
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    private final CredentialStore store;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private long memoryBudget = defaultMemoryBudget();
+    private SealedKeyCache cache;
+
+    public CredentialManager() {
+        this(new CredentialStore());
+    }
+
+    public CredentialManager(CredentialStore store) {
+        this.store = store;
+    }
+
+    public CredentialStore getStore() {
+        return store;
+    }
+
+    /**
+     * @param parallelism the maximum number of keystore files decrypted at the same time
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param memoryBudget the maximum number of bytes all running key derivations may allocate
+     */
+    public void setMemoryBudget(long memoryBudget) {
+        if (memoryBudget < 1024) {
+            throw new IllegalArgumentException("memoryBudget must be at least 1 KiB");
+        }
+        this.memoryBudget = memoryBudget;
+    }
+
+    public void setSealedCache(SealedKeyCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Unlocks every {@code UTC--} keystore file in {@code directory} with the same password.
+     *
+     * @return the unlocked credentials, in file name order
+     */
+    public List<Credentials> loadDirectory(Path directory, String password) throws IOException, CipherException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, KEYSTORE_PREFIX + "*")) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        files.sort(null);
+        return load(files, password);
+    }
+
+    /**
+     * Unlocks the given keystore files with the same password and adds them to the store.
+     *
+     * @return the unlocked credentials, in the order of {@code files}
+     * @throws CipherException if a file cannot be decrypted, for example because the password is
+     *                         wrong; no credentials are added to the store in that case
+     */
+    public List<Credentials> load(List<Path> files, String password) throws IOException, CipherException {
+        if (files.isEmpty()) {
+            return new ArrayList<>();
+        }
+        long start = System.nanoTime();
+        if (cache != null) {
+            cache.load();
+        }
+        int budget = (int) Math.min(Integer.MAX_VALUE, memoryBudget / 1024);
+        Semaphore memory = new Semaphore(budget, true);
+        AtomicInteger decrypted = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, files.size()), r -> {
+            Thread thread = new Thread(r, "keystore-decrypt");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Credentials> result = new ArrayList<>(files.size());
+        try {
+            List<Future<Credentials>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> unlock(file, password, memory, budget, decrypted)));
+            }
+            for (int i = 0; i < futures.size(); i++) {
+                result.add(await(futures.get(i), files.get(i)));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        for (Credentials credentials : result) {
+            store.put(credentials);
+        }
+        if (cache != null) {
+            cache.save();
+        }
+        log.info("Unlocked " + result.size() + " keys (" + (result.size() - decrypted.get()) + " from cache) in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return result;
+    }
+
+    private Credentials unlock(Path file, String password, Semaphore memory, int budget, AtomicInteger decrypted)
+            throws IOException, CipherException, InterruptedException {
+        WalletFile walletFile = objectMapper.readValue(file.toFile(), WalletFile.class);
+        String fingerprint = walletFile.getCrypto().getMac();
+        if (cache != null && walletFile.getAddress() != null) {
+            ECKeyPair cached = cache.get(walletFile.getAddress(), fingerprint, password);
+            if (cached != null) {
+                return Credentials.create(cached);
+            }
+        }
+        int permits = (int) Math.min(budget, (kdfMemory(walletFile) + 1023) / 1024);
+        memory.acquire(permits);
+        ECKeyPair keyPair;
+        try {
+            keyPair = Wallet.decrypt(password, walletFile);
+        } finally {
+            memory.release(permits);
+        }
+        decrypted.incrementAndGet();
+        Credentials credentials = Credentials.create(keyPair);
+        if (cache != null) {
+            cache.put(credentials.getAddress(), fingerprint, password, keyPair);
+        }
+        return credentials;
+    }
+
+    private static Credentials await(Future<Credentials> future, Path file) throws IOException, CipherException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while unlocking " + file, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof CipherException) {
+                throw new CipherException("Could not unlock " + file + ": " + cause.getMessage(), cause);
+            }
+            if (cause instanceof IOException) {
+                throw new IOException("Could not read " + file + ": " + cause.getMessage(), cause);
+            }
+            throw new IllegalStateException("Could not unlock " + file, cause);
+        }
+    }
+
+    /**
+     * @return the number of bytes the key derivation of {@code walletFile} allocates
+     */
+    static long kdfMemory(WalletFile walletFile) {
+        Object params = walletFile.getCrypto().getKdfparams();
+        if (params instanceof WalletFile.ScryptKdfParams) {
+            WalletFile.ScryptKdfParams scrypt = (WalletFile.ScryptKdfParams) params;
+            return 128L * scrypt.getR() * (scrypt.getN() + scrypt.getP());
+        }
+        return 0;
+    }
+
+    private static long defaultMemoryBudget() {
+        long maxMemory = Runtime.getRuntime().maxMemory();
+        return maxMemory == Long.MAX_VALUE ? 1L << 30 : Math.max(maxMemory / 2, 1024);
+    }
+}
@@ -0,0 +1,70 @@
+package com.trivadis.tricoin.keys;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.web3j.crypto.Credentials;
+import org.web3j.utils.Numeric;
+
+/**
+ * The unlocked keys of a process, by address. Addresses are looked up case-insensitively and with
+ * or without the {@code 0x} prefix.
+ *
+ * <p>The store is thread-safe and is meant to be shared by everything that signs, so that every
+ * key is decrypted only once per process.
+ */
+public class CredentialStore {
+
+    private final ConcurrentMap<String, Credentials> credentials = new ConcurrentHashMap<>();
+
+    public void put(Credentials credentials) {
+        this.credentials.put(normalize(credentials.getAddress()), credentials);
+    }
+
+    /**
+     * @return the credentials for {@code address}, or null if the key is not unlocked
+     */
+    public Credentials get(String address) {
+        return credentials.get(normalize(address));
+    }
+
+    /**
+     * @return the credentials for {@code address}
+     * @throws IllegalArgumentException if the key is not unlocked
+     */
+    public Credentials require(String address) {
+        Credentials result = get(address);
+        if (result == null) {
+            throw new IllegalArgumentException("No unlocked key for " + address);
+        }
+        return result;
+    }
+
+    public boolean contains(String address) {
+        return credentials.containsKey(normalize(address));
+    }
+
+    public Credentials remove(String address) {
+        return credentials.remove(normalize(address));
+    }
+
+    public Set<String> addresses() {
+        return Collections.unmodifiableSet(credentials.keySet());
+    }
+
+    public Collection<Credentials> getAll() {
+        return new ArrayList<>(credentials.values());
+    }
+
+    public int size() {
+        return credentials.size();
+    }
+
+    static String normalize(String address) {
+        return Numeric.prependHexPrefix(address.toLowerCase());
+    }
+}
@@ -0,0 +1,339 @@
+package com.trivadis.tricoin.keys;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bouncycastle.crypto.generators.SCrypt;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.utils.Numeric;
+
+/**
+ * A local file of unlocked keys, sealed under a single passphrase.
+ *
+ * <p>A keystore file runs its own expensive key derivation per account. This cache runs one,
+ * cheaper, scrypt derivation for the whole file when it is loaded and then opens every key with
+ * AES-GCM, so opening it costs about the same for two accounts as for two hundred. Each key is
+ * bound to its address, and stored together with the MAC of the keystore file it was decrypted
+ * from, so a key is only taken from the cache while that keystore file is unchanged. A salted
+ * digest of the keystore password is sealed with each key, so a key is only handed out for the
+ * password it was unlocked with.
+ *
+ * <p>The trade-off: the keys are only as safe as the cache passphrase, and its scrypt derivation
+ * is deliberately cheaper than a keystore file's ({@link #DEFAULT_N} against 262144), so guessing
+ * it is that much faster for anyone who gets hold of the file. Use a long random passphrase that
+ * differs from the keystore password, and keep it out of the command line; the cache saves start
+ * up time, not key material protection.
+ *
+ * <p>The file is written with owner-only permissions where the file system supports them. A
+ * cache that cannot be opened, because the passphrase is wrong or the file is damaged, is
+ * ignored and rewritten by the next {@link #save()}.
+ */
+public class SealedKeyCache {
+
+    private static final Logger log = LoggerFactory.getLogger(SealedKeyCache.class);
+
+    public static final int DEFAULT_N = 1 << 14;
+    public static final int DEFAULT_R = 8;
+    public static final int DEFAULT_P = 1;
+
+    private static final int VERSION = 2;
+    private static final int KEY_LENGTH = 16;
+    private static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+    private static final int KEY_PAIR_LENGTH = 96;
+    private static final byte[] CHECK = "tricoin-key-cache".getBytes(StandardCharsets.US_ASCII);
+    private static final Set<PosixFilePermission> OWNER_ONLY = PosixFilePermissions.fromString("rw-------");
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    static {
+        objectMapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    }
+
+    private final SecureRandom random = new SecureRandom();
+    private final Path file;
+    private final String passphrase;
+    private final int n;
+    private final int r;
+    private final int p;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private SecretKeySpec key;
+    private Kdf kdf;
+    private boolean loaded;
+    private volatile boolean dirty;
+
+    public SealedKeyCache(Path file, String passphrase) {
+        this(file, passphrase, DEFAULT_N, DEFAULT_R, DEFAULT_P);
+    }
+
+    /**
+     * @param n the scrypt cost parameter for new cache files
+     * @param r the scrypt block size for new cache files
+     * @param p the scrypt parallelization for new cache files
+     */
+    public SealedKeyCache(Path file, String passphrase, int n, int r, int p) {
+        this.file = file;
+        this.passphrase = passphrase;
+        this.n = n;
+        this.r = r;
+        this.p = p;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Reads and opens the cache file, if there is one. Does nothing after the first call.
+     */
+    public synchronized void load() throws IOException {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (!Files.exists(file)) {
+            return;
+        }
+        CacheFile content;
+        try {
+            content = objectMapper.readValue(file.toFile(), CacheFile.class);
+        } catch (JsonProcessingException e) {
+            log.warn("Ignoring key cache " + file + " that cannot be parsed: " + e.getOriginalMessage());
+            return;
+        }
+        if (content == null || content.version != VERSION || content.kdf == null || content.kdf.salt == null
+                || content.check == null) {
+            log.warn("Ignoring key cache " + file + " with unknown format");
+            return;
+        }
+        if (content.keys == null) {
+            log.warn("Ignoring key cache " + file + " without keys");
+            return;
+        }
+        SecretKeySpec candidate = derive(content.kdf);
+        try {
+            open(candidate, content.check, CHECK);
+        } catch (GeneralSecurityException e) {
+            log.warn("Ignoring key cache " + file + ", the passphrase does not match");
+            return;
+        }
+        key = candidate;
+        kdf = content.kdf;
+        for (SealedKey sealed : content.keys) {
+            if (sealed == null || sealed.address == null || sealed.fingerprint == null) {
+                log.warn("Ignoring incomplete entry in key cache " + file);
+                dirty = true;
+                continue;
+            }
+            String address = CredentialStore.normalize(sealed.address);
+            try {
+                byte[] plain = open(key, sealed, address.getBytes(StandardCharsets.US_ASCII));
+                ECKeyPair keyPair = new ECKeyPair(
+                        new BigInteger(1, Arrays.copyOfRange(plain, 0, 32)),
+                        new BigInteger(1, Arrays.copyOfRange(plain, 32, KEY_PAIR_LENGTH)));
+                byte[] passwordDigest = Arrays.copyOfRange(plain, KEY_PAIR_LENGTH, plain.length);
+                Arrays.fill(plain, (byte) 0);
+                entries.put(address, new Entry(sealed.fingerprint, passwordDigest, keyPair));
+            } catch (GeneralSecurityException | RuntimeException e) {
+                log.warn("Ignoring damaged entry for " + address + " in key cache " + file);
+                dirty = true;
+            }
+        }
+    }
+
+    /**
+     * @param fingerprint the MAC of the keystore file the key is read from
+     * @param password    the password the keystore file is being unlocked with
+     * @return the cached key for {@code address}, or null if there is none for this keystore file
+     *         and password
+     */
+    public ECKeyPair get(String address, String fingerprint, String password) {
+        String normalized = CredentialStore.normalize(address);
+        Entry entry = entries.get(normalized);
+        if (entry == null || !entry.fingerprint.equalsIgnoreCase(fingerprint)) {
+            return null;
+        }
+        return MessageDigest.isEqual(entry.passwordDigest, passwordDigest(normalized, password)) ? entry.keyPair : null;
+    }
+
+    /**
+     * @param password the password the keystore file was unlocked with
+     */
+    public void put(String address, String fingerprint, String password, ECKeyPair keyPair) {
+        String normalized = CredentialStore.normalize(address);
+        entries.put(normalized, new Entry(fingerprint, passwordDigest(normalized, password), keyPair));
+        dirty = true;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the cache file if anything changed since it was loaded. The file is replaced
+     * atomically, so a crash never leaves a half-written cache behind.
+     */
+    public synchronized void save() throws IOException {
+        if (!dirty) {
+            return;
+        }
+        if (key == null) {
+            kdf = new Kdf();
+            kdf.n = n;
+            kdf.r = r;
+            kdf.p = p;
+            kdf.salt = Numeric.toHexStringNoPrefix(randomBytes(32));
+            key = derive(kdf);
+        }
+        CacheFile content = new CacheFile();
+        content.version = VERSION;
+        content.kdf = kdf;
+        try {
+            content.check = seal(CHECK, CHECK);
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                byte[] passwordDigest = entry.getValue().passwordDigest;
+                byte[] plain = new byte[KEY_PAIR_LENGTH + passwordDigest.length];
+                ECKeyPair keyPair = entry.getValue().keyPair;
+                System.arraycopy(Numeric.toBytesPadded(keyPair.getPrivateKey(), 32), 0, plain, 0, 32);
+                System.arraycopy(Numeric.toBytesPadded(keyPair.getPublicKey(), 64), 0, plain, 32, 64);
+                System.arraycopy(passwordDigest, 0, plain, KEY_PAIR_LENGTH, passwordDigest.length);
+                SealedKey sealed = seal(plain, entry.getKey().getBytes(StandardCharsets.US_ASCII));
+                Arrays.fill(plain, (byte) 0);
+                sealed.address = entry.getKey();
+                sealed.fingerprint = entry.getValue().fingerprint;
+                content.keys.add(sealed);
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Could not seal key cache " + file, e);
+        }
+
+        Path directory = file.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = directory.resolve(file.getFileName() + ".tmp");
+        Files.deleteIfExists(temp);
+        createOwnerOnly(temp);
+        try (OutputStream out = Files.newOutputStream(temp)) {
+            objectMapper.writeValue(out, content);
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        dirty = false;
+    }
+
+    private static void createOwnerOnly(Path path) throws IOException {
+        try {
+            Files.createFile(path, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+        } catch (UnsupportedOperationException e) {
+            Files.createFile(path);
+        } catch (FileAlreadyExistsException e) {
+            Files.setPosixFilePermissions(path, OWNER_ONLY);
+        }
+    }
+
+    private SecretKeySpec derive(Kdf kdf) {
+        byte[] derived = SCrypt.generate(passphrase.getBytes(StandardCharsets.UTF_8),
+                Numeric.hexStringToByteArray(kdf.salt), kdf.n, kdf.r, kdf.p, KEY_LENGTH);
+        SecretKeySpec result = new SecretKeySpec(derived, "AES");
+        Arrays.fill(derived, (byte) 0);
+        return result;
+    }
+
+    /**
+     * The digest is only ever stored sealed, so it needs no expensive derivation of its own: the
+     * cache key already opens the key it protects.
+     */
+    private static byte[] passwordDigest(String address, String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(CHECK);
+            digest.update(address.getBytes(StandardCharsets.US_ASCII));
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private SealedKey seal(byte[] plain, byte[] associatedData) throws GeneralSecurityException {
+        byte[] iv = randomBytes(IV_LENGTH);
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+        cipher.updateAAD(associatedData);
+        SealedKey sealed = new SealedKey();
+        sealed.iv = Numeric.toHexStringNoPrefix(iv);
+        sealed.ciphertext = Numeric.toHexStringNoPrefix(cipher.doFinal(plain));
+        return sealed;
+    }
+
+    private static byte[] open(SecretKeySpec key, SealedKey sealed, byte[] associatedData) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, Numeric.hexStringToByteArray(sealed.iv)));
+        cipher.updateAAD(associatedData);
+        return cipher.doFinal(Numeric.hexStringToByteArray(sealed.ciphertext));
+    }
+
+    private byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static final class Entry {
+
+        final String fingerprint;
+        final byte[] passwordDigest;
+        final ECKeyPair keyPair;
+
+        Entry(String fingerprint, byte[] passwordDigest, ECKeyPair keyPair) {
+            this.fingerprint = fingerprint;
+            this.passwordDigest = passwordDigest;
+            this.keyPair = keyPair;
+        }
+    }
+
+    static class CacheFile {
+        public int version;
+        public Kdf kdf;
+        public SealedKey check;
+        public List<SealedKey> keys = new ArrayList<>();
+    }
+
+    static class Kdf {
+        public int n;
+        public int r;
+        public int p;
+        public String salt;
+    }
+
+    static class SealedKey {
+        public String address;
+        public String fingerprint;
+        public String iv;
+        public String ciphertext;
+    }
+}
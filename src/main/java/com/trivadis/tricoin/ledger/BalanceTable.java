@@ -0,0 +1,145 @@
+package com.trivadis.tricoin.ledger;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing hash table from 20 byte addresses to uint256 balances, held in a few
+ * primitive arrays.
+ *
+ * <p>Each address is stored as two {@code long}s and an {@code int}, each balance as four
+ * {@code long} limbs (see {@link Uint256}). Slots are never removed, so a slot index stays valid
+ * for the lifetime of the table, also across resizes.
+ */
+final class BalanceTable {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /** Maps hash positions to slot index + 1; 0 marks a free position. */
+    private int[] index;
+    private long[] keyHigh;
+    private long[] keyMiddle;
+    private int[] keyLow;
+    private long[] balances;
+    private int size;
+
+    BalanceTable(int expectedAddresses) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedAddresses / LOAD_FACTOR)) - 1) << 1;
+        index = new int[capacity];
+        keyHigh = new long[expectedAddresses];
+        keyMiddle = new long[expectedAddresses];
+        keyLow = new int[expectedAddresses];
+        balances = new long[expectedAddresses * Uint256.LIMBS];
+    }
+
+    int size() {
+        return size;
+    }
+
+    long[] balances() {
+        return balances;
+    }
+
+    /**
+     * @return the slot of the address, or -1 if it is not in the table
+     */
+    int find(CharSequence address) {
+        return find(address, prefixLength(address));
+    }
+
+    /**
+     * Looks up the address whose 40 hex digits start at {@code start}, for instance inside a topic.
+     */
+    int find(CharSequence hex, int start) {
+        long high = Uint256.parseHex(hex, start, start + 16);
+        long middle = Uint256.parseHex(hex, start + 16, start + 32);
+        int low = (int) Uint256.parseHex(hex, start + 32, start + 40);
+        int mask = index.length - 1;
+        for (int position = hash(high, middle, low) & mask; ; position = (position + 1) & mask) {
+            int slot = index[position] - 1;
+            if (slot < 0) {
+                return -1;
+            }
+            if (keyHigh[slot] == high && keyMiddle[slot] == middle && keyLow[slot] == low) {
+                return slot;
+            }
+        }
+    }
+
+    /**
+     * @return the slot of the address, which is added with a zero balance if it is not yet present
+     */
+    int findOrAdd(CharSequence address) {
+        return findOrAdd(address, prefixLength(address));
+    }
+
+    int findOrAdd(CharSequence hex, int start) {
+        long high = Uint256.parseHex(hex, start, start + 16);
+        long middle = Uint256.parseHex(hex, start + 16, start + 32);
+        int low = (int) Uint256.parseHex(hex, start + 32, start + 40);
+        int mask = index.length - 1;
+        int position = hash(high, middle, low) & mask;
+        for (; ; position = (position + 1) & mask) {
+            int slot = index[position] - 1;
+            if (slot < 0) {
+                break;
+            }
+            if (keyHigh[slot] == high && keyMiddle[slot] == middle && keyLow[slot] == low) {
+                return slot;
+            }
+        }
+        if (size == keyHigh.length) {
+            growSlots();
+        }
+        int slot = size++;
+        keyHigh[slot] = high;
+        keyMiddle[slot] = middle;
+        keyLow[slot] = low;
+        index[position] = slot + 1;
+        if (size > index.length * LOAD_FACTOR) {
+            rehash(index.length * 2);
+        }
+        return slot;
+    }
+
+    String address(int slot) {
+        return String.format("0x%016x%016x%08x", keyHigh[slot], keyMiddle[slot], keyLow[slot]);
+    }
+
+    private void growSlots() {
+        int capacity = Math.max(16, keyHigh.length * 2);
+        keyHigh = Arrays.copyOf(keyHigh, capacity);
+        keyMiddle = Arrays.copyOf(keyMiddle, capacity);
+        keyLow = Arrays.copyOf(keyLow, capacity);
+        balances = Arrays.copyOf(balances, capacity * Uint256.LIMBS);
+    }
+
+    private void rehash(int capacity) {
+        int[] rehashed = new int[capacity];
+        int mask = capacity - 1;
+        for (int slot = 0; slot < size; slot++) {
+            int position = hash(keyHigh[slot], keyMiddle[slot], keyLow[slot]) & mask;
+            while (rehashed[position] != 0) {
+                position = (position + 1) & mask;
+            }
+            rehashed[position] = slot + 1;
+        }
+        index = rehashed;
+    }
+
+    private static int hash(long high, long middle, int low) {
+        long h = high * 0x9E3779B97F4A7C15L + middle;
+        h = h * 0x9E3779B97F4A7C15L + low;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int prefixLength(CharSequence address) {
+        int length = address.length();
+        if (length == 42 && address.charAt(0) == '0' && (address.charAt(1) == 'x' || address.charAt(1) == 'X')) {
+            return 2;
+        }
+        if (length == 40) {
+            return 0;
+        }
+        throw new IllegalArgumentException("Not a 20 byte address: " + address);
+    }
+}
@@ -0,0 +1,410 @@
+package com.trivadis.tricoin.ledger;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import com.trivadis.tricoin.TriCoin;
+import com.trivadis.tricoin.TriCoinEventDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.Log;
+import rx.Subscription;
+
+/**
+ * An in-process copy of the TriCoin balances, kept up to date from the contract's Transfer and
+ * Burn events so that balance, supply and top holder queries never need a node.
+ *
+ * <p>The TriCoin constructor credits the initial supply to the deployer without emitting a
+ * Transfer event, so the ledger must be seeded with {@link #seedGenesis(String, BigInteger)}
+ * before events are replayed from the deployment block.
+ *
+ * <p>The changes of the most recent {@code maxReorgDepth} blocks are kept as deltas. A log that is
+ * flagged as removed, or that arrives for a known block with a different block hash, rolls the
+ * ledger back to the block before it; the replacement chain's logs are then applied as usual.
+ * Logs that are delivered twice are ignored. Because changes are applied as deltas, logs of
+ * different blocks may arrive out of order as long as they are within the reorg window, for
+ * instance when the Transfer and Burn streams are consumed separately.
+ */
+public class TriCoinLedger {
+
+    private static final Logger log = LoggerFactory.getLogger(TriCoinLedger.class);
+
+    public static final int DEFAULT_MAX_REORG_DEPTH = 64;
+
+    private static final int SUPPLY = -1;
+    private static final int ADDRESS_IN_TOPIC = 26;
+
+    private final BalanceTable balances;
+    private final long[] totalSupply = new long[Uint256.LIMBS];
+    private final long[] amount = new long[Uint256.LIMBS];
+    private final TreeMap<Long, BlockDelta> recentBlocks = new TreeMap<Long, BlockDelta>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final int maxReorgDepth;
+
+    private long headBlock = -1;
+    private long prunedThrough = -1;
+    private int holderCount;
+
+    public TriCoinLedger() {
+        this(1 << 16, DEFAULT_MAX_REORG_DEPTH);
+    }
+
+    public TriCoinLedger(int expectedHolders, int maxReorgDepth) {
+        this.balances = new BalanceTable(expectedHolders);
+        this.maxReorgDepth = maxReorgDepth;
+    }
+
+    /**
+     * Credits the initial supply to the contract's creator, which the constructor does without an
+     * event.
+     */
+    public void seedGenesis(String creator, BigInteger initialSupply) {
+        lock.writeLock().lock();
+        try {
+            Uint256.fromBigInteger(initialSupply, amount, 0);
+            credit(balances.findOrAdd(creator), amount);
+            Uint256.add(totalSupply, 0, amount, 0);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Applies a Transfer or Burn log of the contract. Other logs are ignored.
+     */
+    public void apply(Log eventLog) {
+        boolean transfer = TriCoinEventDecoder.isTransfer(eventLog);
+        if (!transfer && !TriCoinEventDecoder.isBurn(eventLog)) {
+            return;
+        }
+        List<String> topics = eventLog.getTopics();
+        lock.writeLock().lock();
+        try {
+            BlockDelta delta = deltaFor(eventLog);
+            if (delta == null) {
+                return;
+            }
+            Uint256.fromHex(eventLog.getData(), 2, amount, 0);
+            int from = balances.findOrAdd(topics.get(1), ADDRESS_IN_TOPIC);
+            if (transfer) {
+                move(delta, from, balances.findOrAdd(topics.get(2), ADDRESS_IN_TOPIC));
+            } else {
+                burn(delta, from);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void onTransfer(TriCoin.TransferEventResponse event) {
+        lock.writeLock().lock();
+        try {
+            BlockDelta delta = deltaFor(event.log);
+            if (delta != null) {
+                Uint256.fromBigInteger(event.value, amount, 0);
+                move(delta, balances.findOrAdd(event.from), balances.findOrAdd(event.to));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void onBurn(TriCoin.BurnEventResponse event) {
+        lock.writeLock().lock();
+        try {
+            BlockDelta delta = deltaFor(event.log);
+            if (delta != null) {
+                Uint256.fromBigInteger(event.value, amount, 0);
+                burn(delta, balances.findOrAdd(event.from));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reverts every change made by blocks after {@code blockNumber}.
+     *
+     * @throws IllegalStateException if those changes are older than the reorg window, in which
+     *         case the ledger has to be rebuilt
+     */
+    public void rollbackTo(long blockNumber) {
+        lock.writeLock().lock();
+        try {
+            if (blockNumber < prunedThrough) {
+                throw new IllegalStateException("Cannot roll back to block " + blockNumber
+                        + ", changes up to block " + prunedThrough + " are final");
+            }
+            Map<Long, BlockDelta> reverted = recentBlocks.tailMap(blockNumber, false).descendingMap();
+            for (BlockDelta delta : reverted.values()) {
+                delta.revert(this);
+            }
+            reverted.clear();
+            headBlock = Math.min(headBlock, blockNumber);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Keeps the ledger up to date with the contract's events from {@code startBlock} onwards.
+     */
+    public Subscription follow(TriCoin contract, DefaultBlockParameter startBlock) {
+        return contract.eventLogObservable(startBlock, DefaultBlockParameterName.LATEST)
+                .subscribe(this::apply, error -> log.error("TriCoin event stream failed", error));
+    }
+
+    public BigInteger balanceOf(String address) {
+        lock.readLock().lock();
+        try {
+            int slot = balances.find(address);
+            return slot < 0 ? BigInteger.ZERO : Uint256.toBigInteger(balances.balances(), slot * Uint256.LIMBS);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public BigInteger totalSupply() {
+        lock.readLock().lock();
+        try {
+            return Uint256.toBigInteger(totalSupply, 0);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the highest block applied so far, or -1 if no event has been applied
+     */
+    public long headBlock() {
+        lock.readLock().lock();
+        try {
+            return headBlock;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the number of addresses with a non-zero balance
+     */
+    public int holderCount() {
+        lock.readLock().lock();
+        try {
+            return holderCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the {@code n} largest holders, largest first
+     */
+    public List<Holder> topHolders(int n) {
+        lock.readLock().lock();
+        try {
+            long[] values = balances.balances();
+            int[] heap = new int[Math.max(0, Math.min(n, balances.size()))];
+            int heapSize = 0;
+            for (int slot = 0; slot < balances.size() && heap.length > 0; slot++) {
+                if (Uint256.isZero(values, slot * Uint256.LIMBS)) {
+                    continue;
+                }
+                if (heapSize < heap.length) {
+                    heap[heapSize++] = slot;
+                    siftUp(heap, heapSize - 1, values);
+                } else if (compareSlots(values, slot, heap[0]) > 0) {
+                    heap[0] = slot;
+                    siftDown(heap, heapSize, values);
+                }
+            }
+            List<Holder> holders = new ArrayList<Holder>(heapSize);
+            for (int i = 0; i < heapSize; i++) {
+                holders.add(new Holder(balances.address(heap[i]),
+                        Uint256.toBigInteger(values, heap[i] * Uint256.LIMBS)));
+            }
+            Collections.sort(holders, (a, b) -> b.balance.compareTo(a.balance));
+            return holders;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private BlockDelta deltaFor(Log eventLog) {
+        String blockNumberRaw = eventLog.getBlockNumberRaw();
+        long blockNumber = Uint256.parseHex(blockNumberRaw, 2, blockNumberRaw.length());
+        if (eventLog.isRemoved()) {
+            if (blockNumber <= headBlock) {
+                log.info("Log of block {} was removed, rolling back", blockNumber);
+                rollbackTo(blockNumber - 1);
+            }
+            return null;
+        }
+        if (blockNumber <= prunedThrough) {
+            log.warn("Ignoring log of final block {}", blockNumber);
+            return null;
+        }
+        BlockDelta delta = recentBlocks.get(blockNumber);
+        if (delta != null && delta.blockHash != null && !delta.blockHash.equals(eventLog.getBlockHash())) {
+            log.info("Block {} was replaced, rolling back", blockNumber);
+            rollbackTo(blockNumber - 1);
+            delta = null;
+        }
+        if (delta == null) {
+            delta = new BlockDelta(eventLog.getBlockHash());
+            recentBlocks.put(blockNumber, delta);
+        }
+        String logIndexRaw = eventLog.getLogIndexRaw();
+        int logIndex = (int) Uint256.parseHex(logIndexRaw, 2, logIndexRaw.length());
+        if (delta.logIndexes.get(logIndex)) {
+            return null;
+        }
+        delta.logIndexes.set(logIndex);
+        if (blockNumber > headBlock) {
+            headBlock = blockNumber;
+            while (!recentBlocks.isEmpty() && recentBlocks.firstKey() <= headBlock - maxReorgDepth) {
+                prunedThrough = recentBlocks.pollFirstEntry().getKey();
+            }
+        }
+        return delta;
+    }
+
+    private void move(BlockDelta delta, int from, int to) {
+        debit(from, amount);
+        credit(to, amount);
+        delta.record(from, true, amount);
+        delta.record(to, false, amount);
+    }
+
+    private void burn(BlockDelta delta, int from) {
+        debit(from, amount);
+        Uint256.subtract(totalSupply, 0, amount, 0);
+        delta.record(from, true, amount);
+        delta.record(SUPPLY, true, amount);
+    }
+
+    private void credit(int slot, long[] value) {
+        long[] values = balances.balances();
+        int offset = slot * Uint256.LIMBS;
+        boolean wasZero = Uint256.isZero(values, offset);
+        Uint256.add(values, offset, value, 0);
+        countHolder(wasZero, Uint256.isZero(values, offset));
+    }
+
+    private void debit(int slot, long[] value) {
+        long[] values = balances.balances();
+        int offset = slot * Uint256.LIMBS;
+        boolean wasZero = Uint256.isZero(values, offset);
+        Uint256.subtract(values, offset, value, 0);
+        countHolder(wasZero, Uint256.isZero(values, offset));
+    }
+
+    private void countHolder(boolean wasZero, boolean isZero) {
+        if (wasZero && !isZero) {
+            holderCount++;
+        } else if (!wasZero && isZero) {
+            holderCount--;
+        }
+    }
+
+    private static int compareSlots(long[] values, int a, int b) {
+        return Uint256.compare(values, a * Uint256.LIMBS, values, b * Uint256.LIMBS);
+    }
+
+    private static void siftUp(int[] heap, int position, long[] values) {
+        while (position > 0) {
+            int parent = (position - 1) / 2;
+            if (compareSlots(values, heap[position], heap[parent]) >= 0) {
+                return;
+            }
+            swap(heap, position, parent);
+            position = parent;
+        }
+    }
+
+    private static void siftDown(int[] heap, int size, long[] values) {
+        int position = 0;
+        while (true) {
+            int smallest = position;
+            int left = 2 * position + 1;
+            if (left < size && compareSlots(values, heap[left], heap[smallest]) < 0) {
+                smallest = left;
+            }
+            if (left + 1 < size && compareSlots(values, heap[left + 1], heap[smallest]) < 0) {
+                smallest = left + 1;
+            }
+            if (smallest == position) {
+                return;
+            }
+            swap(heap, position, smallest);
+            position = smallest;
+        }
+    }
+
+    private static void swap(int[] heap, int i, int j) {
+        int tmp = heap[i];
+        heap[i] = heap[j];
+        heap[j] = tmp;
+    }
+
+    /** The changes a single block made, kept so that they can be reverted on a reorg. */
+    private static final class BlockDelta {
+        final String blockHash;
+        final BitSet logIndexes = new BitSet();
+        int[] slots = new int[4];
+        boolean[] debits = new boolean[4];
+        long[] amounts = new long[4 * Uint256.LIMBS];
+        int size;
+
+        BlockDelta(String blockHash) {
+            this.blockHash = blockHash;
+        }
+
+        void record(int slot, boolean debit, long[] amount) {
+            if (size == slots.length) {
+                slots = Arrays.copyOf(slots, size * 2);
+                debits = Arrays.copyOf(debits, size * 2);
+                amounts = Arrays.copyOf(amounts, size * 2 * Uint256.LIMBS);
+            }
+            slots[size] = slot;
+            debits[size] = debit;
+            System.arraycopy(amount, 0, amounts, size * Uint256.LIMBS, Uint256.LIMBS);
+            size++;
+        }
+
+        void revert(TriCoinLedger ledger) {
+            long[] value = new long[Uint256.LIMBS];
+            for (int i = size - 1; i >= 0; i--) {
+                System.arraycopy(amounts, i * Uint256.LIMBS, value, 0, Uint256.LIMBS);
+                if (slots[i] == SUPPLY) {
+                    Uint256.add(ledger.totalSupply, 0, value, 0);
+                } else if (debits[i]) {
+                    ledger.credit(slots[i], value);
+                } else {
+                    ledger.debit(slots[i], value);
+                }
+            }
+        }
+    }
+
+    public static class Holder {
+        public final String address;
+
+        public final BigInteger balance;
+
+        public Holder(String address, BigInteger balance) {
+            this.address = address;
+            this.balance = balance;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.trivadis.tricoin.ledger;
+
+import java.math.BigInteger;
+
+/**
+ * Arithmetic on unsigned 256 bit integers stored as four big-endian {@code long} limbs inside a
+ * larger {@code long[]}, so that millions of values fit in a single array without a
+ * {@link BigInteger} per value. Addition and subtraction wrap around modulo 2^256, like the EVM.
+ */
+final class Uint256 {
+
+    static final int LIMBS = 4;
+
+    private Uint256() {
+    }
+
+    static void add(long[] target, int offset, long[] value, int valueOffset) {
+        long carry = 0;
+        for (int i = LIMBS - 1; i >= 0; i--) {
+            long x = target[offset + i];
+            long sum = x + value[valueOffset + i];
+            long nextCarry = Long.compareUnsigned(sum, x) < 0 ? 1 : 0;
+            long withCarry = sum + carry;
+            if (carry != 0 && withCarry == 0) {
+                nextCarry = 1;
+            }
+            target[offset + i] = withCarry;
+            carry = nextCarry;
+        }
+    }
+
+    static void subtract(long[] target, int offset, long[] value, int valueOffset) {
+        long borrow = 0;
+        for (int i = LIMBS - 1; i >= 0; i--) {
+            long x = target[offset + i];
+            long y = value[valueOffset + i];
+            long difference = x - y;
+            long nextBorrow = Long.compareUnsigned(x, y) < 0 ? 1 : 0;
+            if (borrow != 0 && difference == 0) {
+                nextBorrow = 1;
+            }
+            target[offset + i] = difference - borrow;
+            borrow = nextBorrow;
+        }
+    }
+
+    static int compare(long[] a, int aOffset, long[] b, int bOffset) {
+        for (int i = 0; i < LIMBS; i++) {
+            int result = Long.compareUnsigned(a[aOffset + i], b[bOffset + i]);
+            if (result != 0) {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    static boolean isZero(long[] value, int offset) {
+        return (value[offset] | value[offset + 1] | value[offset + 2] | value[offset + 3]) == 0;
+    }
+
+    static BigInteger toBigInteger(long[] value, int offset) {
+        if ((value[offset] | value[offset + 1] | value[offset + 2]) == 0 && value[offset + 3] >= 0) {
+            return BigInteger.valueOf(value[offset + 3]);
+        }
+        byte[] bytes = new byte[1 + LIMBS * 8];
+        for (int i = 0; i < LIMBS; i++) {
+            long limb = value[offset + i];
+            for (int b = 0; b < 8; b++) {
+                bytes[1 + i * 8 + b] = (byte) (limb >>> (56 - 8 * b));
+            }
+        }
+        return new BigInteger(bytes);
+    }
+
+    static void fromBigInteger(BigInteger value, long[] target, int offset) {
+        if (value.signum() < 0 || value.bitLength() > 256) {
+            throw new IllegalArgumentException("Not a uint256 value: " + value);
+        }
+        for (int i = 0; i < LIMBS; i++) {
+            target[offset + i] = value.shiftRight(64 * (LIMBS - 1 - i)).longValue();
+        }
+    }
+
+    /**
+     * Parses 64 hex characters starting at {@code start} without allocating.
+     */
+    static void fromHex(CharSequence hex, int start, long[] target, int offset) {
+        for (int i = 0; i < LIMBS; i++) {
+            target[offset + i] = parseHex(hex, start + i * 16, start + i * 16 + 16);
+        }
+    }
+
+    static long parseHex(CharSequence hex, int start, int end) {
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(hex.charAt(i), 16);
+            if (digit < 0) {
+                throw new NumberFormatException("Invalid hex digit at " + i + " in " + hex);
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+}
@@ -0,0 +1,56 @@
+package com.trivadis.tricoin.metrics;
+
+import java.beans.ConstructorProperties;
+
+/**
+ * A summary of a {@link Histogram}, in the shape JMX clients display as a table row.
+ */
+public class HistogramStats {
+
+    private final long count;
+    private final double mean;
+    private final long p50;
+    private final long p90;
+    private final long p99;
+    private final long max;
+
+    @ConstructorProperties({"count", "mean", "p50", "p90", "p99", "max"})
+    public HistogramStats(long count, double mean, long p50, long p90, long p99, long max) {
+        this.count = count;
+        this.mean = mean;
+        this.p50 = p50;
+        this.p90 = p90;
+        this.p99 = p99;
+        this.max = max;
+    }
+
+    static HistogramStats of(Histogram.Snapshot snapshot, long divisor) {
+        return new HistogramStats(snapshot.getCount(), snapshot.getMean() / divisor,
+                snapshot.getPercentile(0.5) / divisor, snapshot.getPercentile(0.9) / divisor,
+                snapshot.getPercentile(0.99) / divisor, snapshot.getMax() / divisor);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public long getP50() {
+        return p50;
+    }
+
+    public long getP90() {
+        return p90;
+    }
+
+    public long getP99() {
+        return p99;
+    }
+
+    public long getMax() {
+        return max;
+    }
+}
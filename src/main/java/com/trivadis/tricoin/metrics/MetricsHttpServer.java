@@ -0,0 +1,64 @@
+package com.trivadis.tricoin.metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves {@link TriCoinMetrics} in the Prometheus text format at {@code /metrics}.
+ */
+public class MetricsHttpServer implements Closeable {
+
+    private final TriCoinMetrics metrics;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    public MetricsHttpServer(TriCoinMetrics metrics, int port) throws IOException {
+        this(metrics, new InetSocketAddress(port));
+    }
+
+    public MetricsHttpServer(TriCoinMetrics metrics, InetSocketAddress address) throws IOException {
+        this.metrics = metrics;
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-http");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.server = HttpServer.create(address, 0);
+        server.createContext("/metrics", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Writer writer = new OutputStreamWriter(buffer, StandardCharsets.UTF_8);
+        metrics.writePrometheus(writer);
+        byte[] body = buffer.toByteArray();
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
@@ -0,0 +1,265 @@
+package com.trivadis.tricoin.metrics;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Collects JSON-RPC, transaction and event decoding metrics of the TriCoin client.
+ *
+ * <p>Recording only touches {@link Histogram}s and {@link LongAdder}s, so it never blocks; a
+ * lock is only taken the first time a method, function or event name is seen. The metrics are
+ * read through JMX, see {@link #registerMBean()}, or in the Prometheus text format, see
+ * {@link #writePrometheus(Writer)} and {@link MetricsHttpServer}.
+ */
+public class TriCoinMetrics implements TriCoinMetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.trivadis.tricoin:type=TriCoinMetrics";
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final ConcurrentMap<String, RpcMetrics> rpc = new ConcurrentHashMap<String, RpcMetrics>();
+    private final ConcurrentMap<String, TransactionMetrics> transactions =
+            new ConcurrentHashMap<String, TransactionMetrics>();
+    private final ConcurrentMap<String, EventMetrics> events = new ConcurrentHashMap<String, EventMetrics>();
+
+    /**
+     * Records a JSON-RPC exchange. A batch is recorded once, under the method of its first
+     * request.
+     *
+     * @param error whether the request failed, either in transport or with a JSON-RPC error
+     */
+    public void recordRpc(String method, boolean batch, long nanos, long requestBytes, long responseBytes,
+                          boolean error) {
+        RpcMetrics metrics = get(rpc, batch ? method + " (batch)" : method, key -> new RpcMetrics(method, batch));
+        metrics.latency.record(nanos);
+        metrics.requestBytes.record(requestBytes);
+        metrics.responseBytes.record(responseBytes);
+        if (error) {
+            metrics.errors.increment();
+        }
+    }
+
+    /**
+     * Records a mined transaction, with the time from its submission until its receipt arrived.
+     */
+    public void recordTransaction(String function, long nanos, BigInteger gasUsed) {
+        TransactionMetrics metrics = get(transactions, function, key -> new TransactionMetrics());
+        metrics.timeToReceipt.record(nanos);
+        if (gasUsed != null) {
+            metrics.gasUsed.record(gasUsed.longValue());
+        }
+    }
+
+    public void recordTransactionFailure(String function) {
+        get(transactions, function, key -> new TransactionMetrics()).failures.increment();
+    }
+
+    public void recordDecode(String event, int count, long nanos) {
+        EventMetrics metrics = get(events, event, key -> new EventMetrics());
+        metrics.decoded.add(count);
+        metrics.nanos.add(nanos);
+    }
+
+    /**
+     * Registers this instance with the platform MBean server under {@link #OBJECT_NAME}.
+     */
+    public ObjectName registerMBean() throws JMException {
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        return name;
+    }
+
+    @Override
+    public Map<String, HistogramStats> getRpcLatencyMicros() {
+        return stats(rpc, metrics -> metrics.latency, 1_000);
+    }
+
+    @Override
+    public Map<String, HistogramStats> getRpcRequestBytes() {
+        return stats(rpc, metrics -> metrics.requestBytes, 1);
+    }
+
+    @Override
+    public Map<String, HistogramStats> getRpcResponseBytes() {
+        return stats(rpc, metrics -> metrics.responseBytes, 1);
+    }
+
+    @Override
+    public Map<String, Long> getRpcErrors() {
+        return counts(rpc, metrics -> metrics.errors);
+    }
+
+    @Override
+    public Map<String, HistogramStats> getTimeToReceiptMillis() {
+        return stats(transactions, metrics -> metrics.timeToReceipt, 1_000_000);
+    }
+
+    @Override
+    public Map<String, HistogramStats> getGasUsed() {
+        return stats(transactions, metrics -> metrics.gasUsed, 1);
+    }
+
+    @Override
+    public Map<String, Long> getTransactionFailures() {
+        return counts(transactions, metrics -> metrics.failures);
+    }
+
+    @Override
+    public Map<String, Long> getDecodedEvents() {
+        return counts(events, metrics -> metrics.decoded);
+    }
+
+    @Override
+    public Map<String, Double> getDecodeNanosPerEvent() {
+        Map<String, Double> result = new TreeMap<String, Double>();
+        for (Map.Entry<String, EventMetrics> entry : events.entrySet()) {
+            long decoded = entry.getValue().decoded.sum();
+            result.put(entry.getKey(), decoded == 0 ? 0 : (double) entry.getValue().nanos.sum() / decoded);
+        }
+        return result;
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text exposition format. Histograms are written as
+     * summaries with the 0.5, 0.9 and 0.99 quantiles, durations in seconds.
+     */
+    public void writePrometheus(Writer out) throws IOException {
+        Map<String, RpcMetrics> rpcByKey = new TreeMap<String, RpcMetrics>(rpc);
+        Map<String, String> rpcLabels = new TreeMap<String, String>();
+        for (Map.Entry<String, RpcMetrics> entry : rpcByKey.entrySet()) {
+            rpcLabels.put(entry.getKey(), "method=\"" + escape(entry.getValue().method) + "\",batch=\"" + entry.getValue().batch + "\"");
+        }
+        writeSummary(out, "tricoin_rpc_latency_seconds", "JSON-RPC round trip time",
+                rpcByKey, rpcLabels, metrics -> metrics.latency, NANOS_PER_SECOND);
+        writeSummary(out, "tricoin_rpc_request_bytes", "JSON-RPC request size",
+                rpcByKey, rpcLabels, metrics -> metrics.requestBytes, 1);
+        writeSummary(out, "tricoin_rpc_response_bytes", "JSON-RPC response size",
+                rpcByKey, rpcLabels, metrics -> metrics.responseBytes, 1);
+        writeCounter(out, "tricoin_rpc_errors_total", "Failed JSON-RPC requests",
+                rpcByKey, rpcLabels, metrics -> metrics.errors.sum(), 1);
+
+        Map<String, TransactionMetrics> transactionsByFunction = new TreeMap<String, TransactionMetrics>(transactions);
+        Map<String, String> functionLabels = labels("function", transactionsByFunction);
+        writeSummary(out, "tricoin_transaction_receipt_seconds", "Time from submitting a transaction to its receipt",
+                transactionsByFunction, functionLabels, metrics -> metrics.timeToReceipt, NANOS_PER_SECOND);
+        writeSummary(out, "tricoin_transaction_gas_used", "Gas used by mined transactions",
+                transactionsByFunction, functionLabels, metrics -> metrics.gasUsed, 1);
+        writeCounter(out, "tricoin_transaction_failures_total", "Transactions that failed or were rejected",
+                transactionsByFunction, functionLabels, metrics -> metrics.failures.sum(), 1);
+
+        Map<String, EventMetrics> eventsByName = new TreeMap<String, EventMetrics>(events);
+        Map<String, String> eventLabels = labels("event", eventsByName);
+        writeCounter(out, "tricoin_events_decoded_total", "Decoded contract events",
+                eventsByName, eventLabels, metrics -> metrics.decoded.sum(), 1);
+        writeCounter(out, "tricoin_event_decode_seconds_total", "Time spent decoding contract events",
+                eventsByName, eventLabels, metrics -> metrics.nanos.sum(), NANOS_PER_SECOND);
+        out.flush();
+    }
+
+    private static <V> V get(ConcurrentMap<String, V> map, String key, Function<String, V> factory) {
+        V value = map.get(key);
+        return value != null ? value : map.computeIfAbsent(key, factory);
+    }
+
+    private static <V> Map<String, HistogramStats> stats(Map<String, V> map, Function<V, Histogram> histogram,
+                                                         long divisor) {
+        Map<String, HistogramStats> result = new TreeMap<String, HistogramStats>();
+        for (Map.Entry<String, V> entry : map.entrySet()) {
+            result.put(entry.getKey(), HistogramStats.of(histogram.apply(entry.getValue()).snapshot(), divisor));
+        }
+        return result;
+    }
+
+    private static <V> Map<String, Long> counts(Map<String, V> map, Function<V, LongAdder> counter) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, V> entry : map.entrySet()) {
+            result.put(entry.getKey(), counter.apply(entry.getValue()).sum());
+        }
+        return result;
+    }
+
+    private static Map<String, String> labels(String name, Map<String, ?> map) {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (String key : map.keySet()) {
+            result.put(key, name + "=\"" + escape(key) + "\"");
+        }
+        return result;
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static <V> void writeSummary(Writer out, String name, String help, Map<String, V> map,
+                                         Map<String, String> labels, Function<V, Histogram> histogram,
+                                         double scale) throws IOException {
+        if (map.isEmpty()) {
+            return;
+        }
+        out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " summary\n");
+        for (Map.Entry<String, V> entry : map.entrySet()) {
+            Histogram.Snapshot snapshot = histogram.apply(entry.getValue()).snapshot();
+            String label = labels.get(entry.getKey());
+            for (double quantile : QUANTILES) {
+                out.write(name + "{" + label + ",quantile=\"" + quantile + "\"} "
+                        + format(snapshot.getPercentile(quantile), scale) + "\n");
+            }
+            out.write(name + "_sum{" + label + "} " + format(snapshot.getSum(), scale) + "\n");
+            out.write(name + "_count{" + label + "} " + snapshot.getCount() + "\n");
+        }
+    }
+
+    private static <V> void writeCounter(Writer out, String name, String help, Map<String, V> map,
+                                         Map<String, String> labels, Function<V, Long> counter,
+                                         double scale) throws IOException {
+        if (map.isEmpty()) {
+            return;
+        }
+        out.write("# HELP " + name + " " + help + "\n# TYPE " + name + " counter\n");
+        for (Map.Entry<String, V> entry : map.entrySet()) {
+            out.write(name + "{" + labels.get(entry.getKey()) + "} " + format(counter.apply(entry.getValue()), scale) + "\n");
+        }
+    }
+
+    private static String format(long value, double scale) {
+        return scale == 1 ? Long.toString(value) : Double.toString(value / scale);
+    }
+
+    private static final class RpcMetrics {
+        final String method;
+        final boolean batch;
+        final Histogram latency = new Histogram();
+        final Histogram requestBytes = new Histogram();
+        final Histogram responseBytes = new Histogram();
+        final LongAdder errors = new LongAdder();
+
+        RpcMetrics(String method, boolean batch) {
+            this.method = method;
+            this.batch = batch;
+        }
+    }
+
+    private static final class TransactionMetrics {
+        final Histogram timeToReceipt = new Histogram();
+        final Histogram gasUsed = new Histogram();
+        final LongAdder failures = new LongAdder();
+    }
+
+    private static final class EventMetrics {
+        final LongAdder decoded = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+    }
+}
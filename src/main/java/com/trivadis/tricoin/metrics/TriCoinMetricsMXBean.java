@@ -0,0 +1,32 @@
+package com.trivadis.tricoin.metrics;
+
+import java.util.Map;
+
+/**
+ * The JMX view of {@link TriCoinMetrics}. All maps are keyed by JSON-RPC method, TriCoin function
+ * or event name; batched JSON-RPC requests are listed under their method with a
+ * {@code " (batch)"} suffix.
+ */
+public interface TriCoinMetricsMXBean {
+
+    Map<String, HistogramStats> getRpcLatencyMicros();
+
+    Map<String, HistogramStats> getRpcRequestBytes();
+
+    Map<String, HistogramStats> getRpcResponseBytes();
+
+    Map<String, Long> getRpcErrors();
+
+    Map<String, HistogramStats> getTimeToReceiptMillis();
+
+    Map<String, HistogramStats> getGasUsed();
+
+    Map<String, Long> getTransactionFailures();
+
+    Map<String, Long> getDecodedEvents();
+
+    /**
+     * @return the average time spent decoding one event, in nanoseconds
+     */
+    Map<String, Double> getDecodeNanosPerEvent();
+}
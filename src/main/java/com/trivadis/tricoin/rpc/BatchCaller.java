@@ -0,0 +1,100 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.utils.Async;
+
+/**
+ * Sends a large number of requests of the same kind in chunks of {@code batchSize}, with at most
+ * {@code maxBatchesInFlight} chunks outstanding at any time.
+ *
+ * <p>If no {@link BatchWeb3jService} is available, every request of a chunk is sent on its own
+ * through the service it was created with, so callers do not need a separate code path.
+ */
+public class BatchCaller {
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+    public static final int DEFAULT_MAX_BATCHES_IN_FLIGHT = 4;
+
+    private final BatchWeb3jService batchService;
+    private final int batchSize;
+    private final int maxBatchesInFlight;
+
+    public BatchCaller(BatchWeb3jService batchService) {
+        this(batchService, DEFAULT_BATCH_SIZE, DEFAULT_MAX_BATCHES_IN_FLIGHT);
+    }
+
+    public BatchCaller(BatchWeb3jService batchService, int batchSize, int maxBatchesInFlight) {
+        if (batchSize < 1 || maxBatchesInFlight < 1) {
+            throw new IllegalArgumentException("Batch size and batches in flight must be positive");
+        }
+        this.batchService = batchService;
+        this.batchSize = batchSize;
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    /**
+     * Sends all requests and waits for their responses.
+     *
+     * @return the responses in request order
+     */
+    public <T extends Response<?>> List<T> call(List<? extends Request<?, T>> requests, Class<T> responseType)
+            throws IOException {
+        Semaphore permits = new Semaphore(maxBatchesInFlight);
+        List<CompletableFuture<List<T>>> chunks = new ArrayList<CompletableFuture<List<T>>>();
+        try {
+            for (int from = 0; from < requests.size(); from += batchSize) {
+                List<? extends Request<?, T>> chunk =
+                        requests.subList(from, Math.min(from + batchSize, requests.size()));
+                permits.acquire();
+                CompletableFuture<List<T>> future = Async.run(() -> sendChunk(chunk, responseType));
+                future.whenComplete((result, error) -> permits.release());
+                chunks.add(future);
+            }
+            List<T> responses = new ArrayList<T>(requests.size());
+            for (CompletableFuture<List<T>> chunk : chunks) {
+                responses.addAll(chunk.get());
+            }
+            return responses;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while sending batch");
+        } catch (ExecutionException e) {
+            for (CompletableFuture<List<T>> chunk : chunks) {
+                chunk.cancel(false);
+            }
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Batch request failed", e.getCause());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T extends Response<?>> List<T> sendChunk(List<? extends Request<?, T>> chunk, Class<T> responseType)
+            throws IOException {
+        List<T> responses = new ArrayList<T>(chunk.size());
+        if (batchService == null) {
+            for (Request<?, T> request : chunk) {
+                responses.add(request.send());
+            }
+            return responses;
+        }
+        RpcBatch batch = new RpcBatch();
+        for (Request<?, T> request : chunk) {
+            batch.add(request, responseType);
+        }
+        for (Response<?> response : batchService.sendBatch(batch)) {
+            responses.add((T) response);
+        }
+        return responses;
+    }
+}
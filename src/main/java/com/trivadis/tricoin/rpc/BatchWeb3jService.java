@@ -0,0 +1,22 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.web3j.protocol.Web3jService;
+import org.web3j.protocol.core.Response;
+
+/**
+ * A {@link Web3jService} that can send several requests as a single JSON-RPC batch.
+ */
+public interface BatchWeb3jService extends Web3jService {
+
+    /**
+     * Sends all requests of the batch in one round trip.
+     *
+     * @param batch the requests to send
+     * @return the responses, in the order the requests were added to the batch
+     * @throws IOException if the batch could not be sent or a response is missing
+     */
+    List<Response<?>> sendBatch(RpcBatch batch) throws IOException;
+}
@@ -0,0 +1,158 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import com.trivadis.tricoin.metrics.TriCoinMetrics;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Dispatcher;
+import okhttp3.Headers;
+import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.exceptions.ClientConnectionException;
+import org.web3j.protocol.http.HttpService;
+
+/**
+ * An {@link HttpService} that additionally posts {@link RpcBatch}es as a single JSON-RPC batch
+ * request.
+ *
+ * <p>If metrics are set, the latency and request and response sizes of every exchange are
+ * recorded per JSON-RPC method.
+ *
+ * <p>Interrupting a thread that waits for a node to answer cancels the HTTP call, so a
+ * {@link NodePool} can give up on the slower node of a hedged read. Once the response body is
+ * being read, the call runs to completion.
+ */
+public class BatchingHttpService extends HttpService implements BatchWeb3jService {
+
+    private final String url;
+    private final OkHttpClient httpClient;
+    private volatile TriCoinMetrics metrics;
+
+    public BatchingHttpService(String url) {
+        this(url, new OkHttpClient());
+    }
+
+    public BatchingHttpService(String url, OkHttpClient httpClient) {
+        super(url, httpClient, false);
+        // Calls are enqueued so that they can be cancelled, and must not queue up behind the
+        // dispatcher's default limit of five calls per host
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Integer.MAX_VALUE);
+        dispatcher.setMaxRequestsPerHost(Integer.MAX_VALUE);
+        this.url = url;
+        this.httpClient = httpClient.newBuilder().dispatcher(dispatcher).build();
+    }
+
+    public void setMetrics(TriCoinMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        TriCoinMetrics current = metrics;
+        if (current == null) {
+            return super.send(request, responseType);
+        }
+        long start = System.nanoTime();
+        String payload = objectMapper.writeValueAsString(request);
+        CountingInputStream result = null;
+        boolean error = true;
+        try {
+            result = new CountingInputStream(performIO(payload));
+            T response = objectMapper.readValue(result, responseType);
+            error = response.hasError();
+            return response;
+        } finally {
+            if (result != null) {
+                result.close();
+            }
+            current.recordRpc(request.getMethod(), false, System.nanoTime() - start,
+                    payload.getBytes(StandardCharsets.UTF_8).length, result == null ? 0 : result.getCount(), error);
+        }
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+        TriCoinMetrics current = metrics;
+        long start = current == null ? 0 : System.nanoTime();
+        String payload = objectMapper.writeValueAsString(batch.getRequests());
+        CountingInputStream result = null;
+        boolean error = true;
+        try {
+            result = new CountingInputStream(performIO(payload));
+            List<Response<?>> responses = batch.readResponses(objectMapper, objectMapper.readTree(result));
+            error = false;
+            return responses;
+        } finally {
+            if (result != null) {
+                result.close();
+            }
+            if (current != null) {
+                current.recordRpc(batch.getRequests().get(0).getMethod(), true, System.nanoTime() - start,
+                        payload.getBytes(StandardCharsets.UTF_8).length, result == null ? 0 : result.getCount(), error);
+            }
+        }
+    }
+
+    @Override
+    protected InputStream performIO(String request) throws IOException {
+        Call call = httpClient.newCall(new okhttp3.Request.Builder()
+                .url(url)
+                .headers(Headers.of(getHeaders()))
+                .post(RequestBody.create(JSON_MEDIA_TYPE, request))
+                .build());
+        CompletableFuture<okhttp3.Response> future = new CompletableFuture<okhttp3.Response>();
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, okhttp3.Response response) {
+                if (!future.complete(response)) {
+                    response.close();
+                }
+            }
+        });
+        okhttp3.Response response;
+        try {
+            response = future.get();
+        } catch (InterruptedException e) {
+            call.cancel();
+            future.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + url);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+        ResponseBody body = response.body();
+        if (!response.isSuccessful()) {
+            try {
+                throw new ClientConnectionException("Invalid response received: " + response.code()
+                        + "; " + (body == null ? "N/A" : body.string()));
+            } finally {
+                response.close();
+            }
+        }
+        return body == null ? null : body.byteStream();
+    }
+}
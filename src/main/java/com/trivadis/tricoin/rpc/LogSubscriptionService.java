@@ -0,0 +1,19 @@
+package com.trivadis.tricoin.rpc;
+
+import java.util.List;
+
+import org.web3j.protocol.core.methods.response.Log;
+import rx.Observable;
+
+/**
+ * A service that pushes new logs to the client as they are mined, rather than having the client
+ * poll a filter.
+ */
+public interface LogSubscriptionService {
+
+    /**
+     * Emits the logs of {@code contractAddress} whose topic0 is one of {@code topics}, including
+     * logs flagged as removed when a reorg drops them again.
+     */
+    Observable<Log> logObservable(String contractAddress, List<String> topics);
+}
@@ -0,0 +1,721 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+import org.web3j.protocol.core.methods.response.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.EthUninstallFilter;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Async;
+import org.web3j.utils.Numeric;
+
+/**
+ * A {@link BatchWeb3jService} that spreads requests over several nodes.
+ *
+ * <p>Reads go to a node picked at random, weighted by the inverse of its average latency. If a
+ * read takes longer than the {@code hedgePercentile} of recent request latencies, the same
+ * request is sent to a second node as well, and whichever answers first wins; the other one is
+ * cancelled by interrupting it, which does not count as a failure of its node. A read that fails
+ * is retried on another node.
+ *
+ * <p>Each node is probed with {@code eth_blockNumber} every {@code probeInterval}. Nodes whose
+ * head is more than {@code maxHeadLag} blocks behind the highest head in the pool get no reads.
+ * A node is ejected after {@code maxFailures} failed requests in a row, and taken back once a
+ * probe after {@code ejectionMillis} succeeds again.
+ *
+ * <p>Requests that depend on a node's transaction pool, such as sending transactions and reading
+ * the pending nonce, always go to the same node, and are neither hedged nor retried. That node
+ * only changes when it is ejected.
+ *
+ * <p>Filters live on the node that installed them, so filter requests go to that same node too.
+ * The pool hands out its own filter ids. When the sticky node changes, or the node no longer
+ * knows a filter, the filter is installed again on the current node under the same pool id. A
+ * log filter then catches up with {@code eth_getLogs} from the last block it reported, so no
+ * logs are lost and none is reported twice; block and pending transaction filters only report
+ * what happens after they were installed again.
+ */
+public class NodePool implements BatchWeb3jService, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(NodePool.class);
+
+    public static final long DEFAULT_PROBE_INTERVAL = 2_000;
+    public static final long DEFAULT_EJECTION = 10_000;
+    public static final int DEFAULT_MAX_FAILURES = 3;
+    public static final long DEFAULT_MAX_HEAD_LAG = 2;
+    public static final double DEFAULT_HEDGE_PERCENTILE = 0.95;
+
+    private static final Set<String> STICKY_METHODS = new HashSet<String>(Arrays.asList(
+            "eth_sendRawTransaction", "eth_sendTransaction", "eth_getTransactionCount", "eth_sign",
+            "eth_newFilter", "eth_newBlockFilter", "eth_newPendingTransactionFilter",
+            "eth_getFilterChanges", "eth_getFilterLogs", "eth_uninstallFilter"));
+    private static final Set<String> FILTER_INSTALL_METHODS = new HashSet<String>(Arrays.asList(
+            "eth_newFilter", "eth_newBlockFilter", "eth_newPendingTransactionFilter"));
+    private static final Set<String> FILTER_METHODS = new HashSet<String>(Arrays.asList(
+            "eth_getFilterChanges", "eth_getFilterLogs", "eth_uninstallFilter"));
+
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final int MIN_LATENCY_SAMPLES = 32;
+    private static final long MIN_HEDGE_DELAY = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final double EWMA_WEIGHT = 0.2;
+
+    private final List<Node> nodes = new CopyOnWriteArrayList<Node>();
+    private final Map<BigInteger, InstalledFilter> filters = new ConcurrentHashMap<BigInteger, InstalledFilter>();
+    private final AtomicLong filterIds = new AtomicLong();
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+
+    private final long[] latencies = new long[LATENCY_SAMPLES];
+    private int latencyCount;
+    private long hedgeDelayNanos = -1;
+
+    private volatile Node stickyNode;
+    private volatile long ejectionMillis = DEFAULT_EJECTION;
+    private volatile int maxFailures = DEFAULT_MAX_FAILURES;
+    private volatile long maxHeadLag = DEFAULT_MAX_HEAD_LAG;
+    private volatile double hedgePercentile = DEFAULT_HEDGE_PERCENTILE;
+
+    public NodePool() {
+        this(DEFAULT_PROBE_INTERVAL);
+    }
+
+    public NodePool(long probeIntervalMillis) {
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "node-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "node-pool-probe");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::probeAll, 0, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates a pool of {@link BatchingHttpService}s, one per URL. The first URL is the one
+     * transactions are sent to while it is healthy.
+     */
+    public static NodePool ofUrls(String... urls) {
+        NodePool pool = new NodePool();
+        for (String url : urls) {
+            if (!url.trim().isEmpty()) {
+                pool.addNode(url.trim(), new BatchingHttpService(url.trim()));
+            }
+        }
+        return pool;
+    }
+
+    public NodePool addNode(String name, BatchWeb3jService service) {
+        nodes.add(new Node(name, service));
+        return this;
+    }
+
+    public NodePool setEjectionMillis(long ejectionMillis) {
+        this.ejectionMillis = ejectionMillis;
+        return this;
+    }
+
+    public NodePool setMaxFailures(int maxFailures) {
+        this.maxFailures = maxFailures;
+        return this;
+    }
+
+    public NodePool setMaxHeadLag(long maxHeadLag) {
+        this.maxHeadLag = maxHeadLag;
+        return this;
+    }
+
+    /**
+     * Sets the percentile of recent latencies after which a read is hedged; 1 or more turns
+     * hedging off.
+     */
+    public NodePool setHedgePercentile(double hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+        synchronized (latencies) {
+            hedgeDelayNanos = -1;
+        }
+        return this;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        String method = request.getMethod();
+        if (FILTER_INSTALL_METHODS.contains(method)) {
+            return installFilter(request, responseType);
+        }
+        if (FILTER_METHODS.contains(method)) {
+            return sendToFilter(request, responseType);
+        }
+        return execute(STICKY_METHODS.contains(method), node -> node.service.send(request, responseType));
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return Async.run(() -> send(request, responseType));
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+        boolean sticky = false;
+        boolean filter = false;
+        for (Request<?, ?> request : batch.getRequests()) {
+            sticky |= STICKY_METHODS.contains(request.getMethod());
+            filter |= FILTER_INSTALL_METHODS.contains(request.getMethod()) || FILTER_METHODS.contains(request.getMethod());
+        }
+        if (filter) {
+            // Filter ids have to be translated request by request
+            List<Response<?>> responses = new ArrayList<Response<?>>(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                responses.add(send(batch.getRequests().get(i), batch.getResponseTypes().get(i)));
+            }
+            return responses;
+        }
+        return execute(sticky, node -> node.service.sendBatch(batch));
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        executor.shutdownNow();
+    }
+
+    private <T extends Response<?>> T installFilter(Request<?, ?> request, Class<T> responseType) throws IOException {
+        if (nodes.isEmpty()) {
+            throw new IOException("The node pool is empty");
+        }
+        Node node = stickyNode();
+        T response;
+        try {
+            response = timed(node, n -> n.service.send(request, responseType), false);
+        } catch (IOException e) {
+            if (!failOver(node, e)) {
+                throw e;
+            }
+            node = stickyNode();
+            response = timed(node, n -> n.service.send(request, responseType), false);
+        }
+        if (response.hasError() || !(response instanceof EthFilter)) {
+            return response;
+        }
+        EthFilter ethFilter = (EthFilter) response;
+        BigInteger id = BigInteger.valueOf(filterIds.incrementAndGet());
+        filters.put(id, new InstalledFilter(request.getMethod(), new ArrayList<Object>(request.getParams()),
+                node, ethFilter.getResult(), node.head));
+        ethFilter.setResult(Numeric.toHexStringWithPrefix(id));
+        return response;
+    }
+
+    private <T extends Response<?>> T sendToFilter(Request<?, ?> request, Class<T> responseType) throws IOException {
+        BigInteger id = filterId(request);
+        InstalledFilter filter = id == null ? null : filters.get(id);
+        if (filter == null) {
+            return execute(true, node -> node.service.send(request, responseType));
+        }
+        if (request.getMethod().equals("eth_uninstallFilter")) {
+            filters.remove(id);
+            return uninstall(filter, responseType);
+        }
+        synchronized (filter) {
+            Node node = stickyNode();
+            try {
+                return pollFilter(filter, node, request.getMethod(), responseType);
+            } catch (IOException e) {
+                if (!failOver(node, e)) {
+                    throw e;
+                }
+                return pollFilter(filter, stickyNode(), request.getMethod(), responseType);
+            }
+        }
+    }
+
+    private <T extends Response<?>> T pollFilter(InstalledFilter filter, Node node, String method, Class<T> responseType)
+            throws IOException {
+        boolean reinstalled = false;
+        if (filter.node != node) {
+            reinstall(filter, node);
+            reinstalled = true;
+        }
+        T response = timed(node, n -> filterRequest(method, filter, n, responseType).send(), false);
+        if (!reinstalled && isFilterNotFound(response)) {
+            reinstall(filter, node);
+            reinstalled = true;
+            response = timed(node, n -> filterRequest(method, filter, n, responseType).send(), false);
+        }
+        if (filter.isLogFilter() && response instanceof EthLog && !response.hasError()) {
+            EthLog logs = (EthLog) response;
+            if (reinstalled && method.equals("eth_getFilterChanges")) {
+                EthLog missed = catchUp(filter, node);
+                if (missed != null) {
+                    logs.getLogs().addAll(0, missed.getLogs());
+                }
+            }
+            filter.skipDelivered(logs, method.equals("eth_getFilterChanges"));
+        }
+        return response;
+    }
+
+    /**
+     * Ejects {@code node} after a failed filter request, since the caller's polling would end on
+     * the error, and tells whether there is another node to try.
+     */
+    private boolean failOver(Node node, IOException cause) {
+        if (!node.ejected) {
+            eject(node, cause);
+        }
+        return stickyNode() != node;
+    }
+
+    private static BigInteger filterId(Request<?, ?> request) {
+        if (request.getParams().size() != 1) {
+            return null;
+        }
+        try {
+            return Numeric.decodeQuantity(String.valueOf(request.getParams().get(0)));
+        } catch (RuntimeException e) {
+            // not one of ours, the node will answer it
+            return null;
+        }
+    }
+
+    private void reinstall(InstalledFilter filter, Node node) throws IOException {
+        EthFilter response = timed(node, n -> new Request<Object, EthFilter>(
+                filter.method, filter.params, n.service, EthFilter.class).send(), false);
+        if (response.hasError()) {
+            throw new IOException("Could not install filter again on " + node.name + ": "
+                    + response.getError().getMessage());
+        }
+        log.info("Installed {} again on {}", filter.method, node.name);
+        filter.node = node;
+        filter.nodeId = response.getResult();
+    }
+
+    /**
+     * Reads the logs a log filter may have missed while it was not installed, from the last block
+     * it reported, or else from the block after the head at the time it was first installed.
+     */
+    private EthLog catchUp(InstalledFilter filter, Node node) throws IOException {
+        long from = filter.lastBlock >= 0 ? filter.lastBlock : filter.installHead >= 0 ? filter.installHead + 1 : -1;
+        if (from < 0 || filter.params.size() != 1) {
+            return null;
+        }
+        Map<String, Object> criteria = ObjectMapperFactory.getObjectMapper()
+                .convertValue(filter.params.get(0), new TypeReference<Map<String, Object>>() { });
+        Object fromBlock = criteria.get("fromBlock");
+        if (fromBlock instanceof String && Numeric.containsHexPrefix((String) fromBlock)
+                && Numeric.decodeQuantity((String) fromBlock).longValueExact() > from) {
+            from = Numeric.decodeQuantity((String) fromBlock).longValueExact();
+        }
+        criteria.put("fromBlock", Numeric.toHexStringWithPrefix(BigInteger.valueOf(from)));
+        EthLog response = timed(node, n -> new Request<Object, EthLog>(
+                "eth_getLogs", Collections.<Object>singletonList(criteria), n.service, EthLog.class).send(), false);
+        if (response.hasError()) {
+            throw new IOException("Could not read missed logs from " + node.name + ": "
+                    + response.getError().getMessage());
+        }
+        return response;
+    }
+
+    private <T extends Response<?>> T uninstall(InstalledFilter filter, Class<T> responseType) throws IOException {
+        try {
+            return timed(filter.node, n -> filterRequest("eth_uninstallFilter", filter, n, responseType).send(), false);
+        } catch (IOException e) {
+            if (responseType != EthUninstallFilter.class) {
+                throw e;
+            }
+            // The node is unreachable, and its filters are gone with it
+            log.debug("Could not uninstall filter on {}: {}", filter.node.name, e.toString());
+            EthUninstallFilter response = new EthUninstallFilter();
+            response.setResult(Boolean.TRUE);
+            return responseType.cast(response);
+        }
+    }
+
+    private static <T extends Response<?>> Request<String, T> filterRequest(String method, InstalledFilter filter,
+                                                                        Node node, Class<T> responseType) {
+        return new Request<String, T>(method, Collections.singletonList(filter.nodeId), node.service, responseType);
+    }
+
+    private static boolean isFilterNotFound(Response<?> response) {
+        return response.hasError() && response.getError().getMessage() != null
+                && response.getError().getMessage().toLowerCase().contains("filter not found");
+    }
+
+    private <R> R execute(boolean sticky, NodeCall<R> call) throws IOException {
+        if (nodes.isEmpty()) {
+            throw new IOException("The node pool is empty");
+        }
+        if (sticky) {
+            return timed(stickyNode(), call, false);
+        }
+        HedgedCall<R> hedgedCall = new HedgedCall<R>(readableNodes(), call);
+        hedgedCall.start();
+        try {
+            return hedgedCall.result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a node");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        } finally {
+            hedgedCall.cancel();
+        }
+    }
+
+    private <R> R timed(Node node, NodeCall<R> call, boolean sample) throws IOException {
+        long start = System.nanoTime();
+        try {
+            R result = call.call(node);
+            node.failures.set(0);
+            recordLatency(node, System.nanoTime() - start, sample);
+            return result;
+        } catch (IOException | RuntimeException e) {
+            // An interrupted call was cancelled because another node answered first
+            if (!Thread.currentThread().isInterrupted()
+                    && node.failures.incrementAndGet() >= maxFailures && !node.ejected) {
+                eject(node, e);
+            }
+            throw e;
+        }
+    }
+
+    private synchronized Node stickyNode() {
+        Node current = stickyNode;
+        if (current == null || current.ejected) {
+            current = nodes.get(0);
+            for (Node node : nodes) {
+                if (!node.ejected) {
+                    current = node;
+                    break;
+                }
+            }
+            if (current != stickyNode) {
+                log.info("Sending transactions to {}", current.name);
+                stickyNode = current;
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Returns the healthy nodes that are not lagging behind, or, if there are none, the healthy
+     * nodes, or, if there are none either, all nodes.
+     */
+    private List<Node> readableNodes() {
+        long maxHead = -1;
+        List<Node> healthy = new ArrayList<Node>(nodes.size());
+        for (Node node : nodes) {
+            if (!node.ejected) {
+                healthy.add(node);
+                maxHead = Math.max(maxHead, node.head);
+            }
+        }
+        if (healthy.isEmpty()) {
+            return new ArrayList<Node>(nodes);
+        }
+        List<Node> current = new ArrayList<Node>(healthy.size());
+        for (Node node : healthy) {
+            if (node.head >= maxHead - maxHeadLag) {
+                current.add(node);
+            }
+        }
+        return current.isEmpty() ? healthy : current;
+    }
+
+    /**
+     * Picks one of {@code candidates} at random, weighted by the inverse of its average latency.
+     * Nodes without a latency yet are weighted like the average node.
+     */
+    private static Node pick(List<Node> candidates) {
+        if (candidates.isEmpty()) {
+            return null;
+        }
+        double knownWeight = 0;
+        int known = 0;
+        double[] weights = new double[candidates.size()];
+        for (int i = 0; i < weights.length; i++) {
+            double latency = candidates.get(i).averageMillis;
+            if (latency >= 0) {
+                weights[i] = 1 / Math.max(latency, 0.1);
+                knownWeight += weights[i];
+                known++;
+            }
+        }
+        double total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            if (candidates.get(i).averageMillis < 0) {
+                weights[i] = known == 0 ? 1 : knownWeight / known;
+            }
+            total += weights[i];
+        }
+        double point = ThreadLocalRandom.current().nextDouble(total);
+        for (int i = 0; i < weights.length; i++) {
+            point -= weights[i];
+            if (point < 0) {
+                return candidates.get(i);
+            }
+        }
+        return candidates.get(weights.length - 1);
+    }
+
+    private void recordLatency(Node node, long nanos, boolean sample) {
+        double millis = nanos / 1e6;
+        synchronized (node) {
+            node.averageMillis = node.averageMillis < 0
+                    ? millis : node.averageMillis + EWMA_WEIGHT * (millis - node.averageMillis);
+        }
+        if (sample) {
+            synchronized (latencies) {
+                latencies[latencyCount++ % LATENCY_SAMPLES] = nanos;
+                if (latencyCount % 64 == 0) {
+                    hedgeDelayNanos = -1;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the delay after which a read is hedged, or -1 if reads are not hedged.
+     */
+    private long hedgeDelayNanos() {
+        double percentile = hedgePercentile;
+        synchronized (latencies) {
+            if (percentile >= 1 || latencyCount < MIN_LATENCY_SAMPLES) {
+                return -1;
+            }
+            if (hedgeDelayNanos < 0) {
+                long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_SAMPLES));
+                Arrays.sort(sorted);
+                hedgeDelayNanos = Math.max(MIN_HEDGE_DELAY, sorted[(int) (percentile * (sorted.length - 1))]);
+            }
+            return hedgeDelayNanos;
+        }
+    }
+
+    private void eject(Node node, Exception cause) {
+        node.ejectedUntil = System.currentTimeMillis() + ejectionMillis;
+        node.ejected = true;
+        log.warn("Ejecting node {} after {} failures: {}", node.name, node.failures.get(), cause.toString());
+    }
+
+    private void probeAll() {
+        long now = System.currentTimeMillis();
+        for (Node node : nodes) {
+            if (!node.ejected || now >= node.ejectedUntil) {
+                executor.execute(() -> probe(node));
+            }
+        }
+    }
+
+    private void probe(Node node) {
+        long start = System.nanoTime();
+        try {
+            EthBlockNumber response = new Request<String, EthBlockNumber>(
+                    "eth_blockNumber", Collections.<String>emptyList(), node.service, EthBlockNumber.class).send();
+            if (response.hasError()) {
+                throw new IOException(response.getError().getMessage());
+            }
+            recordLatency(node, System.nanoTime() - start, false);
+            node.head = response.getBlockNumber().longValueExact();
+            node.failures.set(0);
+            if (node.ejected) {
+                log.info("Taking node {} back at block {}", node.name, node.head);
+                node.ejected = false;
+            }
+        } catch (IOException | RuntimeException e) {
+            if (node.ejected) {
+                node.ejectedUntil = System.currentTimeMillis() + ejectionMillis;
+            } else if (node.failures.incrementAndGet() >= maxFailures) {
+                eject(node, e);
+            }
+        }
+    }
+
+    private interface NodeCall<R> {
+        R call(Node node) throws IOException;
+    }
+
+    private static final class Node {
+        final String name;
+        final BatchWeb3jService service;
+        final AtomicInteger failures = new AtomicInteger();
+        volatile double averageMillis = -1;
+        volatile long head = -1;
+        volatile boolean ejected;
+        volatile long ejectedUntil;
+
+        Node(String name, BatchWeb3jService service) {
+            this.name = name;
+            this.service = service;
+        }
+    }
+
+    /**
+     * A filter installed through the pool, and where it currently lives.
+     */
+    private static final class InstalledFilter {
+        final String method;
+        final List<Object> params;
+        final long installHead;
+        volatile Node node;
+        volatile String nodeId;
+        long lastBlock = -1;
+        long lastLogIndex = -1;
+
+        InstalledFilter(String method, List<Object> params, Node node, String nodeId, long installHead) {
+            this.method = method;
+            this.params = params;
+            this.node = node;
+            this.nodeId = nodeId;
+            this.installHead = installHead;
+        }
+
+        boolean isLogFilter() {
+            return method.equals("eth_newFilter");
+        }
+
+        /**
+         * Drops the logs at or before the last one reported, unless they are reported as removed,
+         * and, for filter changes, remembers the last one reported.
+         */
+        void skipDelivered(EthLog logs, boolean changes) {
+            if (!changes) {
+                return;
+            }
+            logs.getLogs().removeIf(result -> {
+                if (!(result instanceof Log)) {
+                    return false;
+                }
+                Log log = (Log) result;
+                if (log.isRemoved() || log.getBlockNumberRaw() == null || log.getLogIndexRaw() == null) {
+                    return false;
+                }
+                long block = log.getBlockNumber().longValueExact();
+                long index = log.getLogIndex().longValueExact();
+                if (block < lastBlock || block == lastBlock && index <= lastLogIndex) {
+                    return true;
+                }
+                lastBlock = block;
+                lastLogIndex = index;
+                return false;
+            });
+        }
+    }
+
+    /**
+     * A read sent to one node, then to a second one if the first is slow, and to further ones as
+     * long as the nodes tried so far fail. Once one of them answers, the others are cancelled.
+     */
+    private final class HedgedCall<R> {
+        final CompletableFuture<R> result = new CompletableFuture<R>();
+        final List<Node> untried;
+        final NodeCall<R> call;
+        final Map<Node, Future<?>> launched = new HashMap<Node, Future<?>>();
+        int outstanding;
+        IOException lastFailure;
+        ScheduledFuture<?> hedge;
+        Node winner;
+
+        HedgedCall(List<Node> candidates, NodeCall<R> call) {
+            this.untried = candidates;
+            this.call = call;
+        }
+
+        synchronized void start() {
+            launch(pick(untried));
+            long delay = hedgeDelayNanos();
+            if (delay > 0 && !untried.isEmpty()) {
+                hedge = scheduler.schedule(this::hedge, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        /**
+         * Cancels the pending hedge and every call but the one that answered.
+         */
+        synchronized void cancel() {
+            if (hedge != null) {
+                hedge.cancel(false);
+            }
+            for (Map.Entry<Node, Future<?>> entry : launched.entrySet()) {
+                if (entry.getKey() != winner) {
+                    entry.getValue().cancel(true);
+                }
+            }
+        }
+
+        private void launch(Node node) {
+            untried.remove(node);
+            outstanding++;
+            launched.put(node, executor.submit(() -> {
+                try {
+                    R value = timed(node, call, true);
+                    if (result.complete(value)) {
+                        won(node);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    failed(e instanceof IOException ? (IOException) e : new IOException(e));
+                }
+            }));
+        }
+
+        private synchronized void won(Node node) {
+            winner = node;
+            cancel();
+        }
+
+        private synchronized void hedge() {
+            if (!result.isDone() && !untried.isEmpty()) {
+                launch(pick(untried));
+            }
+        }
+
+        private synchronized void failed(IOException failure) {
+            outstanding--;
+            lastFailure = failure;
+            if (result.isDone()) {
+                return;
+            }
+            if (!untried.isEmpty()) {
+                launch(pick(untried));
+            } else if (outstanding == 0) {
+                result.completeExceptionally(lastFailure);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+
+/**
+ * An ordered list of JSON-RPC requests that are sent together, together with the response type
+ * each of them is decoded into.
+ */
+public class RpcBatch {
+
+    private final List<Request<?, ?>> requests = new ArrayList<Request<?, ?>>();
+    private final List<Class<? extends Response<?>>> responseTypes = new ArrayList<Class<? extends Response<?>>>();
+
+    public <T extends Response<?>> RpcBatch add(Request<?, T> request, Class<T> responseType) {
+        requests.add(request);
+        responseTypes.add(responseType);
+        return this;
+    }
+
+    public List<Request<?, ?>> getRequests() {
+        return Collections.unmodifiableList(requests);
+    }
+
+    public List<Class<? extends Response<?>>> getResponseTypes() {
+        return Collections.unmodifiableList(responseTypes);
+    }
+
+    public int size() {
+        return requests.size();
+    }
+
+    public boolean isEmpty() {
+        return requests.isEmpty();
+    }
+
+    /**
+     * Matches the elements of a JSON-RPC batch reply to the requests of this batch by id.
+     * Nodes are free to answer batch elements in any order.
+     *
+     * @param objectMapper the mapper used to decode each element
+     * @param reply the parsed reply
+     * @return the decoded responses, in request order
+     * @throws IOException if the reply is not an array or does not answer every request
+     */
+    public List<Response<?>> readResponses(ObjectMapper objectMapper, JsonNode reply) throws IOException {
+        if (reply == null || !reply.isArray()) {
+            throw new IOException("Expected a JSON-RPC batch reply but got: " + reply);
+        }
+        Map<Long, Integer> positions = new HashMap<Long, Integer>(requests.size() * 2);
+        for (int i = 0; i < requests.size(); i++) {
+            positions.put(requests.get(i).getId(), i);
+        }
+        Response<?>[] responses = new Response<?>[requests.size()];
+        for (JsonNode element : reply) {
+            Integer position = positions.get(element.path("id").asLong(-1));
+            if (position == null) {
+                continue;
+            }
+            responses[position] = objectMapper.treeToValue(element, responseTypes.get(position));
+        }
+        for (int i = 0; i < responses.length; i++) {
+            if (responses[i] == null) {
+                throw new IOException("No response for request " + requests.get(i).getId()
+                        + " (" + requests.get(i).getMethod() + ") in batch reply");
+            }
+        }
+        return Arrays.asList(responses);
+    }
+}
@@ -0,0 +1,604 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trivadis.tricoin.events.LogBackfill;
+import com.trivadis.tricoin.metrics.TriCoinMetrics;
+import okhttp3.OkHttpClient;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.Log;
+import rx.Observable;
+import rx.subscriptions.Subscriptions;
+
+/**
+ * A {@link BatchWeb3jService} that keeps one WebSocket connection open and multiplexes all
+ * requests over it, matching responses to requests by id, so any number of requests can be in
+ * flight at once.
+ *
+ * <p>It also implements {@link LogSubscriptionService} with {@code eth_subscribe("logs")}. If the
+ * connection drops, the service reconnects with an increasing delay, subscribes again, and fetches
+ * the logs mined while it was disconnected with {@code eth_getLogs} before it resumes pushing, so
+ * subscribers see every log once and in order. If subscribing again fails while the connection is
+ * up, it keeps retrying with the same delays.
+ *
+ * <p>Every request fails with an {@link IOException} if no response arrives within the request
+ * timeout, whether it is awaited with {@link #send} or not.
+ *
+ * <p>If metrics are set, the latency and request and response sizes of every request are recorded
+ * per JSON-RPC method, like {@link BatchingHttpService} does.
+ */
+public class WebSocketService implements BatchWeb3jService, LogSubscriptionService, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WebSocketService.class);
+
+    public static final long DEFAULT_REQUEST_TIMEOUT = 30_000;
+
+    private static final long MAX_RECONNECT_DELAY = 30_000;
+
+    private final String url;
+    private final OkHttpClient httpClient;
+    private final ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private final Map<Long, PendingRequest<?>> pending = new ConcurrentHashMap<Long, PendingRequest<?>>();
+    private final Map<String, LogSubscription> subscriptionsById = new ConcurrentHashMap<String, LogSubscription>();
+    private final Set<LogSubscription> subscriptions = ConcurrentHashMap.newKeySet();
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final Web3j web3j;
+
+    private volatile WebSocket webSocket;
+    private volatile boolean closed;
+    private volatile long requestTimeoutMillis = DEFAULT_REQUEST_TIMEOUT;
+    private volatile TriCoinMetrics metrics;
+    private int reconnectAttempts;
+
+    public WebSocketService(String url) {
+        this(url, new OkHttpClient());
+    }
+
+    public WebSocketService(String url, OkHttpClient httpClient) {
+        this.url = url;
+        this.httpClient = httpClient;
+        // Two threads, so request timeouts still fire while a reconnect waits for its responses.
+        this.scheduler = new ScheduledThreadPoolExecutor(2, runnable -> {
+            Thread thread = new Thread(runnable, "websocket-" + url);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.setRemoveOnCancelPolicy(true);
+        this.web3j = Web3j.build(this);
+    }
+
+    public void setRequestTimeoutMillis(long requestTimeoutMillis) {
+        this.requestTimeoutMillis = requestTimeoutMillis;
+    }
+
+    public void setMetrics(TriCoinMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Opens the connection and waits until it is established.
+     */
+    public void connect() throws IOException {
+        CountDownLatch opened = new CountDownLatch(1);
+        Throwable[] failure = new Throwable[1];
+        httpClient.newWebSocket(new okhttp3.Request.Builder().url(url).build(), new Listener(opened, failure));
+        try {
+            if (!opened.await(requestTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out connecting to " + url);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while connecting to " + url);
+        }
+        if (failure[0] != null) {
+            throw new IOException("Could not connect to " + url, failure[0]);
+        }
+    }
+
+    public boolean isConnected() {
+        return webSocket != null;
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+        return await(sendAsync(request, responseType), request.getId());
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+        return sendAsync(request, responseType, null);
+    }
+
+    /**
+     * Sends a request and runs {@code onResponse} on the reading thread before any message that
+     * follows the response is dispatched.
+     */
+    private <T extends Response<?>> CompletableFuture<T> sendAsync(Request<?, ?> request, Class<T> responseType,
+                                                                   Consumer<? super T> onResponse) {
+        TriCoinMetrics current = metrics;
+        long start = current == null ? 0 : System.nanoTime();
+        PendingRequest<T> pendingRequest = register(request.getId(), responseType, onResponse);
+        String payload;
+        try {
+            payload = objectMapper.writeValueAsString(request);
+        } catch (JsonProcessingException e) {
+            fail(request.getId(), e);
+            return pendingRequest.future;
+        }
+        if (current != null) {
+            pendingRequest.measure(current, request.getMethod(), start, payload.getBytes(StandardCharsets.UTF_8).length);
+        }
+        transmit(payload, Collections.singletonList(request.getId()));
+        return pendingRequest.future;
+    }
+
+    @Override
+    public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+        if (batch.isEmpty()) {
+            return Collections.emptyList();
+        }
+        TriCoinMetrics current = metrics;
+        long start = current == null ? 0 : System.nanoTime();
+        List<Long> ids = new ArrayList<Long>(batch.size());
+        List<PendingRequest<? extends Response<?>>> requests = new ArrayList<PendingRequest<? extends Response<?>>>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            long id = batch.getRequests().get(i).getId();
+            ids.add(id);
+            requests.add(register(id, batch.getResponseTypes().get(i), null));
+        }
+        String payload = objectMapper.writeValueAsString(batch.getRequests());
+        boolean error = true;
+        try {
+            transmit(payload, ids);
+            List<Response<?>> responses = new ArrayList<Response<?>>(requests.size());
+            for (int i = 0; i < requests.size(); i++) {
+                responses.add(await(requests.get(i).future, ids.get(i)));
+            }
+            error = false;
+            return responses;
+        } finally {
+            if (current != null) {
+                current.recordRpc(batch.getRequests().get(0).getMethod(), true, System.nanoTime() - start,
+                        payload.getBytes(StandardCharsets.UTF_8).length, requests.get(0).responseBytes, error);
+            }
+        }
+    }
+
+    @Override
+    public Observable<Log> logObservable(final String contractAddress, final List<String> topics) {
+        return Observable.create(subscriber -> {
+            LogSubscription subscription = new LogSubscription(contractAddress, topics, subscriber);
+            subscriptions.add(subscription);
+            subscriber.add(Subscriptions.create(() -> unsubscribe(subscription)));
+            try {
+                subscribe(subscription);
+            } catch (IOException e) {
+                subscriptions.remove(subscription);
+                subscriber.onError(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        scheduler.shutdownNow();
+        WebSocket current = webSocket;
+        if (current != null) {
+            current.close(1000, "closed");
+        }
+        failAll(new IOException("WebSocket service closed"));
+    }
+
+    private <T extends Response<?>> PendingRequest<T> register(long id, Class<T> responseType,
+                                                            Consumer<? super T> onResponse) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        PendingRequest<T> request = new PendingRequest<T>(responseType, future, onResponse);
+        pending.put(id, request);
+        try {
+            ScheduledFuture<?> timeout = scheduler.schedule(() -> fail(id, new IOException(
+                    "Request " + id + " timed out after " + requestTimeoutMillis + " ms")),
+                    requestTimeoutMillis, TimeUnit.MILLISECONDS);
+            future.whenComplete((response, error) -> timeout.cancel(false));
+        } catch (RejectedExecutionException e) {
+            fail(id, new IOException("WebSocket service closed"));
+        }
+        return request;
+    }
+
+    private void transmit(String payload, List<Long> ids) {
+        WebSocket current = webSocket;
+        if (current == null || !current.send(payload)) {
+            for (Long id : ids) {
+                fail(id, new IOException("Not connected to " + url));
+            }
+        }
+    }
+
+    private <T> T await(CompletableFuture<T> future, long id) throws IOException {
+        try {
+            return future.get(requestTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            pending.remove(id);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for request " + id);
+        } catch (TimeoutException e) {
+            pending.remove(id);
+            throw new IOException("Request " + id + " timed out after " + requestTimeoutMillis + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void fail(long id, Exception cause) {
+        PendingRequest<?> request = pending.remove(id);
+        if (request != null) {
+            request.record(true);
+            request.future.completeExceptionally(cause);
+        }
+    }
+
+    private void failAll(IOException cause) {
+        for (Long id : new ArrayList<Long>(pending.keySet())) {
+            fail(id, cause);
+        }
+    }
+
+    private void onMessage(String message) {
+        try {
+            JsonNode node = objectMapper.readTree(message);
+            long bytes = metrics == null ? 0 : message.getBytes(StandardCharsets.UTF_8).length;
+            if (node.isArray()) {
+                for (JsonNode element : node) {
+                    dispatch(element, bytes);
+                }
+            } else {
+                dispatch(node, bytes);
+            }
+        } catch (IOException e) {
+            log.warn("Could not parse message from {}: {}", url, message, e);
+        }
+    }
+
+    /**
+     * Completes the request a response belongs to, or passes a push on to its subscription.
+     * {@code bytes} is the size of the message the response came in, which for a batch is shared
+     * by all of its responses.
+     */
+    private void dispatch(JsonNode node, long bytes) throws IOException {
+        JsonNode id = node.get("id");
+        if (id != null && !id.isNull()) {
+            PendingRequest<?> request = pending.remove(id.asLong());
+            if (request != null) {
+                request.responseBytes = bytes;
+                request.complete(node);
+            }
+        } else if ("eth_subscription".equals(node.path("method").asText())) {
+            JsonNode params = node.path("params");
+            LogSubscription subscription = subscriptionsById.get(params.path("subscription").asText());
+            if (subscription != null) {
+                subscription.onPush(objectMapper.treeToValue(params.get("result"), Log.class));
+            }
+        }
+    }
+
+    /**
+     * Subscribes on the current connection. The subscription is registered while the response is
+     * dispatched, so the pushes that follow it on the connection are not missed. The first time,
+     * the head block is recorded so a reconnect before the first log can still fill the gap.
+     */
+    private void subscribe(LogSubscription subscription) throws IOException {
+        if (subscription.startBlock < 0) {
+            subscription.startBlock = web3j.ethBlockNumber().send().getBlockNumber().longValueExact();
+        }
+        Map<String, Object> filter = new LinkedHashMap<String, Object>();
+        filter.put("address", subscription.contractAddress);
+        filter.put("topics", Collections.singletonList(subscription.topics));
+        Request<Object, SubscribeResponse> request = new Request<Object, SubscribeResponse>(
+                "eth_subscribe", Arrays.asList("logs", filter), this, SubscribeResponse.class);
+        SubscribeResponse response = await(sendAsync(request, SubscribeResponse.class, subscribed -> {
+            if (!subscribed.hasError() && subscriptions.contains(subscription)) {
+                subscription.id = subscribed.getResult();
+                subscriptionsById.put(subscription.id, subscription);
+            }
+        }), request.getId());
+        if (response.hasError()) {
+            throw new IOException("eth_subscribe failed: " + response.getError().getMessage());
+        }
+    }
+
+    private void unsubscribe(LogSubscription subscription) {
+        subscriptions.remove(subscription);
+        String id = subscription.id;
+        if (id != null && subscriptionsById.remove(id) != null && webSocket != null) {
+            new Request<String, UnsubscribeResponse>(
+                    "eth_unsubscribe", Collections.singletonList(id), this, UnsubscribeResponse.class).sendAsync();
+        }
+    }
+
+    private void onDisconnected(Throwable cause) {
+        webSocket = null;
+        subscriptionsById.clear();
+        for (LogSubscription subscription : subscriptions) {
+            subscription.id = null;
+            subscription.startRecovery();
+        }
+        failAll(new IOException("Connection to " + url + " lost", cause));
+        if (!closed) {
+            scheduleReconnect();
+        }
+    }
+
+    private void scheduleReconnect() {
+        long delay = nextRetryDelay();
+        log.info("Reconnecting to {} in {} ms", url, delay);
+        scheduler.schedule(this::reconnect, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private synchronized long nextRetryDelay() {
+        return Math.min(MAX_RECONNECT_DELAY, 500L << Math.min(reconnectAttempts++, 6));
+    }
+
+    private synchronized void resetRetryDelay() {
+        reconnectAttempts = 0;
+    }
+
+    private void reconnect() {
+        try {
+            connect();
+        } catch (Exception e) {
+            log.warn("Reconnecting to {} failed", url, e);
+            if (webSocket == null && !closed) {
+                scheduleReconnect();
+            }
+            return;
+        }
+        resubscribe();
+    }
+
+    /**
+     * Subscribes again and fills the gaps of all subscriptions that are still recovering. While the
+     * connection is up, failures are retried here; once it drops, the reconnect takes over.
+     */
+    private void resubscribe() {
+        try {
+            for (LogSubscription subscription : subscriptions) {
+                if (subscription.id == null) {
+                    subscribe(subscription);
+                }
+                if (subscription.isRecovering()) {
+                    subscription.recover(web3j);
+                }
+            }
+            resetRetryDelay();
+        } catch (Exception e) {
+            log.warn("Subscribing again on {} failed", url, e);
+            if (webSocket != null && !closed) {
+                long delay = nextRetryDelay();
+                log.info("Subscribing again on {} in {} ms", url, delay);
+                scheduler.schedule(this::resubscribe, delay, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    private final class Listener extends WebSocketListener {
+        private final CountDownLatch opened;
+        private final Throwable[] failure;
+
+        Listener(CountDownLatch opened, Throwable[] failure) {
+            this.opened = opened;
+            this.failure = failure;
+        }
+
+        @Override
+        public void onOpen(WebSocket socket, okhttp3.Response response) {
+            webSocket = socket;
+            opened.countDown();
+        }
+
+        @Override
+        public void onMessage(WebSocket socket, String text) {
+            WebSocketService.this.onMessage(text);
+        }
+
+        @Override
+        public void onClosing(WebSocket socket, int code, String reason) {
+            socket.close(code, reason);
+        }
+
+        @Override
+        public void onClosed(WebSocket socket, int code, String reason) {
+            if (socket == webSocket) {
+                onDisconnected(new IOException("Closed: " + code + " " + reason));
+            }
+        }
+
+        @Override
+        public void onFailure(WebSocket socket, Throwable t, okhttp3.Response response) {
+            if (opened.getCount() > 0) {
+                failure[0] = t;
+                opened.countDown();
+            } else if (socket == webSocket) {
+                onDisconnected(t);
+            }
+        }
+    }
+
+    private final class PendingRequest<T> {
+        final Class<T> responseType;
+        final CompletableFuture<T> future;
+        final Consumer<? super T> onResponse;
+        volatile long responseBytes;
+        private TriCoinMetrics metrics;
+        private String method;
+        private long start;
+        private long requestBytes;
+
+        PendingRequest(Class<T> responseType, CompletableFuture<T> future, Consumer<? super T> onResponse) {
+            this.responseType = responseType;
+            this.future = future;
+            this.onResponse = onResponse;
+        }
+
+        /**
+         * Records this request in {@code metrics} once it completes, before its future does.
+         */
+        synchronized void measure(TriCoinMetrics metrics, String method, long start, long requestBytes) {
+            this.metrics = metrics;
+            this.method = method;
+            this.start = start;
+            this.requestBytes = requestBytes;
+        }
+
+        synchronized void record(boolean error) {
+            if (metrics != null) {
+                metrics.recordRpc(method, false, System.nanoTime() - start, requestBytes, responseBytes, error);
+                metrics = null;
+            }
+        }
+
+        void complete(JsonNode node) {
+            T response;
+            try {
+                response = objectMapper.treeToValue(node, responseType);
+            } catch (IOException e) {
+                record(true);
+                future.completeExceptionally(e);
+                return;
+            }
+            record(node.hasNonNull("error"));
+            if (onResponse != null) {
+                onResponse.accept(response);
+            }
+            future.complete(response);
+        }
+    }
+
+    /**
+     * A log subscription that survives reconnects. Logs are only passed on if they come after
+     * the last one passed on, so the logs fetched to fill a gap and those pushed after the new
+     * subscription started can overlap.
+     */
+    private static final class LogSubscription {
+        final String contractAddress;
+        final List<String> topics;
+        final rx.Subscriber<? super Log> subscriber;
+        final List<Log> buffered = new ArrayList<Log>();
+        volatile String id;
+        volatile long startBlock = -1;
+        long lastBlock = -1;
+        long lastLogIndex = -1;
+        boolean recovering;
+
+        LogSubscription(String contractAddress, List<String> topics, rx.Subscriber<? super Log> subscriber) {
+            this.contractAddress = contractAddress;
+            this.topics = topics;
+            this.subscriber = subscriber;
+        }
+
+        synchronized void onPush(Log pushed) {
+            if (recovering) {
+                buffered.add(pushed);
+            } else {
+                emit(pushed);
+            }
+        }
+
+        synchronized void startRecovery() {
+            recovering = true;
+        }
+
+        synchronized boolean isRecovering() {
+            return recovering;
+        }
+
+        /**
+         * Fetches the logs from the last one passed on, or from the block after the head at
+         * subscribe time if none was, then passes on the pushes buffered meanwhile.
+         */
+        void recover(Web3j web3j) throws Exception {
+            long from;
+            synchronized (this) {
+                from = lastBlock >= 0 ? lastBlock : startBlock >= 0 ? startBlock + 1 : -1;
+            }
+            if (from >= 0) {
+                BigInteger head = web3j.ethBlockNumber().send().getBlockNumber();
+                new LogBackfill(web3j, contractAddress, topics.toArray(new String[topics.size()]))
+                        .run(BigInteger.valueOf(from), head, this::emitSynchronized);
+            }
+            synchronized (this) {
+                for (Log pushed : buffered) {
+                    emit(pushed);
+                }
+                buffered.clear();
+                recovering = false;
+            }
+        }
+
+        private synchronized void emitSynchronized(Log fetched) {
+            emit(fetched);
+        }
+
+        private void emit(Log eventLog) {
+            if (subscriber.isUnsubscribed()) {
+                return;
+            }
+            long block = eventLog.getBlockNumber().longValueExact();
+            long logIndex = eventLog.getLogIndex().longValueExact();
+            if (eventLog.isRemoved()) {
+                if (block <= lastBlock) {
+                    lastBlock = block - 1;
+                    lastLogIndex = Long.MAX_VALUE;
+                }
+            } else if (block < lastBlock || (block == lastBlock && logIndex <= lastLogIndex)) {
+                return;
+            } else {
+                lastBlock = block;
+                lastLogIndex = logIndex;
+            }
+            subscriber.onNext(eventLog);
+        }
+    }
+
+    public static class SubscribeResponse extends Response<String> {
+    }
+
+    public static class UnsubscribeResponse extends Response<Boolean> {
+    }
+}
@@ -0,0 +1,240 @@
+package com.trivadis.tricoin.tx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.trivadis.tricoin.rpc.BatchCaller;
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.methods.response.EthGetTransactionReceipt;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.protocol.exceptions.TransactionException;
+import org.web3j.tx.response.TransactionReceiptProcessor;
+
+/**
+ * Waits for the receipts of any number of transactions with a single polling task.
+ *
+ * <p>Each tick reads the block number, and if a new block arrived since the previous tick, polls
+ * the receipts of all tracked transactions in JSON-RPC batches. Transactions tracked since the
+ * previous tick are polled right away. A future completes once its
+ * receipt is {@code confirmations} blocks deep; until then the receipt keeps being polled, so a
+ * transaction that a reorg drops again goes back to waiting. Every call to {@link #track} returns
+ * a future of its own; cancelling it stops only that caller from waiting, and a transaction is no
+ * longer polled once all of its futures are cancelled.
+ *
+ * <p>{@link #receiptProcessor()} plugs the tracker into a web3j {@code TransactionManager}, so
+ * the regular TriCoin transaction methods use it as well.
+ */
+public class ReceiptTracker implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ReceiptTracker.class);
+
+    public static final long DEFAULT_POLLING_INTERVAL = 1_000;
+    public static final long DEFAULT_TIMEOUT = 600_000;
+
+    private final Web3j web3j;
+    private final BatchCaller batchCaller;
+    private final int confirmations;
+    private final Map<String, TrackedTransaction> tracked = new ConcurrentHashMap<String, TrackedTransaction>();
+    private final ScheduledExecutorService scheduler;
+
+    private volatile long timeoutMillis = DEFAULT_TIMEOUT;
+    private long lastBlockNumber = -1;
+
+    public ReceiptTracker(Web3j web3j, BatchWeb3jService batchService) {
+        this(web3j, batchService, DEFAULT_POLLING_INTERVAL, 1);
+    }
+
+    /**
+     * @param batchService used to poll receipts in batches; may be {@code null}, in which case
+     *                     receipts are polled one by one
+     * @param confirmations the number of blocks, including the one it was mined in, a transaction
+     *                      must be buried under before its future completes
+     */
+    public ReceiptTracker(Web3j web3j, BatchWeb3jService batchService, long pollingIntervalMillis, int confirmations) {
+        if (confirmations < 1) {
+            throw new IllegalArgumentException("At least one confirmation is required");
+        }
+        this.web3j = web3j;
+        this.batchCaller = new BatchCaller(batchService);
+        this.confirmations = confirmations;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "receipt-tracker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::poll, pollingIntervalMillis, pollingIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void setTimeoutMillis(long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @return a future for the receipt of the transaction, which fails with a
+     *         {@link TransactionException} if none is confirmed within the timeout; cancel it to
+     *         stop waiting
+     */
+    public CompletableFuture<TransactionReceipt> track(String transactionHash) {
+        TrackedTransaction transaction = tracked.compute(transactionHash, (hash, existing) -> {
+            TrackedTransaction result = existing != null ? existing : new TrackedTransaction(hash);
+            result.waiters++;
+            return result;
+        });
+        CompletableFuture<TransactionReceipt> waiter = new CompletableFuture<TransactionReceipt>();
+        waiter.whenComplete((receipt, error) -> {
+            if (waiter.isCancelled()) {
+                leave(transaction);
+            }
+        });
+        transaction.future.whenComplete((receipt, error) -> {
+            if (error != null) {
+                waiter.completeExceptionally(error);
+            } else {
+                waiter.complete(receipt);
+            }
+        });
+        return waiter;
+    }
+
+    private void leave(TrackedTransaction transaction) {
+        boolean last = tracked.computeIfPresent(transaction.hash,
+                (hash, existing) -> existing == transaction && --existing.waiters == 0 ? null : existing) == null;
+        if (last) {
+            transaction.future.cancel(false);
+        }
+    }
+
+    /**
+     * @return true if a receipt for the transaction has been seen, even if it is not yet confirmed
+     */
+    public boolean isIncluded(String transactionHash) {
+        TrackedTransaction transaction = tracked.get(transactionHash);
+        return transaction != null && transaction.receipt != null;
+    }
+
+    public int getTrackedCount() {
+        return tracked.size();
+    }
+
+    /**
+     * @return a receipt processor for a web3j {@code TransactionManager} that waits on this tracker
+     */
+    public TransactionReceiptProcessor receiptProcessor() {
+        return new TransactionReceiptProcessor(web3j) {
+            @Override
+            public TransactionReceipt waitForTransactionReceipt(String transactionHash)
+                    throws IOException, TransactionException {
+                CompletableFuture<TransactionReceipt> receipt = track(transactionHash);
+                try {
+                    return receipt.get();
+                } catch (InterruptedException e) {
+                    receipt.cancel(false);
+                    Thread.currentThread().interrupt();
+                    throw new TransactionException("Interrupted while waiting for " + transactionHash);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof TransactionException) {
+                        throw (TransactionException) e.getCause();
+                    }
+                    if (e.getCause() instanceof IOException) {
+                        throw (IOException) e.getCause();
+                    }
+                    throw new TransactionException(e.getCause().getMessage());
+                }
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        for (TrackedTransaction transaction : tracked.values()) {
+            transaction.future.completeExceptionally(new TransactionException("Receipt tracker closed"));
+        }
+        tracked.clear();
+    }
+
+    private void poll() {
+        tracked.values().removeIf(transaction -> transaction.future.isDone());
+        if (tracked.isEmpty()) {
+            return;
+        }
+        try {
+            long blockNumber = web3j.ethBlockNumber().send().getBlockNumber().longValueExact();
+            long now = System.currentTimeMillis();
+            boolean newBlock = blockNumber != lastBlockNumber;
+            lastBlockNumber = blockNumber;
+            pollReceipts(blockNumber, newBlock);
+            for (TrackedTransaction transaction : tracked.values()) {
+                if (now - transaction.trackedMillis > timeoutMillis) {
+                    tracked.remove(transaction.hash);
+                    transaction.future.completeExceptionally(new TransactionException(
+                            "Transaction receipt was not generated after " + timeoutMillis / 1000
+                                    + " seconds for transaction: " + transaction.hash));
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Polling transaction receipts failed", e);
+        }
+    }
+
+    private void pollReceipts(long blockNumber, boolean newBlock) throws IOException {
+        List<TrackedTransaction> transactions = new ArrayList<TrackedTransaction>(tracked.size());
+        for (TrackedTransaction transaction : tracked.values()) {
+            if (newBlock || !transaction.polled) {
+                transactions.add(transaction);
+            }
+        }
+        if (transactions.isEmpty()) {
+            return;
+        }
+        List<Request<?, EthGetTransactionReceipt>> requests =
+                new ArrayList<Request<?, EthGetTransactionReceipt>>(transactions.size());
+        for (TrackedTransaction transaction : transactions) {
+            requests.add(web3j.ethGetTransactionReceipt(transaction.hash));
+        }
+        List<EthGetTransactionReceipt> responses = batchCaller.call(requests, EthGetTransactionReceipt.class);
+        for (int i = 0; i < transactions.size(); i++) {
+            TrackedTransaction transaction = transactions.get(i);
+            EthGetTransactionReceipt response = responses.get(i);
+            transaction.polled = true;
+            if (response.hasError()) {
+                log.debug("Polling receipt of {} failed: {}", transaction.hash, response.getError().getMessage());
+                continue;
+            }
+            Optional<TransactionReceipt> receipt = response.getTransactionReceipt();
+            transaction.receipt = receipt.orElse(null);
+            if (receipt.isPresent()
+                    && blockNumber - receipt.get().getBlockNumber().longValueExact() + 1 >= confirmations) {
+                tracked.remove(transaction.hash);
+                transaction.future.complete(receipt.get());
+            }
+        }
+    }
+
+    private static final class TrackedTransaction {
+        final String hash;
+        final long trackedMillis = System.currentTimeMillis();
+        final CompletableFuture<TransactionReceipt> future = new CompletableFuture<TransactionReceipt>();
+        volatile TransactionReceipt receipt;
+        boolean polled;
+        int waiters;
+
+        TrackedTransaction(String hash) {
+            this.hash = hash;
+        }
+    }
+}
@@ -0,0 +1,528 @@
+package com.trivadis.tricoin.tx;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.trivadis.tricoin.evm.SimulationResult;
+import com.trivadis.tricoin.evm.TriCoinSimulator;
+import com.trivadis.tricoin.metrics.TriCoinMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.web3j.abi.FunctionEncoder;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
+import org.web3j.crypto.RawTransaction;
+import org.web3j.crypto.TransactionEncoder;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.methods.response.EthSendTransaction;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.protocol.exceptions.TransactionException;
+import org.web3j.tx.ChainId;
+import org.web3j.utils.Numeric;
+
+/**
+ * Submits transactions of a single sender without waiting for each one to be mined.
+ *
+ * <p>Nonces are allocated locally, starting at the sender's pending transaction count, and
+ * transactions are signed offline with the sender's {@link Credentials}, so any number of them
+ * can be in flight at once. Each submission returns a future that completes with the receipt.
+ *
+ * <p>Receipts are awaited through a shared {@link ReceiptTracker}. A background task watches the
+ * outstanding transactions:
+ *
+ * <ul>
+ *     <li>the lowest outstanding nonce is considered stuck if it is not mined within
+ *     {@code stuckTimeoutMillis}, and is replaced by the same transaction with a gas price
+ *     raised by {@code gasPriceBumpPercent};</li>
+ *     <li>a transaction the node rejects outright, for instance as underpriced, would leave a gap
+ *     that blocks all later nonces, so its future fails and the nonce is filled with a zero value
+ *     transfer to the sender, at a gas price raised by the 10% nodes require of a replacement. A
+ *     filler the node rejects is retried at a price raised by another 10%;</li>
+ *     <li>a replacement the node rejects leaves the transaction pending, as the version in the
+ *     pool may still be mined;</li>
+ *     <li>a nonce that is mined by a transaction not sent by this pipeline fails its future;</li>
+ *     <li>a transaction whose latest version gets no receipt within the tracker's timeout fails
+ *     its future with a {@link TransactionException}.</li>
+ * </ul>
+ */
+public class TransactionPipeline implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(TransactionPipeline.class);
+
+    public static final long DEFAULT_STUCK_TIMEOUT = 120_000;
+    public static final int DEFAULT_GAS_PRICE_BUMP_PERCENT = 12;
+
+    private static final BigInteger FILLER_GAS_LIMIT = BigInteger.valueOf(21_000);
+    /** The smallest gas price increase, in percent, with which geth and parity accept a replacement. */
+    private static final int MIN_REPLACEMENT_BUMP_PERCENT = 10;
+    private static final int MISSED_POLLS_BEFORE_FAILING = 3;
+    private static final long WATCH_INTERVAL = 1_000;
+
+    private final Web3j web3j;
+    private final Credentials credentials;
+    private final byte chainId;
+    private final BigInteger gasPrice;
+    private final BigInteger gasLimit;
+    private final ConcurrentSkipListMap<Long, PendingTransaction> pending =
+            new ConcurrentSkipListMap<Long, PendingTransaction>();
+    private final ScheduledExecutorService scheduler;
+    private final ReceiptTracker receiptTracker;
+    private final boolean ownsReceiptTracker;
+
+    private long nextNonce = -1;
+    private boolean closed;
+
+    private volatile long stuckTimeoutMillis = DEFAULT_STUCK_TIMEOUT;
+    private volatile int gasPriceBumpPercent = DEFAULT_GAS_PRICE_BUMP_PERCENT;
+    private volatile BigInteger maxGasPrice;
+    private volatile TriCoinSimulator simulator;
+    // Set when the simulator's snapshot falls behind the chain or holds the effects of a
+    // transaction that will not be mined; the next submission re-pins it.
+    private volatile boolean simulationStale;
+    private volatile TriCoinMetrics metrics;
+
+    /**
+     * Creates a pipeline with its own receipt tracker.
+     */
+    public TransactionPipeline(Web3j web3j, Credentials credentials, byte chainId,
+                               BigInteger gasPrice, BigInteger gasLimit) {
+        this(web3j, credentials, chainId, gasPrice, gasLimit, new ReceiptTracker(web3j, null), true);
+    }
+
+    public TransactionPipeline(Web3j web3j, Credentials credentials, byte chainId,
+                               BigInteger gasPrice, BigInteger gasLimit, ReceiptTracker receiptTracker) {
+        this(web3j, credentials, chainId, gasPrice, gasLimit, receiptTracker, false);
+    }
+
+    private TransactionPipeline(Web3j web3j, Credentials credentials, byte chainId,
+                                BigInteger gasPrice, BigInteger gasLimit,
+                                ReceiptTracker receiptTracker, boolean ownsReceiptTracker) {
+        this.web3j = web3j;
+        this.credentials = credentials;
+        this.chainId = chainId;
+        this.gasPrice = gasPrice;
+        this.gasLimit = gasLimit;
+        this.receiptTracker = receiptTracker;
+        this.ownsReceiptTracker = ownsReceiptTracker;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "tx-pipeline-" + credentials.getAddress());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::watch, WATCH_INTERVAL, WATCH_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    public void setStuckTimeoutMillis(long stuckTimeoutMillis) {
+        this.stuckTimeoutMillis = stuckTimeoutMillis;
+    }
+
+    /**
+     * Sets how much a replacement raises the gas price; values below the 10% nodes require of a
+     * replacement are raised to it.
+     */
+    public void setGasPriceBumpPercent(int gasPriceBumpPercent) {
+        this.gasPriceBumpPercent = gasPriceBumpPercent;
+    }
+
+    /**
+     * Limits how far replacements may raise the gas price; unlimited by default. A stuck
+     * transaction is not replaced once the limit is less than 10% above its gas price.
+     */
+    public void setMaxGasPrice(BigInteger maxGasPrice) {
+        this.maxGasPrice = maxGasPrice;
+    }
+
+    /**
+     * Runs each transaction to the simulator's contract locally before signing it, and fails it
+     * right away if it would fail on chain. The simulator keeps the effects of the transactions
+     * it passes, so later ones are checked against them. Once a new block arrives or a
+     * transaction fails, the simulator is pinned to the latest block and the transactions that
+     * are not mined by then are applied to it again.
+     */
+    public void setSimulator(TriCoinSimulator simulator) {
+        this.simulator = simulator;
+    }
+
+    /**
+     * Records the time to receipt and gas used of each transaction, by function name for
+     * transactions submitted with a {@link Function} and by selector otherwise.
+     */
+    public void setMetrics(TriCoinMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public String getFromAddress() {
+        return credentials.getAddress();
+    }
+
+    /**
+     * @return the number of submitted transactions that are not mined yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public CompletableFuture<TransactionReceipt> submit(String contractAddress, Function function) {
+        return submit(contractAddress, FunctionEncoder.encode(function), BigInteger.ZERO, function.getName());
+    }
+
+    public CompletableFuture<TransactionReceipt> submit(String to, String data, BigInteger value) {
+        String label = data == null || data.length() < 10 ? "transfer (ether)" : data.substring(0, 10);
+        return submit(to, data, value, label);
+    }
+
+    private CompletableFuture<TransactionReceipt> submit(String to, String data, BigInteger value, String label) {
+        PendingTransaction transaction;
+        try {
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("Pipeline is closed");
+                }
+                simulate(to, data, value);
+                if (nextNonce < 0) {
+                    nextNonce = web3j.ethGetTransactionCount(credentials.getAddress(), DefaultBlockParameterName.PENDING)
+                            .send().getTransactionCount().longValueExact();
+                }
+                transaction = new PendingTransaction(nextNonce++, label, to, data, value, gasPrice, gasLimit);
+                pending.put(transaction.nonce, transaction);
+            }
+        } catch (IOException | TransactionException e) {
+            CompletableFuture<TransactionReceipt> failed = new CompletableFuture<TransactionReceipt>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        send(transaction);
+        return transaction.future;
+    }
+
+    private void simulate(String to, String data, BigInteger value) throws TransactionException {
+        TriCoinSimulator current = simulator;
+        if (current == null || !current.getContractAddress().equalsIgnoreCase(to)) {
+            return;
+        }
+        SimulationResult result;
+        try {
+            if (simulationStale) {
+                resimulate(current);
+            }
+            result = current.apply(credentials.getAddress(), data, value);
+        } catch (IOException e) {
+            log.debug("Could not simulate transaction to {}: {}", to, e.toString());
+            return;
+        }
+        if (!result.supported) {
+            log.debug("Transaction to {} cannot be simulated", to);
+            return;
+        }
+        if (!result.success) {
+            throw new TransactionException("Transaction would fail: " + result.failure);
+        }
+    }
+
+    /**
+     * Pins the simulator to the latest block and applies the transactions that are not mined by
+     * then again, in nonce order.
+     */
+    private void resimulate(TriCoinSimulator current) throws IOException {
+        List<PendingTransaction> unmined = new ArrayList<PendingTransaction>();
+        for (PendingTransaction transaction : pending.values()) {
+            synchronized (transaction) {
+                if (!transaction.filler && current.getContractAddress().equalsIgnoreCase(transaction.to)) {
+                    unmined.add(transaction);
+                }
+            }
+        }
+        simulationStale = false;
+        if (unmined.isEmpty()) {
+            current.refresh();
+            return;
+        }
+        try {
+            BigInteger blockNumber = web3j.ethBlockNumber().send().getBlockNumber();
+            long minedNonces = web3j.ethGetTransactionCount(credentials.getAddress(),
+                    DefaultBlockParameter.valueOf(blockNumber)).send().getTransactionCount().longValueExact();
+            current.refresh(blockNumber);
+            for (PendingTransaction transaction : unmined) {
+                if (transaction.nonce >= minedNonces) {
+                    current.apply(credentials.getAddress(), transaction.data, transaction.value);
+                }
+            }
+        } catch (IOException e) {
+            simulationStale = true;
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        scheduler.shutdownNow();
+        if (ownsReceiptTracker) {
+            receiptTracker.close();
+        }
+    }
+
+    private void send(PendingTransaction transaction) {
+        String signed;
+        String hash;
+        CompletableFuture<TransactionReceipt> receipt;
+        synchronized (transaction) {
+            RawTransaction rawTransaction = RawTransaction.createTransaction(
+                    BigInteger.valueOf(transaction.nonce), transaction.gasPrice, transaction.gasLimit,
+                    transaction.to, transaction.value, transaction.data);
+            byte[] signedMessage = chainId > ChainId.NONE
+                    ? TransactionEncoder.signMessage(rawTransaction, chainId, credentials)
+                    : TransactionEncoder.signMessage(rawTransaction, credentials);
+            signed = Numeric.toHexString(signedMessage);
+            hash = Hash.sha3(signed);
+            transaction.hashes.add(hash);
+            transaction.lastSentMillis = System.currentTimeMillis();
+            transaction.resend = false;
+            receipt = receiptTracker.track(hash);
+            transaction.receipts.add(receipt);
+        }
+        String sentHash = hash;
+        receipt.whenComplete((result, error) -> {
+            if (error == null) {
+                complete(transaction, result);
+            } else if (!(error instanceof CancellationException) && isLatest(transaction, sentHash)) {
+                // Earlier hashes of a replaced transaction time out first; only the latest decides.
+                fail(transaction, error instanceof TransactionException
+                        ? (TransactionException) error : new TransactionException(error.getMessage()));
+            }
+        });
+        web3j.ethSendRawTransaction(signed).sendAsync()
+                .whenComplete((response, error) -> onSent(transaction, sentHash, receipt, response, error));
+    }
+
+    private void onSent(PendingTransaction transaction, String hash, CompletableFuture<TransactionReceipt> receipt,
+                        EthSendTransaction response, Throwable error) {
+        if (error != null) {
+            log.warn("Sending transaction with nonce {} failed, will retry", transaction.nonce, error);
+            transaction.resend = true;
+            return;
+        }
+        if (!response.hasError()) {
+            transaction.accepted = true;
+            return;
+        }
+        String message = response.getError().getMessage();
+        String lowerCase = message == null ? "" : message.toLowerCase();
+        if (lowerCase.contains("nonce too low") || lowerCase.contains("known transaction")
+                || lowerCase.contains("already known")) {
+            // Mined or already in the pool; the receipt poll sorts out which.
+            transaction.accepted = true;
+            return;
+        }
+        if (transaction.accepted) {
+            // A replacement was refused, typically as underpriced; the version in the pool is
+            // still pending and may be mined, and the next replacement starts from this price.
+            log.warn("Replacement for nonce {} was rejected: {}", transaction.nonce, message);
+            forget(transaction, hash, receipt);
+            return;
+        }
+        if (transaction.filler) {
+            // The nonce is allocated; dropping it would stall every later transaction.
+            log.error("Could not fill nonce {}: {}; retrying at a higher gas price", transaction.nonce, message);
+            forget(transaction, hash, receipt);
+            synchronized (transaction) {
+                transaction.gasPrice = bump(transaction.gasPrice, MIN_REPLACEMENT_BUMP_PERCENT);
+            }
+            transaction.resend = true;
+            return;
+        }
+        log.warn("Transaction with nonce {} was rejected: {}; filling the nonce", transaction.nonce, message);
+        recordFailure(transaction);
+        transaction.future.completeExceptionally(new TransactionException(
+                "Transaction with nonce " + transaction.nonce + " was rejected: " + message));
+        forget(transaction, hash, receipt);
+        simulationStale = true;
+        synchronized (transaction) {
+            transaction.filler = true;
+            transaction.to = credentials.getAddress();
+            transaction.data = "";
+            transaction.value = BigInteger.ZERO;
+            transaction.gasLimit = FILLER_GAS_LIMIT;
+            // A transaction refused as underpriced may be one another sender put in the pool at
+            // this nonce, which a filler at the same price could not replace either.
+            transaction.gasPrice = bump(transaction.gasPrice, MIN_REPLACEMENT_BUMP_PERCENT);
+        }
+        send(transaction);
+    }
+
+    private void watch() {
+        if (pending.isEmpty()) {
+            // Every applied transaction is mined or dropped; the next one simply starts afresh.
+            simulationStale = true;
+            return;
+        }
+        try {
+            TriCoinSimulator current = simulator;
+            if (current != null && !simulationStale) {
+                BigInteger pinned = current.getBlockNumber();
+                if (pinned != null && !pinned.equals(web3j.ethBlockNumber().send().getBlockNumber())) {
+                    simulationStale = true;
+                }
+            }
+            long minedNonces = web3j.ethGetTransactionCount(credentials.getAddress(), DefaultBlockParameterName.LATEST)
+                    .send().getTransactionCount().longValueExact();
+            for (PendingTransaction transaction : pending.values()) {
+                if (transaction.resend) {
+                    send(transaction);
+                } else if (transaction.nonce < minedNonces) {
+                    if (!isIncluded(transaction) && ++transaction.missedPolls >= MISSED_POLLS_BEFORE_FAILING) {
+                        fail(transaction, new TransactionException(
+                                "Nonce " + transaction.nonce + " was used by another transaction"));
+                    }
+                } else if (transaction.nonce == minedNonces
+                        && System.currentTimeMillis() - transaction.lastSentMillis > stuckTimeoutMillis) {
+                    replace(transaction);
+                }
+            }
+        } catch (Exception e) {
+            log.warn("Checking pending transactions failed", e);
+        }
+    }
+
+    private boolean isIncluded(PendingTransaction transaction) {
+        for (String hash : hashesOf(transaction)) {
+            if (receiptTracker.isIncluded(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void complete(PendingTransaction transaction, TransactionReceipt receipt) {
+        if (pending.remove(transaction.nonce, transaction)) {
+            untrack(transaction);
+            if (!transaction.filler) {
+                TriCoinMetrics current = metrics;
+                if (current != null) {
+                    current.recordTransaction(transaction.label, System.nanoTime() - transaction.submittedNanos,
+                            receipt.getGasUsed());
+                }
+                transaction.future.complete(receipt);
+            }
+        }
+    }
+
+    private void fail(PendingTransaction transaction, Exception cause) {
+        if (pending.remove(transaction.nonce, transaction)) {
+            simulationStale = true;
+            untrack(transaction);
+            if (!transaction.filler) {
+                recordFailure(transaction);
+            }
+            transaction.future.completeExceptionally(cause);
+        }
+    }
+
+    private void recordFailure(PendingTransaction transaction) {
+        TriCoinMetrics current = metrics;
+        if (current != null) {
+            current.recordTransactionFailure(transaction.label);
+        }
+    }
+
+    private void untrack(PendingTransaction transaction) {
+        List<CompletableFuture<TransactionReceipt>> receipts;
+        synchronized (transaction) {
+            receipts = new ArrayList<CompletableFuture<TransactionReceipt>>(transaction.receipts);
+        }
+        for (CompletableFuture<TransactionReceipt> receipt : receipts) {
+            receipt.cancel(false);
+        }
+    }
+
+    private static void forget(PendingTransaction transaction, String hash,
+                               CompletableFuture<TransactionReceipt> receipt) {
+        synchronized (transaction) {
+            transaction.hashes.remove(hash);
+            transaction.receipts.remove(receipt);
+        }
+        receipt.cancel(false);
+    }
+
+    private static boolean isLatest(PendingTransaction transaction, String hash) {
+        synchronized (transaction) {
+            return !transaction.hashes.isEmpty()
+                    && hash.equals(transaction.hashes.get(transaction.hashes.size() - 1));
+        }
+    }
+
+    private static List<String> hashesOf(PendingTransaction transaction) {
+        synchronized (transaction) {
+            return new ArrayList<String>(transaction.hashes);
+        }
+    }
+
+    private void replace(PendingTransaction transaction) {
+        BigInteger minimum = bump(transaction.gasPrice, MIN_REPLACEMENT_BUMP_PERCENT);
+        BigInteger bumped = bump(transaction.gasPrice, Math.max(gasPriceBumpPercent, MIN_REPLACEMENT_BUMP_PERCENT));
+        BigInteger limit = maxGasPrice;
+        if (limit != null && bumped.compareTo(limit) > 0) {
+            if (limit.compareTo(minimum) < 0) {
+                // The node would refuse anything cheaper as an underpriced replacement.
+                return;
+            }
+            bumped = limit;
+        }
+        log.info("Nonce {} is stuck, resending with gas price {}", transaction.nonce, bumped);
+        synchronized (transaction) {
+            transaction.gasPrice = bumped;
+        }
+        send(transaction);
+    }
+
+    private static BigInteger bump(BigInteger gasPrice, int percent) {
+        return gasPrice.multiply(BigInteger.valueOf(100 + percent))
+                .divide(BigInteger.valueOf(100))
+                .add(BigInteger.ONE);
+    }
+
+    private static final class PendingTransaction {
+        final long nonce;
+        final String label;
+        final long submittedNanos = System.nanoTime();
+        final CompletableFuture<TransactionReceipt> future = new CompletableFuture<TransactionReceipt>();
+        final List<String> hashes = new ArrayList<String>(1);
+        final List<CompletableFuture<TransactionReceipt>> receipts =
+                new ArrayList<CompletableFuture<TransactionReceipt>>(1);
+        String to;
+        String data;
+        BigInteger value;
+        BigInteger gasPrice;
+        BigInteger gasLimit;
+        volatile long lastSentMillis;
+        volatile boolean resend;
+        volatile boolean filler;
+        volatile boolean accepted;
+        int missedPolls;
+
+        PendingTransaction(long nonce, String label, String to, String data, BigInteger value,
+                           BigInteger gasPrice, BigInteger gasLimit) {
+            this.nonce = nonce;
+            this.label = label;
+            this.to = to;
+            this.data = data;
+            this.value = value;
+            this.gasPrice = gasPrice;
+            this.gasLimit = gasLimit;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.trivadis.tricoin;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.web3j.abi.EventEncoder;
+import org.web3j.abi.EventValues;
+import org.web3j.abi.TypeReference;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Event;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.tx.Contract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the decoder against the generic event decoding of web3j.
+ */
+public class TriCoinEventDecoderTest {
+
+    private static final Event TRANSFER = new Event("Transfer",
+            Arrays.<TypeReference<?>>asList(new TypeReference<Address>() {}, new TypeReference<Address>() {}),
+            Arrays.<TypeReference<?>>asList(new TypeReference<Uint256>() {}));
+    private static final Event BURN = new Event("Burn",
+            Arrays.<TypeReference<?>>asList(new TypeReference<Address>() {}),
+            Arrays.<TypeReference<?>>asList(new TypeReference<Uint256>() {}));
+
+    private static final String FROM = "0x000000000000000000000000AbCdEf0123456789aBcDeF0123456789ABCDEF01";
+    private static final String TO = "0x0000000000000000000000000000000000000000000000000000000000000001";
+
+    private static final List<String> VALUES = Arrays.asList(
+            "0x" + repeat("0", 64),
+            "0x" + repeat("0", 63) + "1",
+            "0x" + repeat("0", 49) + repeat("f", 15),
+            "0x" + repeat("0", 48) + "1" + repeat("0", 15),
+            "0x" + repeat("0", 48) + "FfFfFfFfFfFfFfFf",
+            "0x8" + repeat("0", 63),
+            "0x" + repeat("F", 64),
+            "0x" + repeat("0", 62) + "2a" + repeat("0", 64));
+
+    @Test
+    public void usesTheTopicsOfTheGenericEncoder() {
+        assertEquals(EventEncoder.encode(TRANSFER), TriCoinEventDecoder.TRANSFER_EVENT_TOPIC);
+        assertEquals(EventEncoder.encode(BURN), TriCoinEventDecoder.BURN_EVENT_TOPIC);
+    }
+
+    @Test
+    public void decodesTransfersLikeTheGenericDecoder() {
+        for (String data : VALUES) {
+            Log log = log(data, TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, FROM, TO);
+            EventValues expected = Contract.staticExtractEventParameters(TRANSFER, log);
+
+            TriCoin.TransferEventResponse actual = TriCoinEventDecoder.decodeTransfer(log);
+
+            assertEquals(data, expected.getIndexedValues().get(0).toString(), actual.from);
+            assertEquals(data, expected.getIndexedValues().get(1).toString(), actual.to);
+            assertEquals(data, expected.getNonIndexedValues().get(0).getValue(), actual.value);
+        }
+    }
+
+    @Test
+    public void decodesBurnsLikeTheGenericDecoder() {
+        for (String data : VALUES) {
+            Log log = log(data, TriCoinEventDecoder.BURN_EVENT_TOPIC, FROM);
+            EventValues expected = Contract.staticExtractEventParameters(BURN, log);
+
+            TriCoin.BurnEventResponse actual = TriCoinEventDecoder.decodeBurn(log);
+
+            assertEquals(data, expected.getIndexedValues().get(0).toString(), actual.from);
+            assertEquals(data, expected.getNonIndexedValues().get(0).getValue(), actual.value);
+        }
+    }
+
+    @Test
+    public void rejectsLogsTheGenericDecoderRejects() {
+        String data = VALUES.get(1);
+        Log upperCaseTopic = log(data, TriCoinEventDecoder.TRANSFER_EVENT_TOPIC.toUpperCase().replace("0X", "0x"),
+                FROM, TO);
+        Log burn = log(data, TriCoinEventDecoder.BURN_EVENT_TOPIC, FROM);
+
+        assertNull(Contract.staticExtractEventParameters(TRANSFER, upperCaseTopic));
+        assertNull(TriCoinEventDecoder.decodeTransfer(upperCaseTopic));
+        assertNull(Contract.staticExtractEventParameters(TRANSFER, burn));
+        assertNull(TriCoinEventDecoder.decodeTransfer(burn));
+        assertNull(TriCoinEventDecoder.decodeBurn(log(data, TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, FROM, TO)));
+    }
+
+    private static Log log(String data, String... topics) {
+        Log log = new Log();
+        log.setData(data);
+        log.setTopics(Arrays.asList(topics));
+        return log;
+    }
+
+    private static String repeat(String s, int count) {
+        StringBuilder builder = new StringBuilder(s.length() * count);
+        for (int i = 0; i < count; i++) {
+            builder.append(s);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,155 @@
+package com.trivadis.tricoin;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import com.trivadis.tricoin.rpc.RpcBatch;
+import org.junit.Test;
+import org.web3j.crypto.Credentials;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameter;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.Transaction;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+import org.web3j.protocol.core.methods.response.EthCall;
+import org.web3j.tx.exceptions.ContractCallException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TriCoinTest {
+
+    private static final String CONTRACT = "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857";
+    private static final String ADDRESS_TOPIC = "\"0x000000000000000000000000aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa\"";
+    private static final String FIRST = "0x00000000000000000000000000000000000000a1";
+    private static final String SECOND = "0x00000000000000000000000000000000000000a2";
+    private static final String THIRD = "0x00000000000000000000000000000000000000a3";
+
+    private final FakeNode node = new FakeNode();
+    private final TriCoin contract = TriCoin.load(CONTRACT, Web3j.build(node), Credentials.create("0x01"),
+            BigInteger.ONE, BigInteger.ONE);
+
+    @Test
+    public void skipsLogsTheDecoderRejects() {
+        List<TriCoin.TransferEventResponse> events = contract
+                .transferEventBackfill(BigInteger.ONE, BigInteger.TEN).toList().toBlocking().single();
+
+        assertEquals(1, events.size());
+        assertEquals(BigInteger.ONE, events.get(0).value);
+    }
+
+    @Test
+    public void readsBalancesInBatchesPinnedToTheLatestBlock() throws Exception {
+        node.balances.put(FIRST, BigInteger.ONE);
+        node.balances.put(SECOND, BigInteger.ZERO);
+        node.balances.put(THIRD, BigInteger.ONE.shiftLeft(255));
+        contract.setBatchService(node);
+        contract.setBatchSize(2);
+
+        TriCoin.BulkReadResponse response = contract.balancesOf(Arrays.asList(THIRD, FIRST, SECOND)).send();
+
+        assertEquals(BigInteger.valueOf(0x10), response.blockNumber);
+        assertEquals(Arrays.asList(THIRD, FIRST, SECOND), new ArrayList<String>(response.values.keySet()));
+        assertEquals(BigInteger.ONE.shiftLeft(255), response.values.get(THIRD));
+        assertEquals(BigInteger.ONE, response.values.get(FIRST));
+        assertEquals(BigInteger.ZERO, response.values.get(SECOND));
+        assertEquals(Arrays.asList(2, 1), node.batchSizes);
+        assertEquals(Collections.singleton("0x10"), node.callBlocks.keySet());
+    }
+
+    @Test
+    public void readsBalancesOneByOneWithoutABatchService() throws Exception {
+        node.balances.put(FIRST, BigInteger.TEN);
+
+        TriCoin.BulkReadResponse response = contract.balancesOf(Collections.singletonList(FIRST)).send();
+
+        assertEquals(BigInteger.TEN, response.values.get(FIRST));
+        assertTrue(node.batchSizes.isEmpty());
+    }
+
+    @Test
+    public void failsOnAnEmptyCallResult() throws Exception {
+        node.balances.put(FIRST, BigInteger.ONE);
+        contract.setBatchService(node);
+
+        try {
+            contract.balancesOf(Arrays.asList(FIRST, SECOND)).send();
+            fail("Expected the empty result to be reported");
+        } catch (ContractCallException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(SECOND));
+        }
+    }
+
+    private static String log(int logIndex, String... topics) {
+        return "{\"blockNumber\":\"0x1\",\"logIndex\":\"0x" + logIndex + "\",\"address\":\"" + CONTRACT
+                + "\",\"data\":\"0x" + String.format("%064x", 1) + "\",\"topics\":[" + String.join(",", topics) + "]}";
+    }
+
+    /**
+     * Answers every {@code eth_getLogs} with a Transfer log and a log with the Transfer topic
+     * whose {@code from} is not indexed, and {@code balanceOf} calls from {@link #balances} at
+     * block {@code 0x10}, with an empty result for unknown holders.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class FakeNode implements BatchWeb3jService {
+
+        final Map<String, BigInteger> balances = new ConcurrentHashMap<String, BigInteger>();
+        final Map<String, Boolean> callBlocks = new ConcurrentHashMap<String, Boolean>();
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        private final ObjectMapper objectMapper = new ObjectMapper();
+
+        @Override
+        public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            if (request.getMethod().equals("eth_blockNumber")) {
+                EthBlockNumber response = new EthBlockNumber();
+                response.setResult("0x10");
+                return (T) response;
+            }
+            if (request.getMethod().equals("eth_call")) {
+                return (T) call(request);
+            }
+            if (!request.getMethod().equals("eth_getLogs")) {
+                throw new IOException("Unexpected " + request.getMethod());
+            }
+            String topic = "\"" + TriCoinEventDecoder.TRANSFER_EVENT_TOPIC + "\"";
+            return objectMapper.readValue("{\"jsonrpc\":\"2.0\",\"id\":" + request.getId() + ",\"result\":["
+                    + log(0, topic, ADDRESS_TOPIC, ADDRESS_TOPIC) + "," + log(1, topic, ADDRESS_TOPIC) + "]}",
+                    responseType);
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+            batchSizes.add(batch.size());
+            List<Response<?>> responses = new ArrayList<Response<?>>(batch.size());
+            for (Request<?, ?> request : batch.getRequests()) {
+                responses.add(call(request));
+            }
+            return responses;
+        }
+
+        private EthCall call(Request<?, ?> request) {
+            callBlocks.put(((DefaultBlockParameter) request.getParams().get(1)).getValue(), true);
+            String data = ((Transaction) request.getParams().get(0)).getData();
+            BigInteger balance = balances.get("0x" + data.substring(data.length() - 40));
+            EthCall response = new EthCall();
+            response.setResult(balance == null ? "0x" : "0x" + String.format("%064x", balance));
+            return response;
+        }
+    }
+}
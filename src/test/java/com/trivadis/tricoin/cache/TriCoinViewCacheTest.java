@@ -0,0 +1,141 @@
+package com.trivadis.tricoin.cache;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.trivadis.tricoin.TriCoin;
+import com.trivadis.tricoin.TriCoinEventDecoder;
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import com.trivadis.tricoin.rpc.RpcBatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.crypto.Credentials;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import static org.junit.Assert.assertEquals;
+
+public class TriCoinViewCacheTest {
+
+    private static final String CONTRACT = "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857";
+    private static final String ALICE = "0x" + repeat("aa", 20);
+    private static final String BOB = "0x" + repeat("bb", 20);
+
+    private FakeNode node;
+    private TriCoin contract;
+
+    @Before
+    public void setUp() {
+        node = new FakeNode();
+        Web3j web3j = Web3j.build(node);
+        contract = TriCoin.load(CONTRACT, web3j, Credentials.create("0x01"), BigInteger.ONE, BigInteger.ONE);
+    }
+
+    @Test
+    public void reusesEntriesOnlyUpToTheBlockWhoseEventsWereProcessed() throws Exception {
+        TriCoinViewCache cache = new TriCoinViewCache(contract, Web3j.build(node));
+        cache.setEventDriven(true);
+        cache.onEventsProcessed(10);
+        assertEquals(BigInteger.valueOf(100), cache.balanceOf(ALICE).send());
+
+        node.balance = BigInteger.valueOf(40);
+        cache.onNewBlock(11);
+        assertEquals(BigInteger.valueOf(40), cache.balanceOf(ALICE).send());
+        assertEquals(2, node.calls);
+
+        cache.onEvent(transfer(ALICE, BOB, 11));
+        cache.onEventsProcessed(11);
+        cache.onEventsProcessed(12);
+        assertEquals(BigInteger.valueOf(40), cache.balanceOf(ALICE).send());
+        assertEquals(3, node.calls);
+        cache.onEventsProcessed(13);
+        assertEquals(BigInteger.valueOf(40), cache.balanceOf(ALICE).send());
+        assertEquals(3, node.calls);
+    }
+
+    @Test
+    public void doesNotStoreReadsOlderThanDroppedInvalidations() throws Exception {
+        TriCoinViewCache cache = new TriCoinViewCache(contract, Web3j.build(node), 1);
+        cache.setEventDriven(true);
+        cache.onEventsProcessed(19);
+        node.duringCall = () -> {
+            cache.onEvent(transfer(ALICE, BOB, 20));
+            cache.onEventsProcessed(20);
+            node.balance = BigInteger.valueOf(40);
+        };
+        assertEquals(BigInteger.valueOf(100), cache.balanceOf(ALICE).send());
+
+        node.duringCall = null;
+        cache.onEventsProcessed(21);
+        assertEquals(BigInteger.valueOf(40), cache.balanceOf(ALICE).send());
+    }
+
+    private static Log transfer(String from, String to, long block) {
+        Log log = new Log();
+        log.setBlockNumber(Numeric.toHexStringWithPrefix(BigInteger.valueOf(block)));
+        log.setLogIndex("0x0");
+        log.setTopics(Arrays.asList(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, topic(from), topic(to)));
+        log.setData(Numeric.toHexStringWithPrefixZeroPadded(BigInteger.ONE, 64));
+        return log;
+    }
+
+    private static String topic(String address) {
+        return "0x" + repeat("00", 12) + address.substring(2);
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Answers every {@code eth_call} with {@link #balance}, running {@link #duringCall} before the
+     * answer returns.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class FakeNode implements BatchWeb3jService {
+
+        volatile BigInteger balance = BigInteger.valueOf(100);
+        volatile Runnable duringCall;
+        volatile int calls;
+
+        @Override
+        public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            if (!request.getMethod().equals("eth_call")) {
+                throw new IOException("Unexpected " + request.getMethod());
+            }
+            calls++;
+            T response;
+            try {
+                response = responseType.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IOException(e);
+            }
+            response.setResult(Numeric.toHexStringWithPrefixZeroPadded(balance, 64));
+            Runnable hook = duringCall;
+            if (hook != null) {
+                hook.run();
+            }
+            return response;
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+            throw new IOException("Batches are not supported");
+        }
+    }
+}
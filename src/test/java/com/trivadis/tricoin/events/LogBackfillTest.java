@@ -0,0 +1,227 @@
+package com.trivadis.tricoin.events;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import com.trivadis.tricoin.rpc.RpcBatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import org.web3j.protocol.core.methods.response.EthLog;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class LogBackfillTest {
+
+    private static final String CONTRACT = "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857";
+    private static final String TOPIC = "0xddf252ad1be2c89b69c2b068fc378daa952ba7f163c4a11628f55a4df523b3ef";
+
+    private FakeNode node;
+    private LogBackfill backfill;
+
+    @Before
+    public void setUp() {
+        node = new FakeNode();
+        backfill = new LogBackfill(Web3j.build(node), CONTRACT, TOPIC)
+                .setParallelism(1)
+                .setRetryDelayMillis(1);
+    }
+
+    @Test
+    public void splitsWindowsTheNodeRejectsAndShrinksTheRest() throws Exception {
+        node.maxBlocks = 16;
+        backfill.setInitialWindow(64).setSparseThreshold(0);
+
+        List<Log> logs = run(0, 99);
+
+        assertInOrder(logs, 0, 99);
+        List<long[]> requests = node.requests;
+        assertEquals(64, size(requests.get(0)));
+        // [0, 63] is split down to four windows of 16 blocks, after which windows stay at 16 blocks
+        int firstAfterSplit = 0;
+        while (requests.get(firstAfterSplit)[0] < 64) {
+            firstAfterSplit++;
+        }
+        for (long[] request : requests.subList(firstAfterSplit, requests.size())) {
+            assertTrue(size(request) <= 16);
+        }
+    }
+
+    @Test
+    public void splitsTruncatedWindows() throws Exception {
+        node.maxResults = 10;
+        backfill.setInitialWindow(100).setMaxResultsPerWindow(10);
+
+        assertInOrder(run(0, 99), 0, 99);
+    }
+
+    @Test
+    public void deliversABlockAtTheResultLimitAsItIs() throws Exception {
+        node.logsPerBlock = 12;
+        backfill.setInitialWindow(4).setMaxResultsPerWindow(10);
+
+        // Block 0 has no logs, blocks 1 and 2 cannot be split any further
+        assertEquals(12 * 2, run(0, 2).size());
+    }
+
+    @Test
+    public void growsTheWindowWhileWindowsAreSparse() throws Exception {
+        backfill.setInitialWindow(10).setMaxWindow(80);
+
+        assertInOrder(run(0, 299), 0, 299);
+
+        List<Long> sizes = new ArrayList<Long>();
+        for (long[] request : node.requests) {
+            sizes.add(size(request));
+        }
+        assertEquals(Long.valueOf(10), sizes.get(0));
+        assertEquals(Long.valueOf(20), sizes.get(1));
+        assertEquals(Long.valueOf(40), sizes.get(2));
+        assertEquals(Long.valueOf(80), sizes.get(3));
+        assertEquals(Long.valueOf(80), sizes.get(4));
+    }
+
+    @Test
+    public void retriesASingleBlock() throws Exception {
+        node.maxBlocks = 1;
+        node.failuresOfBlock.put(5L, new AtomicInteger(2));
+        backfill.setInitialWindow(1).setMaxRetries(2);
+
+        assertInOrder(run(0, 9), 0, 9);
+    }
+
+    @Test
+    public void failsAfterTheLastRetry() throws Exception {
+        node.maxBlocks = 1;
+        node.failuresOfBlock.put(5L, new AtomicInteger(3));
+        backfill.setInitialWindow(1).setMaxRetries(2);
+
+        try {
+            run(0, 9);
+            fail("Expected the backfill to fail");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().startsWith("Fetching logs of block 5 failed"));
+        }
+    }
+
+    @Test
+    public void deliversInOrderWhenWindowsCompleteOutOfOrder() throws Exception {
+        // Earlier windows answer later
+        node.delayMillis = start -> 100 - start;
+        backfill.setParallelism(4).setInitialWindow(10).setSparseThreshold(0);
+
+        assertInOrder(run(0, 99), 0, 99);
+    }
+
+    private List<Log> run(long from, long to) throws Exception {
+        List<Log> logs = new ArrayList<Log>();
+        backfill.run(BigInteger.valueOf(from), BigInteger.valueOf(to), logs::add);
+        return logs;
+    }
+
+    private void assertInOrder(List<Log> logs, long from, long to) {
+        List<Log> expected = new ArrayList<Log>();
+        for (long block = from; block <= to; block++) {
+            expected.addAll(node.logsOf(block));
+        }
+        assertEquals(expected.size(), logs.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getBlockNumberRaw(), logs.get(i).getBlockNumberRaw());
+            assertEquals(expected.get(i).getLogIndexRaw(), logs.get(i).getLogIndexRaw());
+        }
+    }
+
+    private static long size(long[] request) {
+        return request[1] - request[0] + 1;
+    }
+
+    private interface Delay {
+        long of(long start);
+    }
+
+    /**
+     * Answers {@code eth_getLogs} with {@link #logsPerBlock} logs for every block whose number is
+     * not a multiple of three, rejecting ranges of more than {@link #maxBlocks} blocks and cutting
+     * responses off after {@link #maxResults} logs.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class FakeNode implements BatchWeb3jService {
+
+        final List<long[]> requests = Collections.synchronizedList(new ArrayList<long[]>());
+        final Map<Long, AtomicInteger> failuresOfBlock = new ConcurrentHashMap<Long, AtomicInteger>();
+        volatile long maxBlocks = Long.MAX_VALUE;
+        volatile int maxResults = Integer.MAX_VALUE;
+        volatile int logsPerBlock = 2;
+        volatile Delay delayMillis = start -> 0;
+
+        List<Log> logsOf(long block) {
+            List<Log> logs = new ArrayList<Log>();
+            if (block % 3 != 0) {
+                for (int i = 0; i < logsPerBlock; i++) {
+                    EthLog.LogObject log = new EthLog.LogObject();
+                    log.setBlockNumber(Numeric.toHexStringWithPrefix(BigInteger.valueOf(block)));
+                    log.setLogIndex(Numeric.toHexStringWithPrefix(BigInteger.valueOf(i)));
+                    logs.add(log);
+                }
+            }
+            return logs;
+        }
+
+        @Override
+        public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            if (!request.getMethod().equals("eth_getLogs")) {
+                throw new IOException("Unexpected " + request.getMethod());
+            }
+            EthFilter filter = (EthFilter) request.getParams().get(0);
+            long start = Numeric.toBigInt(filter.getFromBlock().getValue()).longValueExact();
+            long end = Numeric.toBigInt(filter.getToBlock().getValue()).longValueExact();
+            requests.add(new long[] {start, end});
+            try {
+                Thread.sleep(delayMillis.of(start));
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            EthLog response = new EthLog();
+            AtomicInteger failures = failuresOfBlock.get(start);
+            if (end - start + 1 > maxBlocks || (failures != null && failures.getAndDecrement() > 0)) {
+                response.setError(new Response.Error(-32005, "query returned more than 10000 results"));
+                return (T) response;
+            }
+            List<EthLog.LogResult> results = new ArrayList<EthLog.LogResult>();
+            for (long block = start; block <= end && results.size() < maxResults; block++) {
+                for (Log log : logsOf(block)) {
+                    if (results.size() < maxResults) {
+                        results.add((EthLog.LogObject) log);
+                    }
+                }
+            }
+            response.setResult(results);
+            return (T) response;
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+            throw new IOException("Batches are not supported");
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.trivadis.tricoin.evm;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import com.trivadis.tricoin.rpc.RpcBatch;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.DynamicBytes;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.utils.Numeric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TriCoinSimulatorTest {
+
+    private static final String CONTRACT = "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857";
+    private static final String ALICE = "0x" + repeat("aa", 20);
+    private static final String BOB = "0x" + repeat("bb", 20);
+    private static final String CAROL = "0x" + repeat("cc", 20);
+    private static final int BALANCES_SLOT = 4;
+
+    private final Map<BigInteger, BigInteger> storage = new HashMap<BigInteger, BigInteger>();
+    private TriCoinSimulator simulator;
+
+    @Before
+    public void setUp() {
+        storage.put(balanceSlot(ALICE), BigInteger.valueOf(1000));
+        storage.put(balanceSlot(BOB), BigInteger.valueOf(500));
+        FakeNode node = new FakeNode();
+        simulator = new TriCoinSimulator(Web3j.build(node), CONTRACT, node);
+    }
+
+    @Test
+    public void appliesTransferToExistingHolderOnFreshSimulator() throws IOException {
+        SimulationResult result = simulator.apply(ALICE, transfer(BOB, 600));
+
+        assertTrue(result.failure, result.success);
+        assertTrue(simulator.simulate(BOB, transfer(CAROL, 1100)).success);
+        assertFalse(simulator.simulate(BOB, transfer(CAROL, 1101)).success);
+        assertTrue(simulator.simulate(ALICE, transfer(CAROL, 400)).success);
+        assertFalse(simulator.simulate(ALICE, transfer(CAROL, 401)).success);
+    }
+
+    @Test
+    public void doesNotKeepEffectsOfFailedTransaction() throws IOException {
+        assertFalse(simulator.apply(ALICE, transfer(BOB, 1001)).success);
+
+        assertTrue(simulator.simulate(ALICE, transfer(CAROL, 1000)).success);
+        assertTrue(simulator.simulate(BOB, transfer(CAROL, 500)).success);
+        assertFalse(simulator.simulate(BOB, transfer(CAROL, 501)).success);
+    }
+
+    @Test
+    public void simulateDoesNotKeepEffects() throws IOException {
+        assertTrue(simulator.simulate(ALICE, transfer(BOB, 600)).success);
+
+        assertTrue(simulator.simulate(ALICE, transfer(CAROL, 1000)).success);
+    }
+
+    @Test
+    public void refreshDropsAppliedEffects() throws IOException {
+        assertTrue(simulator.apply(ALICE, transfer(BOB, 600)).success);
+        simulator.refresh();
+
+        assertTrue(simulator.simulate(ALICE, transfer(CAROL, 1000)).success);
+        assertEquals(BigInteger.valueOf(16), simulator.getBlockNumber());
+    }
+
+    @Test
+    public void reportsCallsToOtherContractsAsNotSupported() throws IOException {
+        SimulationResult result = simulator.apply(ALICE, new Function("approveAndCall",
+                Arrays.asList(new Address(BOB), new Uint256(100), new DynamicBytes(new byte[0])),
+                Collections.emptyList()));
+
+        assertFalse(result.success);
+        assertFalse(result.supported);
+        assertTrue(simulator.simulate(ALICE, transfer(CAROL, 1000)).supported);
+    }
+
+    private static Function transfer(String to, long value) {
+        return new Function("transfer", Arrays.asList(new Address(to), new Uint256(value)),
+                Collections.emptyList());
+    }
+
+    private static BigInteger balanceSlot(String address) {
+        byte[] key = new byte[64];
+        System.arraycopy(Numeric.toBytesPadded(Numeric.toBigInt(address), 32), 0, key, 0, 32);
+        System.arraycopy(Numeric.toBytesPadded(BigInteger.valueOf(BALANCES_SLOT), 32), 0, key, 32, 32);
+        return new BigInteger(1, Hash.sha3(key));
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Answers {@code eth_blockNumber} and {@code eth_getStorageAt} from {@link #storage}.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private class FakeNode implements BatchWeb3jService {
+
+        @Override
+        public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            T response;
+            try {
+                response = responseType.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IOException(e);
+            }
+            if (request.getMethod().equals("eth_blockNumber")) {
+                response.setResult("0x10");
+            } else if (request.getMethod().equals("eth_getStorageAt")) {
+                BigInteger slot = Numeric.toBigInt((String) request.getParams().get(1));
+                BigInteger value = storage.containsKey(slot) ? storage.get(slot) : BigInteger.ZERO;
+                response.setResult(Numeric.toHexStringWithPrefixZeroPadded(value, 64));
+            } else {
+                throw new IOException("Unexpected " + request.getMethod());
+            }
+            return response;
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+            List<Response<?>> responses = new ArrayList<Response<?>>();
+            for (int i = 0; i < batch.size(); i++) {
+                responses.add(send(batch.getRequests().get(i), batch.getResponseTypes().get(i)));
+            }
+            return responses;
+        }
+    }
+}
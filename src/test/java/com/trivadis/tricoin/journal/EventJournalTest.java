@@ -0,0 +1,165 @@
+package com.trivadis.tricoin.journal;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.trivadis.tricoin.TriCoinEventDecoder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import static org.junit.Assert.assertEquals;
+
+public class EventJournalTest {
+
+    private static final String FROM = "0x" + repeat("aa", 20);
+    private static final String TO = "0x" + repeat("bb", 20);
+
+    private Path directory;
+    private EventJournal journal;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal");
+        journal = EventJournal.open(directory, 64);
+        journal.setCheckpointInterval(1);
+        journal.setConfirmations(3);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        journal.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void checkpointsOnlyConfirmedBlocks() throws IOException {
+        journal.append(transfer(10, 0, 1));
+        journal.append(transfer(11, 0, 2));
+        journal.append(transfer(12, 0, 3));
+        assertEquals(9, journal.getLastCheckpoint().blockNumber);
+        assertEquals(0, journal.size());
+
+        journal.append(transfer(13, 0, 4));
+        assertEquals(10, journal.getLastCheckpoint().blockNumber);
+        assertEquals(1, journal.size());
+
+        journal.setHeadBlock(20);
+        assertEquals(12, journal.getLastCheckpoint().blockNumber);
+        assertEquals(3, journal.size());
+    }
+
+    @Test
+    public void skipsLogsThatAreAlreadyJournaled() throws IOException {
+        journal.append(transfer(10, 0, 1));
+        journal.append(transfer(10, 1, 2));
+        journal.append(transfer(10, 0, 1));
+        journal.append(transfer(11, 0, 3));
+        journal.append(transfer(10, 1, 2));
+        journal.append(transfer(11, 0, 3));
+        journal.append(transfer(11, 1, 4));
+        journal.checkpoint(11);
+        journal.append(transfer(11, 1, 4));
+
+        assertEquals(Arrays.asList("10:0", "10:1", "11:0", "11:1"), records());
+    }
+
+    @Test
+    public void rollsBackRemovedLogs() throws IOException {
+        journal.append(transfer(10, 0, 1));
+        journal.append(transfer(11, 0, 2));
+        journal.append(transfer(12, 0, 3));
+        journal.append(removed(transfer(11, 0, 2)));
+        journal.append(removed(transfer(12, 0, 3)));
+        journal.append(transfer(11, 0, 5));
+        journal.append(transfer(11, 1, 6));
+        journal.append(transfer(12, 0, 7));
+        journal.setHeadBlock(100);
+
+        assertEquals(Arrays.asList("10:0", "11:0", "11:1"), records());
+        assertEquals(Arrays.asList(BigInteger.valueOf(1), BigInteger.valueOf(5), BigInteger.valueOf(6)), values());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void refusesToRollBackCheckpointedBlocks() throws IOException {
+        journal.append(transfer(10, 0, 1));
+        journal.setHeadBlock(20);
+        journal.append(transfer(21, 0, 2));
+
+        journal.append(removed(transfer(10, 0, 1)));
+    }
+
+    @Test
+    public void resumesAfterLastCheckpoint() throws IOException {
+        journal.append(transfer(10, 0, 1));
+        journal.append(transfer(11, 0, 2));
+        journal.append(transfer(15, 0, 3));
+        journal.close();
+
+        journal = EventJournal.open(directory, 64);
+        assertEquals(13, journal.getResumeBlock());
+        assertEquals(Arrays.asList("10:0", "11:0"), records());
+        journal.append(transfer(11, 0, 2));
+        journal.append(transfer(15, 0, 3));
+        journal.checkpoint(15);
+
+        assertEquals(Arrays.asList("10:0", "11:0", "15:0"), records());
+    }
+
+    private List<String> records() throws IOException {
+        List<String> records = new ArrayList<String>();
+        Cursor cursor = journal.cursor();
+        while (cursor.next()) {
+            records.add(cursor.blockNumber() + ":" + cursor.logIndex());
+        }
+        return records;
+    }
+
+    private List<BigInteger> values() throws IOException {
+        List<BigInteger> values = new ArrayList<BigInteger>();
+        Cursor cursor = journal.cursor();
+        while (cursor.next()) {
+            values.add(cursor.value());
+        }
+        return values;
+    }
+
+    private static Log transfer(long block, int logIndex, long value) {
+        Log log = new Log();
+        log.setBlockNumber(Numeric.toHexStringWithPrefix(BigInteger.valueOf(block)));
+        log.setLogIndex(Numeric.toHexStringWithPrefix(BigInteger.valueOf(logIndex)));
+        log.setTopics(Arrays.asList(TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, topic(FROM), topic(TO)));
+        log.setData(Numeric.toHexStringWithPrefixZeroPadded(BigInteger.valueOf(value), 64));
+        return log;
+    }
+
+    private static Log removed(Log log) {
+        log.setRemoved(true);
+        return log;
+    }
+
+    private static String topic(String address) {
+        return "0x" + repeat("00", 12) + address.substring(2);
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,83 @@
+package com.trivadis.tricoin.keys;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.crypto.CipherException;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.ECKeyPair;
+import org.web3j.crypto.Keys;
+import org.web3j.crypto.Wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CredentialManagerTest {
+
+    private static final String PASSWORD = "keystore password";
+
+    private Path keystore;
+    private Path cacheFile;
+    private String address;
+
+    @Before
+    public void setUp() throws Exception {
+        keystore = Files.createTempDirectory("keystore");
+        cacheFile = keystore.resolve("keys.cache");
+        ECKeyPair keyPair = Keys.createEcKeyPair();
+        address = "0x" + Keys.getAddress(keyPair);
+        new ObjectMapper().writeValue(keystore.resolve("UTC--1").toFile(), Wallet.create(PASSWORD, keyPair, 16, 1));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(keystore)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(keystore);
+    }
+
+    @Test
+    public void takesKeysFromCacheForTheSamePassword() throws Exception {
+        load(PASSWORD);
+        assertTrue(Files.exists(cacheFile));
+
+        List<Credentials> credentials = load(PASSWORD);
+
+        assertEquals(address, credentials.get(0).getAddress());
+    }
+
+    @Test(expected = CipherException.class)
+    public void rejectsWrongPasswordForCachedKey() throws Exception {
+        load(PASSWORD);
+
+        load("wrong password");
+    }
+
+    @Test
+    public void ignoresCacheFilesThatCannotBeRead() throws Exception {
+        Files.write(cacheFile, "{\"version\":".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(address, load(PASSWORD).get(0).getAddress());
+
+        Files.write(cacheFile, "{\"version\":2,\"kdf\":{},\"check\":{},\"keys\":null}".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(address, load(PASSWORD).get(0).getAddress());
+
+        assertEquals(address, load(PASSWORD).get(0).getAddress());
+    }
+
+    private List<Credentials> load(String password) throws Exception {
+        CredentialManager manager = new CredentialManager();
+        manager.setSealedCache(new SealedKeyCache(cacheFile, "cache passphrase", 16, 8, 1));
+        return manager.loadDirectory(keystore, password);
+    }
+}
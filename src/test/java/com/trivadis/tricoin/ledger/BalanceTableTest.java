@@ -0,0 +1,53 @@
+package com.trivadis.tricoin.ledger;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class BalanceTableTest {
+
+    @Test
+    public void keepsSlotsAndBalancesWhileGrowingPastTheLoadFactor() {
+        BalanceTable table = new BalanceTable(4);
+        int count = 5_000;
+        for (int i = 0; i < count; i++) {
+            int slot = table.findOrAdd(address(i));
+            assertEquals(i, slot);
+            Uint256.fromBigInteger(BigInteger.valueOf(i).shiftLeft(200), table.balances(), slot * Uint256.LIMBS);
+        }
+
+        assertEquals(count, table.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, table.find(address(i)));
+            assertEquals(i, table.findOrAdd(address(i)));
+            assertEquals(address(i), table.address(i));
+            assertEquals(BigInteger.valueOf(i).shiftLeft(200),
+                    Uint256.toBigInteger(table.balances(), i * Uint256.LIMBS));
+        }
+        assertEquals(count, table.size());
+        assertEquals(-1, table.find(address(count)));
+    }
+
+    @Test
+    public void findsAddressesRegardlessOfPrefixAndCase() {
+        BalanceTable table = new BalanceTable(0);
+        int slot = table.findOrAdd("0xABCDEF0123456789abcdef0123456789ABCDEF01");
+
+        assertEquals(slot, table.find("abcdef0123456789abcdef0123456789abcdef01"));
+        assertEquals(slot, table.find("0X" + "abcdef0123456789abcdef0123456789abcdef01"));
+        assertEquals(slot, table.find("0x000000000000000000000000abcdef0123456789abcdef0123456789abcdef01", 26));
+        assertEquals("0xabcdef0123456789abcdef0123456789abcdef01", table.address(slot));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsAddressesOfTheWrongLength() {
+        new BalanceTable(0).find("0x1234");
+    }
+
+    private static String address(int i) {
+        // Vary every part of the key, so that all of it takes part in hashing and comparing.
+        return String.format("0x%08x%032x", i * 31, (long) i * 0x9E3779B9L);
+    }
+}
@@ -0,0 +1,206 @@
+package com.trivadis.tricoin.ledger;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.List;
+
+import com.trivadis.tricoin.TriCoinEventDecoder;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.core.methods.response.Log;
+import org.web3j.utils.Numeric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class TriCoinLedgerTest {
+
+    private static final String ALICE = "0x" + repeat("aa", 20);
+    private static final String BOB = "0x" + repeat("bb", 20);
+    private static final String CAROL = "0x" + repeat("cc", 20);
+    private static final BigInteger MAX = BigInteger.ONE.shiftLeft(256).subtract(BigInteger.ONE);
+
+    private TriCoinLedger ledger;
+
+    @Before
+    public void setUp() {
+        ledger = new TriCoinLedger(4, 3);
+        ledger.seedGenesis(ALICE, BigInteger.valueOf(1000));
+    }
+
+    @Test
+    public void appliesTransfersAndBurns() {
+        ledger.apply(transfer(1, "0x1", 0, ALICE, BOB, 300));
+        ledger.apply(burn(1, "0x1", 1, BOB, 100));
+
+        assertEquals(BigInteger.valueOf(700), ledger.balanceOf(ALICE));
+        assertEquals(BigInteger.valueOf(200), ledger.balanceOf(BOB));
+        assertEquals(BigInteger.ZERO, ledger.balanceOf(CAROL));
+        assertEquals(BigInteger.valueOf(900), ledger.totalSupply());
+        assertEquals(2, ledger.holderCount());
+        assertEquals(1, ledger.headBlock());
+    }
+
+    @Test
+    public void ignoresLogsDeliveredTwice() {
+        Log log = transfer(1, "0x1", 0, ALICE, BOB, 300);
+        ledger.apply(log);
+        ledger.apply(log);
+        ledger.apply(transfer(1, "0x1", 0, ALICE, BOB, 300));
+
+        assertEquals(BigInteger.valueOf(300), ledger.balanceOf(BOB));
+    }
+
+    @Test
+    public void rollsBackRemovedLogsAndAppliesThemWhenMinedAgain() {
+        ledger.apply(transfer(1, "0x1", 0, ALICE, BOB, 300));
+        ledger.apply(transfer(2, "0x2", 0, BOB, CAROL, 100));
+        ledger.apply(burn(2, "0x2", 1, ALICE, 50));
+
+        ledger.apply(removed(transfer(2, "0x2", 0, BOB, CAROL, 100)));
+        ledger.apply(removed(burn(2, "0x2", 1, ALICE, 50)));
+
+        assertEquals(BigInteger.valueOf(700), ledger.balanceOf(ALICE));
+        assertEquals(BigInteger.valueOf(300), ledger.balanceOf(BOB));
+        assertEquals(BigInteger.ZERO, ledger.balanceOf(CAROL));
+        assertEquals(BigInteger.valueOf(1000), ledger.totalSupply());
+        assertEquals(2, ledger.holderCount());
+        assertEquals(1, ledger.headBlock());
+
+        ledger.apply(transfer(3, "0x3", 0, BOB, CAROL, 100));
+
+        assertEquals(BigInteger.valueOf(200), ledger.balanceOf(BOB));
+        assertEquals(BigInteger.valueOf(100), ledger.balanceOf(CAROL));
+        assertEquals(3, ledger.holderCount());
+    }
+
+    @Test
+    public void rollsBackABlockWhoseHashChanged() {
+        ledger.apply(transfer(1, "0x1", 0, ALICE, BOB, 300));
+        ledger.apply(transfer(2, "0x2a", 0, ALICE, BOB, 100));
+
+        ledger.apply(transfer(2, "0x2b", 0, ALICE, CAROL, 10));
+
+        assertEquals(BigInteger.valueOf(690), ledger.balanceOf(ALICE));
+        assertEquals(BigInteger.valueOf(300), ledger.balanceOf(BOB));
+        assertEquals(BigInteger.valueOf(10), ledger.balanceOf(CAROL));
+    }
+
+    @Test
+    public void refusesToRollBackBeyondTheRetainedWindow() {
+        for (int block = 1; block <= 6; block++) {
+            ledger.apply(transfer(block, "0x" + block, 0, ALICE, BOB, 1));
+        }
+        try {
+            ledger.rollbackTo(2);
+            fail("Expected the rollback to be refused");
+        } catch (IllegalStateException expected) {
+            // Blocks up to 3 are final with a window of 3 blocks and the head at block 6
+        }
+        assertEquals(BigInteger.valueOf(6), ledger.balanceOf(BOB));
+
+        ledger.rollbackTo(3);
+
+        assertEquals(BigInteger.valueOf(3), ledger.balanceOf(BOB));
+        assertEquals(3, ledger.headBlock());
+        ledger.apply(transfer(3, "0x3", 1, ALICE, BOB, 1));
+        assertEquals(BigInteger.valueOf(3), ledger.balanceOf(BOB));
+    }
+
+    @Test
+    public void countsAndRanksOnlyNonZeroHolders() {
+        ledger.apply(transfer(1, "0x1", 0, ALICE, BOB, 600));
+        ledger.apply(transfer(1, "0x1", 1, ALICE, CAROL, 400));
+
+        assertEquals(2, ledger.holderCount());
+        List<TriCoinLedger.Holder> holders = ledger.topHolders(5);
+        assertEquals(2, holders.size());
+        assertEquals(BOB, holders.get(0).address);
+        assertEquals(CAROL, holders.get(1).address);
+
+        ledger.apply(burn(2, "0x2", 0, BOB, 600));
+
+        assertEquals(1, ledger.holderCount());
+        holders = ledger.topHolders(5);
+        assertEquals(1, holders.size());
+        assertEquals(CAROL, holders.get(0).address);
+        assertEquals(BigInteger.valueOf(400), holders.get(0).balance);
+    }
+
+    @Test
+    public void keepsTheLargestHoldersInOrder() {
+        TriCoinLedger ledger = new TriCoinLedger(4, 3);
+        ledger.seedGenesis(ALICE, MAX);
+        for (int i = 1; i <= 20; i++) {
+            ledger.apply(transfer(1, "0x1", i, ALICE, holder(i), (i * 7) % 20 + 1));
+        }
+
+        List<TriCoinLedger.Holder> holders = ledger.topHolders(3);
+
+        assertEquals(Arrays.asList(ALICE, holder(17), holder(14)),
+                Arrays.asList(holders.get(0).address, holders.get(1).address, holders.get(2).address));
+        assertEquals(BigInteger.valueOf(20), holders.get(1).balance);
+        assertEquals(21, ledger.holderCount());
+        assertEquals(0, ledger.topHolders(0).size());
+    }
+
+    @Test
+    public void handlesBalancesUpTo2To256Minus1() {
+        TriCoinLedger ledger = new TriCoinLedger(4, 3);
+        ledger.seedGenesis(ALICE, MAX);
+
+        ledger.apply(transfer(1, "0x1", 0, ALICE, BOB, MAX));
+
+        assertEquals(BigInteger.ZERO, ledger.balanceOf(ALICE));
+        assertEquals(MAX, ledger.balanceOf(BOB));
+        assertEquals(1, ledger.holderCount());
+
+        ledger.rollbackTo(0);
+
+        assertEquals(MAX, ledger.balanceOf(ALICE));
+        assertEquals(BigInteger.ZERO, ledger.balanceOf(BOB));
+    }
+
+    private static String holder(int i) {
+        return String.format("0x%040x", i);
+    }
+
+    private static Log transfer(long block, String blockHash, int logIndex, String from, String to, long value) {
+        return transfer(block, blockHash, logIndex, from, to, BigInteger.valueOf(value));
+    }
+
+    private static Log transfer(long block, String blockHash, int logIndex, String from, String to, BigInteger value) {
+        return log(block, blockHash, logIndex, value, TriCoinEventDecoder.TRANSFER_EVENT_TOPIC, topic(from), topic(to));
+    }
+
+    private static Log burn(long block, String blockHash, int logIndex, String from, long value) {
+        return log(block, blockHash, logIndex, BigInteger.valueOf(value), TriCoinEventDecoder.BURN_EVENT_TOPIC, topic(from));
+    }
+
+    private static Log removed(Log log) {
+        log.setRemoved(true);
+        return log;
+    }
+
+    private static Log log(long block, String blockHash, int logIndex, BigInteger value, String... topics) {
+        Log log = new Log();
+        log.setBlockNumber(Numeric.toHexStringWithPrefix(BigInteger.valueOf(block)));
+        log.setBlockHash(blockHash);
+        log.setLogIndex(Numeric.toHexStringWithPrefix(BigInteger.valueOf(logIndex)));
+        log.setTopics(Arrays.asList(topics));
+        log.setData(Numeric.toHexStringWithPrefixZeroPadded(value, 64));
+        return log;
+    }
+
+    private static String topic(String address) {
+        return "0x" + repeat("00", 12) + address.substring(2);
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,121 @@
+package com.trivadis.tricoin.ledger;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class Uint256Test {
+
+    private static final BigInteger TWO_256 = BigInteger.ONE.shiftLeft(256);
+    private static final BigInteger MAX = TWO_256.subtract(BigInteger.ONE);
+
+    private static final BigInteger[] EDGES = {
+            BigInteger.ZERO,
+            BigInteger.ONE,
+            BigInteger.valueOf(Long.MAX_VALUE),
+            BigInteger.ONE.shiftLeft(63),
+            BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE),
+            BigInteger.ONE.shiftLeft(64),
+            BigInteger.ONE.shiftLeft(128).subtract(BigInteger.ONE),
+            BigInteger.ONE.shiftLeft(128),
+            BigInteger.ONE.shiftLeft(192).subtract(BigInteger.ONE),
+            BigInteger.ONE.shiftLeft(192).add(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE)),
+            BigInteger.ONE.shiftLeft(255),
+            MAX.subtract(BigInteger.ONE),
+            MAX,
+    };
+
+    @Test
+    public void addCarriesAcrossLimbsAndWrapsAt2To256() {
+        for (BigInteger a : EDGES) {
+            for (BigInteger b : EDGES) {
+                long[] target = of(a);
+                Uint256.add(target, 0, of(b), 0);
+                assertEquals(a + " + " + b, a.add(b).mod(TWO_256), Uint256.toBigInteger(target, 0));
+            }
+        }
+    }
+
+    @Test
+    public void subtractBorrowsAcrossLimbsAndWrapsBelowZero() {
+        for (BigInteger a : EDGES) {
+            for (BigInteger b : EDGES) {
+                long[] target = of(a);
+                Uint256.subtract(target, 0, of(b), 0);
+                assertEquals(a + " - " + b, a.subtract(b).mod(TWO_256), Uint256.toBigInteger(target, 0));
+            }
+        }
+    }
+
+    @Test
+    public void addsAtAnOffsetWithoutTouchingNeighbours() {
+        long[] values = new long[3 * Uint256.LIMBS];
+        Uint256.fromBigInteger(MAX, values, 0);
+        Uint256.fromBigInteger(MAX, values, 2 * Uint256.LIMBS);
+        Uint256.fromBigInteger(BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE), values, Uint256.LIMBS);
+
+        Uint256.add(values, Uint256.LIMBS, of(BigInteger.ONE), 0);
+
+        assertEquals(MAX, Uint256.toBigInteger(values, 0));
+        assertEquals(BigInteger.ONE.shiftLeft(64), Uint256.toBigInteger(values, Uint256.LIMBS));
+        assertEquals(MAX, Uint256.toBigInteger(values, 2 * Uint256.LIMBS));
+    }
+
+    @Test
+    public void comparesUnsigned() {
+        for (BigInteger a : EDGES) {
+            for (BigInteger b : EDGES) {
+                assertEquals(a + " <> " + b, a.compareTo(b), Integer.signum(Uint256.compare(of(a), 0, of(b), 0)));
+            }
+        }
+    }
+
+    @Test
+    public void convertsToAndFromBigIntegerAndHex() {
+        for (BigInteger value : EDGES) {
+            assertEquals(value, Uint256.toBigInteger(of(value), 0));
+            String hex = "0x" + String.format("%064x", value);
+            long[] parsed = new long[Uint256.LIMBS];
+            Uint256.fromHex(hex, 2, parsed, 0);
+            assertEquals(value, Uint256.toBigInteger(parsed, 0));
+            assertEquals(value.signum() == 0, Uint256.isZero(parsed, 0));
+        }
+        long[] parsed = new long[Uint256.LIMBS];
+        Uint256.fromHex("0x" + repeat("F", 64), 2, parsed, 0);
+        assertEquals(MAX, Uint256.toBigInteger(parsed, 0));
+    }
+
+    @Test
+    public void rejectsValuesOutsideTheRange() {
+        assertTrue(rejects(TWO_256));
+        assertTrue(rejects(BigInteger.ONE.negate()));
+        assertFalse(rejects(MAX));
+    }
+
+    private static boolean rejects(BigInteger value) {
+        try {
+            of(value);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    private static long[] of(BigInteger value) {
+        long[] result = new long[Uint256.LIMBS];
+        Uint256.fromBigInteger(value, result, 0);
+        return result;
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+}
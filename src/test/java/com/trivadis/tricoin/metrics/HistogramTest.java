@@ -0,0 +1,151 @@
+package com.trivadis.tricoin.metrics;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramTest {
+
+    @Test
+    public void countsSmallValuesExactly() {
+        for (int value = 0; value < 8; value++) {
+            assertEquals(value, Histogram.index(value));
+            assertEquals(value, Histogram.upperBound(value));
+        }
+        assertEquals(8, Histogram.index(8));
+        assertEquals(8, Histogram.upperBound(8));
+    }
+
+    @Test
+    public void startsABucketAtEveryPowerOfTwo() {
+        for (int exponent = 3; exponent < 63; exponent++) {
+            long power = 1L << exponent;
+            int index = Histogram.index(power);
+
+            assertEquals(power - 1, Histogram.upperBound(Histogram.index(power - 1)));
+            assertEquals(index - 1, Histogram.index(power - 1));
+            assertEquals(power + (power >>> 3) - 1, Histogram.upperBound(index));
+        }
+    }
+
+    @Test
+    public void countsLongMaxValueInTheLastBucket() {
+        int index = Histogram.index(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, Histogram.upperBound(index));
+        assertEquals(index, Histogram.index(Long.MAX_VALUE - (1L << 59) + 1));
+        assertEquals(index - 1, Histogram.index(Long.MAX_VALUE - (1L << 59)));
+
+        Histogram histogram = new Histogram();
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().getPercentile(1));
+    }
+
+    @Test
+    public void boundsEveryValueByItsBucketWithinAnEighth() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            long value = (random.nextLong() >>> 1) >>> random.nextInt(63);
+            long upperBound = Histogram.upperBound(Histogram.index(value));
+
+            assertTrue(value + " > " + upperBound, value <= upperBound);
+            assertTrue(value + " bounded by " + upperBound, upperBound - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void readsPercentilesAtMostAnEighthAboveTheTrueValue() {
+        Random random = new Random(7);
+        Histogram histogram = new Histogram();
+        long[] values = new long[10_000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) Math.exp(random.nextDouble() * 30);
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        Histogram.Snapshot snapshot = histogram.snapshot();
+        for (double quantile : new double[] {0.01, 0.1, 0.5, 0.9, 0.99, 0.999, 1}) {
+            long exact = values[(int) Math.ceil(quantile * values.length) - 1];
+            long percentile = snapshot.getPercentile(quantile);
+
+            assertTrue(quantile + ": " + percentile + " < " + exact, percentile >= exact);
+            assertTrue(quantile + ": " + percentile + " vs " + exact, percentile - exact <= exact / 8);
+        }
+        assertEquals(values[values.length - 1], snapshot.getPercentile(1));
+    }
+
+    @Test
+    public void readsZeroFromAnEmptyHistogram() {
+        Histogram.Snapshot snapshot = new Histogram().snapshot();
+
+        assertEquals(0, snapshot.getCount());
+        assertEquals(0, snapshot.getPercentile(0.5));
+        assertEquals(0, snapshot.getMean(), 0);
+    }
+
+    @Test
+    public void writesThePrometheusTextFormat() throws IOException {
+        TriCoinMetrics metrics = new TriCoinMetrics();
+        metrics.recordRpc("eth_call", true, 1_500_000, 100, 2000, true);
+        metrics.recordDecode("Transfer", 3, 2_000_000_000);
+        StringWriter out = new StringWriter();
+
+        metrics.writePrometheus(out);
+
+        String labels = "method=\"eth_call\",batch=\"true\"";
+        assertEquals(""
+                + "# HELP tricoin_rpc_latency_seconds JSON-RPC round trip time\n"
+                + "# TYPE tricoin_rpc_latency_seconds summary\n"
+                + "tricoin_rpc_latency_seconds{" + labels + ",quantile=\"0.5\"} 0.0015\n"
+                + "tricoin_rpc_latency_seconds{" + labels + ",quantile=\"0.9\"} 0.0015\n"
+                + "tricoin_rpc_latency_seconds{" + labels + ",quantile=\"0.99\"} 0.0015\n"
+                + "tricoin_rpc_latency_seconds_sum{" + labels + "} 0.0015\n"
+                + "tricoin_rpc_latency_seconds_count{" + labels + "} 1\n"
+                + "# HELP tricoin_rpc_request_bytes JSON-RPC request size\n"
+                + "# TYPE tricoin_rpc_request_bytes summary\n"
+                + "tricoin_rpc_request_bytes{" + labels + ",quantile=\"0.5\"} 100\n"
+                + "tricoin_rpc_request_bytes{" + labels + ",quantile=\"0.9\"} 100\n"
+                + "tricoin_rpc_request_bytes{" + labels + ",quantile=\"0.99\"} 100\n"
+                + "tricoin_rpc_request_bytes_sum{" + labels + "} 100\n"
+                + "tricoin_rpc_request_bytes_count{" + labels + "} 1\n"
+                + "# HELP tricoin_rpc_response_bytes JSON-RPC response size\n"
+                + "# TYPE tricoin_rpc_response_bytes summary\n"
+                + "tricoin_rpc_response_bytes{" + labels + ",quantile=\"0.5\"} 2000\n"
+                + "tricoin_rpc_response_bytes{" + labels + ",quantile=\"0.9\"} 2000\n"
+                + "tricoin_rpc_response_bytes{" + labels + ",quantile=\"0.99\"} 2000\n"
+                + "tricoin_rpc_response_bytes_sum{" + labels + "} 2000\n"
+                + "tricoin_rpc_response_bytes_count{" + labels + "} 1\n"
+                + "# HELP tricoin_rpc_errors_total Failed JSON-RPC requests\n"
+                + "# TYPE tricoin_rpc_errors_total counter\n"
+                + "tricoin_rpc_errors_total{" + labels + "} 1\n"
+                + "# HELP tricoin_events_decoded_total Decoded contract events\n"
+                + "# TYPE tricoin_events_decoded_total counter\n"
+                + "tricoin_events_decoded_total{event=\"Transfer\"} 3\n"
+                + "# HELP tricoin_event_decode_seconds_total Time spent decoding contract events\n"
+                + "# TYPE tricoin_event_decode_seconds_total counter\n"
+                + "tricoin_event_decode_seconds_total{event=\"Transfer\"} 2.0\n",
+                out.toString());
+    }
+
+    @Test
+    public void escapesLabelValues() throws IOException {
+        TriCoinMetrics metrics = new TriCoinMetrics();
+        metrics.recordRpc("a\"b\\c\nd", false, 1, 1, 1, false);
+        metrics.recordTransactionFailure("x\"y");
+        StringWriter out = new StringWriter();
+
+        metrics.writePrometheus(out);
+
+        assertTrue(out.toString(), out.toString().contains(
+                "tricoin_rpc_errors_total{method=\"a\\\"b\\\\c\\nd\",batch=\"false\"} 0\n"));
+        assertTrue(out.toString(), out.toString().contains(
+                "tricoin_transaction_failures_total{function=\"x\\\"y\"} 1\n"));
+    }
+}
@@ -0,0 +1,127 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchCallerTest {
+
+    private final FakeNode node = new FakeNode();
+
+    @Test
+    public void sendsRequestsInChunksAndReturnsResponsesInRequestOrder() throws IOException {
+        List<EthBlockNumber> responses = new BatchCaller(node, 100, 4).call(requests(node, 250), EthBlockNumber.class);
+
+        assertEquals(250, responses.size());
+        for (int i = 0; i < responses.size(); i++) {
+            assertEquals(i, responses.get(i).getBlockNumber().intValue());
+        }
+        List<Integer> sizes = new ArrayList<Integer>(node.batchSizes);
+        Collections.sort(sizes);
+        assertEquals(Arrays.asList(50, 100, 100), sizes);
+    }
+
+    @Test
+    public void limitsTheBatchesInFlight() throws IOException {
+        node.delayMillis = 20;
+
+        new BatchCaller(node, 10, 2).call(requests(node, 100), EthBlockNumber.class);
+
+        assertEquals(10, node.batchSizes.size());
+        assertEquals(2, node.maxInFlight.get());
+    }
+
+    @Test
+    public void sendsRequestsOneByOneWithoutABatchService() throws IOException {
+        List<EthBlockNumber> responses = new BatchCaller(null, 10, 2).call(requests(node, 25), EthBlockNumber.class);
+
+        assertEquals(25, responses.size());
+        assertEquals(24, responses.get(24).getBlockNumber().intValue());
+        assertEquals(25, node.sent.get());
+        assertTrue(node.batchSizes.isEmpty());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWhenABatchFails() throws IOException {
+        node.failingBatch = 2;
+
+        new BatchCaller(node, 10, 2).call(requests(node, 50), EthBlockNumber.class);
+    }
+
+    /**
+     * Requests whose response carries the index of the request as its block number.
+     */
+    private static List<Request<?, EthBlockNumber>> requests(FakeNode node, int count) {
+        List<Request<?, EthBlockNumber>> requests = new ArrayList<Request<?, EthBlockNumber>>(count);
+        for (int i = 0; i < count; i++) {
+            requests.add(new Request<>("eth_blockNumber", Collections.singletonList(i), node, EthBlockNumber.class));
+        }
+        return requests;
+    }
+
+    /**
+     * Answers every request with its only parameter as the block number, recording the size of each
+     * batch and the most batches it saw at once.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class FakeNode implements BatchWeb3jService {
+
+        final List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger sent = new AtomicInteger();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        volatile long delayMillis;
+        volatile int failingBatch = -1;
+
+        @Override
+        public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            sent.incrementAndGet();
+            return (T) answer(request);
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+            int batchNumber = batchSizes.size();
+            batchSizes.add(batch.size());
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(delayMillis);
+                if (batchNumber == failingBatch) {
+                    throw new IOException("Batch " + batchNumber + " failed");
+                }
+                List<Response<?>> responses = new ArrayList<Response<?>>(batch.size());
+                for (Request<?, ?> request : batch.getRequests()) {
+                    responses.add(answer(request));
+                }
+                return responses;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private static EthBlockNumber answer(Request<?, ?> request) {
+            EthBlockNumber response = new EthBlockNumber();
+            response.setResult("0x" + Integer.toHexString((Integer) request.getParams().get(0)));
+            return response;
+        }
+    }
+}
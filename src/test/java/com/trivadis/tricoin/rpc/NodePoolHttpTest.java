@@ -0,0 +1,195 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs the pool against HTTP nodes.
+ */
+public class NodePoolHttpTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Node fast = new Node("1");
+    private final Node slow = new Node("2");
+    private NodePool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        fast.server.start();
+        slow.server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (pool != null) {
+            pool.close();
+        }
+        fast.server.shutdown();
+        slow.server.shutdown();
+    }
+
+    @Test
+    public void sendsMostReadsToTheFasterNode() throws Exception {
+        slow.delayMillis = 150;
+        pool = new NodePool(60_000).setHedgePercentile(1)
+                .addNode("fast", service(fast)).addNode("slow", service(slow));
+        Web3j web3j = Web3j.build(pool);
+
+        for (int i = 0; i < 100; i++) {
+            web3j.netVersion().send();
+        }
+
+        assertEquals(100, fast.reads.get() + slow.reads.get());
+        assertTrue(fast.reads + " vs " + slow.reads, fast.reads.get() > 2 * slow.reads.get());
+    }
+
+    @Test
+    public void takesTheFirstAnswerOfAHedgedReadAndCancelsTheOther() throws Exception {
+        CountDownLatch cancelled = new CountDownLatch(1);
+        OkHttpClient slowClient = new OkHttpClient.Builder().addInterceptor(chain -> {
+            try {
+                return chain.proceed(chain.request());
+            } catch (IOException e) {
+                cancelled.countDown();
+                throw e;
+            }
+        }).build();
+        pool = new NodePool(60_000).setHedgePercentile(1)
+                .addNode("fast", service(fast))
+                .addNode("slow", new BatchingHttpService(slow.server.url("/").toString(), slowClient));
+        Web3j web3j = Web3j.build(pool);
+        for (int i = 0; i < 64; i++) {
+            web3j.netVersion().send();
+        }
+        assertEquals(1, cancelled.getCount());
+
+        // Whichever node is tried first, the read is hedged after the median latency
+        pool.setHedgePercentile(0.5);
+        fast.delayMillis = 100;
+        slow.delayMillis = 3_000;
+        long start = System.currentTimeMillis();
+        String version = web3j.netVersion().send().getNetVersion();
+
+        assertEquals(fast.version, version);
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue("Answered after " + elapsed + " ms", elapsed < 2_000);
+        assertTrue("The slow call was not cancelled", cancelled.await(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void ejectsAFailingNodeAndTakesItBackOnceItRecovers() throws Exception {
+        slow.down = true;
+        pool = new NodePool(20).setHedgePercentile(1).setMaxFailures(2).setEjectionMillis(300)
+                .addNode("fast", service(fast)).addNode("slow", service(slow));
+        Web3j web3j = Web3j.build(pool);
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals(fast.version, web3j.netVersion().send().getNetVersion());
+        }
+        int failedReads = slow.reads.get();
+        for (int i = 0; i < 50; i++) {
+            web3j.netVersion().send();
+        }
+        assertEquals(failedReads, slow.reads.get());
+
+        slow.down = false;
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (slow.reads.get() == failedReads && System.currentTimeMillis() < deadline) {
+            web3j.netVersion().send();
+            Thread.sleep(5);
+        }
+        assertTrue("The node was not taken back", slow.reads.get() > failedReads);
+    }
+
+    @Test
+    public void sendsNoReadsToANodeThatLagsBehind() throws Exception {
+        slow.head = 0x100 - 3;
+        pool = new NodePool(20).setHedgePercentile(1).setMaxHeadLag(2)
+                .addNode("fast", service(fast)).addNode("slow", service(slow));
+        Web3j web3j = Web3j.build(pool);
+        Thread.sleep(200);
+
+        for (int i = 0; i < 50; i++) {
+            web3j.netVersion().send();
+        }
+        assertEquals(0, slow.reads.get());
+
+        slow.head = 0x100 - 2;
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (slow.reads.get() == 0 && System.currentTimeMillis() < deadline) {
+            web3j.netVersion().send();
+            Thread.sleep(5);
+        }
+        assertTrue("The node got no reads after catching up", slow.reads.get() > 0);
+    }
+
+    private static BatchingHttpService service(Node node) {
+        return new BatchingHttpService(node.server.url("/").toString());
+    }
+
+    /**
+     * An HTTP node at block {@link #head} that answers {@code net_version} with its name after
+     * {@link #delayMillis}, and fails every request with a 500 while it is down.
+     */
+    private class Node {
+
+        final MockWebServer server = new MockWebServer();
+        final String version;
+        final AtomicInteger reads = new AtomicInteger();
+        volatile long head = 0x100;
+        volatile long delayMillis;
+        volatile boolean down;
+
+        Node(String version) {
+            this.version = version;
+            server.setDispatcher(new Dispatcher() {
+                @Override
+                public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+                    return answer(request);
+                }
+            });
+        }
+
+        MockResponse answer(RecordedRequest request) throws InterruptedException {
+            JsonNode json;
+            try {
+                json = objectMapper.readTree(request.getBody().readUtf8());
+            } catch (IOException e) {
+                return new MockResponse().setResponseCode(400);
+            }
+            String method = json.path("method").asText();
+            String result;
+            if (method.equals("eth_blockNumber")) {
+                result = "\"0x" + Long.toHexString(head) + "\"";
+            } else if (method.equals("net_version")) {
+                reads.incrementAndGet();
+                Thread.sleep(delayMillis);
+                result = "\"" + version + "\"";
+            } else {
+                return new MockResponse().setResponseCode(400);
+            }
+            if (down) {
+                return new MockResponse().setResponseCode(500);
+            }
+            return new MockResponse().setHeader("Content-Type", "application/json")
+                    .setBody("{\"jsonrpc\":\"2.0\",\"id\":" + json.path("id") + ",\"result\":" + result + "}");
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.DefaultBlockParameterName;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.request.EthFilter;
+import rx.Subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class NodePoolTest {
+
+    private static final String CONTRACT = "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857";
+
+    private final ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private final List<String> chain = new CopyOnWriteArrayList<String>();
+    private final FakeNode first = new FakeNode("first", 0x10);
+    private final FakeNode second = new FakeNode("second", 0x10);
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+    private NodePool pool;
+
+    @Before
+    public void setUp() {
+        pool = new NodePool(50).setHedgePercentile(1);
+        pool.addNode(first.name, first).addNode(second.name, second);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void sendsFilterRequestsToTheNodeThatInstalledTheFilter() throws Exception {
+        Web3j web3j = Web3j.build(pool, 20, scheduler);
+        BigInteger filterId = web3j.ethNewFilter(new EthFilter(
+                DefaultBlockParameterName.LATEST, DefaultBlockParameterName.LATEST, CONTRACT)).send().getFilterId();
+        emit(3);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i == 0 ? 3 : 0, web3j.ethGetFilterChanges(filterId).send().getLogs().size());
+        }
+        assertTrue(web3j.ethUninstallFilter(filterId).send().isUninstalled());
+        assertEquals(0, second.requests);
+    }
+
+    @Test
+    public void installsFilterAgainAndCatchesUpOnFailover() throws Exception {
+        Web3j web3j = Web3j.build(pool, 20, scheduler);
+        List<String> received = new CopyOnWriteArrayList<String>();
+        Subscription subscription = web3j.ethLogObservable(new EthFilter(
+                DefaultBlockParameterName.LATEST, DefaultBlockParameterName.LATEST, CONTRACT))
+                .subscribe(log -> received.add(log.getBlockNumber() + ":" + log.getLogIndex()));
+
+        emit(10);
+        awaitSize(received, 10);
+        first.down = true;
+        emit(10);
+        awaitSize(received, 20);
+        Thread.sleep(200);
+        subscription.unsubscribe();
+
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 20; i++) {
+            expected.add((100 + i / 2) + ":" + i % 2);
+        }
+        assertEquals(expected, received);
+        assertNotEquals(0, second.requests);
+    }
+
+    private void emit(int count) throws InterruptedException {
+        for (int i = 0; i < count; i++) {
+            int n = chain.size();
+            chain.add((100 + n / 2) + ":" + n % 2);
+            Thread.sleep(5);
+        }
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private String logJson(String entry) {
+        String[] parts = entry.split(":");
+        Map<String, Object> log = new HashMap<String, Object>();
+        log.put("removed", false);
+        log.put("logIndex", "0x" + Integer.toHexString(Integer.parseInt(parts[1])));
+        log.put("blockNumber", "0x" + Integer.toHexString(Integer.parseInt(parts[0])));
+        log.put("address", CONTRACT);
+        log.put("data", "0x");
+        log.put("topics", Collections.emptyList());
+        try {
+            return objectMapper.writeValueAsString(log);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A node over {@link #chain} with node-local filter ids, that fails every request while it is
+     * down.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private class FakeNode implements BatchWeb3jService {
+
+        final String name;
+        final Map<String, Integer> filters = new HashMap<String, Integer>();
+        int nextFilterId;
+        volatile boolean down;
+        volatile int requests;
+
+        FakeNode(String name, int firstFilterId) {
+            this.name = name;
+            this.nextFilterId = firstFilterId;
+        }
+
+        @Override
+        public synchronized <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            if (down) {
+                throw new IOException(name + " is down");
+            }
+            String method = request.getMethod();
+            if (!method.equals("eth_blockNumber")) {
+                requests++;
+            }
+            String result;
+            switch (method) {
+                case "eth_blockNumber":
+                    result = "\"0x" + Integer.toHexString(100 + chain.size() / 2) + "\"";
+                    break;
+                case "eth_newFilter":
+                    String id = "0x" + Integer.toHexString(nextFilterId++);
+                    filters.put(id, chain.size());
+                    result = "\"" + id + "\"";
+                    break;
+                case "eth_getFilterChanges":
+                    Integer cursor = filters.get(request.getParams().get(0));
+                    if (cursor == null) {
+                        return read("{\"jsonrpc\":\"2.0\",\"id\":1,\"error\":{\"code\":-32000,\"message\":\"filter not found\"}}",
+                                responseType);
+                    }
+                    int end = chain.size();
+                    filters.put((String) request.getParams().get(0), end);
+                    result = logs(chain.subList(cursor, end));
+                    break;
+                case "eth_getFilterLogs":
+                    result = "[]";
+                    break;
+                case "eth_getLogs":
+                    Map<?, ?> criteria = (Map<?, ?>) request.getParams().get(0);
+                    long from = Long.decode((String) criteria.get("fromBlock"));
+                    List<String> matching = new ArrayList<String>();
+                    for (String entry : chain) {
+                        if (Long.parseLong(entry.split(":")[0]) >= from) {
+                            matching.add(entry);
+                        }
+                    }
+                    result = logs(matching);
+                    break;
+                case "eth_uninstallFilter":
+                    result = String.valueOf(filters.remove(request.getParams().get(0)) != null);
+                    break;
+                default:
+                    throw new IOException("Unexpected " + method);
+            }
+            return read("{\"jsonrpc\":\"2.0\",\"id\":1,\"result\":" + result + "}", responseType);
+        }
+
+        private String logs(List<String> entries) {
+            List<String> json = new ArrayList<String>();
+            for (String entry : entries) {
+                json.add(logJson(entry));
+            }
+            return "[" + String.join(",", json) + "]";
+        }
+
+        private <T extends Response> T read(String json, Class<T> responseType) throws IOException {
+            return objectMapper.readValue(json, responseType);
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+            throw new IOException("Batches are not supported");
+        }
+    }
+}
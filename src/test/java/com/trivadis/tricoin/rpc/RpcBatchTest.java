@@ -0,0 +1,61 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.EthBlockNumber;
+import org.web3j.protocol.core.methods.response.NetVersion;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RpcBatchTest {
+
+    private final ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+
+    private final Request<?, EthBlockNumber> blockNumber =
+            new Request<>("eth_blockNumber", Collections.<String>emptyList(), null, EthBlockNumber.class);
+    private final Request<?, NetVersion> version =
+            new Request<>("net_version", Collections.<String>emptyList(), null, NetVersion.class);
+    private final RpcBatch batch = new RpcBatch()
+            .add(blockNumber, EthBlockNumber.class)
+            .add(version, NetVersion.class);
+
+    @Test
+    public void matchesRepliesToRequestsById() throws IOException {
+        List<Response<?>> responses = batch.readResponses(objectMapper, objectMapper.readTree("["
+                + reply(version.getId(), "\"5\"") + ","
+                + reply(-7, "\"0x1\"") + ","
+                + reply(blockNumber.getId(), "\"0x10\"") + "]"));
+
+        assertEquals(2, responses.size());
+        assertEquals(16, ((EthBlockNumber) responses.get(0)).getBlockNumber().intValue());
+        assertEquals("5", ((NetVersion) responses.get(1)).getNetVersion());
+    }
+
+    @Test
+    public void failsWhenARequestIsNotAnswered() throws IOException {
+        try {
+            batch.readResponses(objectMapper, objectMapper.readTree("[" + reply(blockNumber.getId(), "\"0x10\"") + "]"));
+            fail("Expected the missing reply to be reported");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("net_version"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsAReplyThatIsNotABatch() throws IOException {
+        batch.readResponses(objectMapper, objectMapper.readTree(reply(blockNumber.getId(), "\"0x10\"")));
+    }
+
+    private static String reply(long id, String result) {
+        return "{\"jsonrpc\":\"2.0\",\"id\":" + id + ",\"result\":" + result + "}";
+    }
+}
@@ -0,0 +1,357 @@
+package com.trivadis.tricoin.rpc;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.trivadis.tricoin.metrics.TriCoinMetrics;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.ObjectMapperFactory;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.methods.response.Web3Sha3;
+import rx.Subscription;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class WebSocketServiceTest {
+
+    private static final String CONTRACT = "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857";
+
+    private final ObjectMapper objectMapper = ObjectMapperFactory.getObjectMapper();
+    private final MockWebServer server = new MockWebServer();
+    private final StandInNode node = new StandInNode();
+    private final List<String> received = new CopyOnWriteArrayList<String>();
+    private WebSocketService service;
+
+    @Before
+    public void setUp() throws IOException {
+        server.setDispatcher(new Dispatcher() {
+            @Override
+            public MockResponse dispatch(RecordedRequest request) {
+                return new MockResponse().withWebSocketUpgrade(node);
+            }
+        });
+        server.start();
+        service = new WebSocketService(server.url("/").toString());
+        service.setRequestTimeoutMillis(2_000);
+        service.connect();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        service.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void matchesResponsesToRequestsById() throws Exception {
+        Web3j web3j = Web3j.build(service);
+        List<String> inputs = new ArrayList<String>();
+        List<CompletableFuture<Web3Sha3>> futures = new ArrayList<CompletableFuture<Web3Sha3>>();
+        for (int i = 0; i < StandInNode.HELD_REQUESTS; i++) {
+            inputs.add("0x0" + i);
+            futures.add(web3j.web3Sha3(inputs.get(i)).sendAsync());
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            assertEquals(Hash.sha3(inputs.get(i)), futures.get(i).get(5, TimeUnit.SECONDS).getResult());
+        }
+    }
+
+    @Test
+    public void recordsRequestMetrics() throws Exception {
+        TriCoinMetrics metrics = new TriCoinMetrics();
+        service.setMetrics(metrics);
+        Web3j web3j = Web3j.build(service);
+        List<CompletableFuture<Web3Sha3>> futures = new ArrayList<CompletableFuture<Web3Sha3>>();
+        for (int i = 0; i < StandInNode.HELD_REQUESTS; i++) {
+            futures.add(web3j.web3Sha3("0x0" + i).sendAsync());
+        }
+        for (CompletableFuture<Web3Sha3> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        web3j.ethBlockNumber().send();
+
+        assertEquals(3, metrics.getRpcLatencyMicros().get("web3_sha3").getCount());
+        assertEquals(1, metrics.getRpcLatencyMicros().get("eth_blockNumber").getCount());
+        assertTrue(metrics.getRpcResponseBytes().get("eth_blockNumber").getMax() > 0);
+        assertEquals(Long.valueOf(0), metrics.getRpcErrors().get("web3_sha3"));
+    }
+
+    @Test
+    public void failsRequestsThatGetNoResponse() throws Exception {
+        service.setRequestTimeoutMillis(200);
+        CompletableFuture<Web3Sha3> future = Web3j.build(service).web3Sha3("0x00").sendAsync();
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Request without response did not time out");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void deliversPushesThatFollowTheSubscribeResponse() throws Exception {
+        node.logsMinedOnSubscribe = 2;
+        subscribe();
+        node.mine(1);
+
+        awaitSize(received, 3);
+        assertEquals(expected(101, 2, 102, 1), received);
+    }
+
+    @Test
+    public void subscribesAgainAndFillsGapAfterReconnect() throws Exception {
+        Subscription subscription = subscribe();
+        node.mine(2);
+        awaitSize(received, 2);
+
+        node.drop();
+        node.mine(1);
+        node.mine(2);
+        awaitSubscribed();
+        node.mine(1);
+        awaitSize(received, 6);
+        Thread.sleep(100);
+        subscription.unsubscribe();
+
+        assertEquals(expected(101, 2, 102, 1, 103, 2, 104, 1), received);
+    }
+
+    @Test
+    public void fillsGapBeforeFirstLogAndRetriesFailedSubscribe() throws Exception {
+        subscribe();
+
+        node.failedSubscribes = 1;
+        node.drop();
+        node.mine(2);
+        awaitSubscribed();
+        node.mine(1);
+        awaitSize(received, 3);
+        Thread.sleep(100);
+
+        assertEquals(expected(101, 2, 102, 1), received);
+        assertEquals(0, node.failedSubscribes);
+    }
+
+    private Subscription subscribe() throws InterruptedException {
+        Subscription subscription = service.logObservable(CONTRACT, Collections.<String>emptyList())
+                .subscribe(log -> received.add(log.getBlockNumber() + ":" + log.getLogIndex()));
+        awaitSubscribed();
+        return subscription;
+    }
+
+    private void awaitSubscribed() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (!node.isSubscribed() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void awaitSize(List<?> list, int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5_000;
+        while (list.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * Lists the logs of consecutive blocks, given as pairs of block number and log count.
+     */
+    private static List<String> expected(int... blocksAndCounts) {
+        List<String> logs = new ArrayList<String>();
+        for (int i = 0; i < blocksAndCounts.length; i += 2) {
+            for (int logIndex = 0; logIndex < blocksAndCounts[i + 1]; logIndex++) {
+                logs.add(blocksAndCounts[i] + ":" + logIndex);
+            }
+        }
+        return logs;
+    }
+
+    /**
+     * A JSON-RPC node behind {@link #server}. It answers {@code eth_blockNumber},
+     * {@code eth_getLogs}, {@code eth_subscribe} and {@code eth_unsubscribe}, pushes the logs it
+     * mines to the subscriptions on the current connection, and holds {@code web3_sha3} requests
+     * until {@link #HELD_REQUESTS} have arrived, then answers them in reverse order.
+     */
+    private class StandInNode extends WebSocketListener {
+
+        static final int HELD_REQUESTS = 3;
+
+        final List<String> chain = new ArrayList<String>();
+        final Map<String, WebSocket> subscriptions = new HashMap<String, WebSocket>();
+        final List<JsonNode> held = new ArrayList<JsonNode>();
+        long head = 100;
+        int nextSubscriptionId = 1;
+        volatile int logsMinedOnSubscribe;
+        volatile int failedSubscribes;
+
+        synchronized void mine(int logs) {
+            for (String entry : newBlock(logs)) {
+                for (Map.Entry<String, WebSocket> subscription : subscriptions.entrySet()) {
+                    subscription.getValue().send(push(subscription.getKey(), entry).toString());
+                }
+            }
+        }
+
+        synchronized void drop() {
+            for (WebSocket socket : new ArrayList<WebSocket>(subscriptions.values())) {
+                socket.close(1001, "going away");
+            }
+            subscriptions.clear();
+        }
+
+        synchronized boolean isSubscribed() {
+            return !subscriptions.isEmpty();
+        }
+
+        @Override
+        public synchronized void onMessage(WebSocket socket, String text) {
+            try {
+                JsonNode message = objectMapper.readTree(text);
+                if (message.isArray()) {
+                    ArrayNode responses = JsonNodeFactory.instance.arrayNode();
+                    for (JsonNode request : message) {
+                        responses.add(answer(request, socket));
+                    }
+                    socket.send(responses.toString());
+                } else if (message.path("method").asText().equals("web3_sha3")) {
+                    held.add(message);
+                    if (held.size() == HELD_REQUESTS) {
+                        for (int i = held.size() - 1; i >= 0; i--) {
+                            String data = held.get(i).path("params").get(0).asText();
+                            socket.send(result(held.get(i), JsonNodeFactory.instance.textNode(Hash.sha3(data))).toString());
+                        }
+                        held.clear();
+                    }
+                } else {
+                    JsonNode response = answer(message, socket);
+                    if (response.has("result") && message.path("method").asText().equals("eth_subscribe")
+                            && logsMinedOnSubscribe > 0) {
+                        // Pushes in the same frame as the response are dispatched right after it.
+                        ArrayNode frame = JsonNodeFactory.instance.arrayNode().add(response);
+                        for (String entry : newBlock(logsMinedOnSubscribe)) {
+                            frame.add(push(response.get("result").asText(), entry));
+                        }
+                        socket.send(frame.toString());
+                    } else {
+                        socket.send(response.toString());
+                    }
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public synchronized void onClosing(WebSocket socket, int code, String reason) {
+            subscriptions.values().remove(socket);
+            socket.close(code, reason);
+        }
+
+        private JsonNode answer(JsonNode request, WebSocket socket) {
+            JsonNodeFactory json = JsonNodeFactory.instance;
+            switch (request.path("method").asText()) {
+                case "eth_blockNumber":
+                    return result(request, json.textNode("0x" + Long.toHexString(head)));
+                case "eth_subscribe":
+                    if (failedSubscribes > 0) {
+                        failedSubscribes--;
+                        ObjectNode error = json.objectNode();
+                        error.put("code", -32000);
+                        error.put("message", "try again");
+                        ObjectNode response = json.objectNode();
+                        response.put("jsonrpc", "2.0");
+                        response.set("id", request.get("id"));
+                        response.set("error", error);
+                        return response;
+                    }
+                    String id = "0x" + Integer.toHexString(nextSubscriptionId++);
+                    subscriptions.put(id, socket);
+                    return result(request, json.textNode(id));
+                case "eth_unsubscribe":
+                    return result(request, json.booleanNode(
+                            subscriptions.remove(request.path("params").get(0).asText()) != null));
+                case "eth_getLogs":
+                    JsonNode criteria = request.path("params").get(0);
+                    long from = Long.decode(criteria.path("fromBlock").asText());
+                    long to = Long.decode(criteria.path("toBlock").asText());
+                    ArrayNode logs = json.arrayNode();
+                    for (String entry : chain) {
+                        long block = Long.parseLong(entry.split(":")[0]);
+                        if (block >= from && block <= to) {
+                            logs.add(logJson(entry));
+                        }
+                    }
+                    return result(request, logs);
+                default:
+                    throw new IllegalStateException("Unexpected " + request);
+            }
+        }
+
+        private List<String> newBlock(int logs) {
+            head++;
+            List<String> entries = new ArrayList<String>();
+            for (int logIndex = 0; logIndex < logs; logIndex++) {
+                entries.add(head + ":" + logIndex);
+            }
+            chain.addAll(entries);
+            return entries;
+        }
+
+        private ObjectNode push(String subscriptionId, String entry) {
+            ObjectNode params = JsonNodeFactory.instance.objectNode();
+            params.put("subscription", subscriptionId);
+            params.set("result", logJson(entry));
+            ObjectNode push = JsonNodeFactory.instance.objectNode();
+            push.put("jsonrpc", "2.0");
+            push.put("method", "eth_subscription");
+            push.set("params", params);
+            return push;
+        }
+
+        private ObjectNode result(JsonNode request, JsonNode result) {
+            ObjectNode response = JsonNodeFactory.instance.objectNode();
+            response.put("jsonrpc", "2.0");
+            response.set("id", request.get("id"));
+            response.set("result", result);
+            return response;
+        }
+
+        private ObjectNode logJson(String entry) {
+            String[] parts = entry.split(":");
+            ObjectNode log = JsonNodeFactory.instance.objectNode();
+            log.put("removed", false);
+            log.put("logIndex", "0x" + Integer.toHexString(Integer.parseInt(parts[1])));
+            log.put("blockNumber", "0x" + Integer.toHexString(Integer.parseInt(parts[0])));
+            log.put("address", CONTRACT);
+            log.put("data", "0x");
+            log.putArray("topics");
+            return log;
+        }
+    }
+}
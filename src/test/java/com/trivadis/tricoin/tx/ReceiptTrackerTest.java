@@ -0,0 +1,124 @@
+package com.trivadis.tricoin.tx;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import com.trivadis.tricoin.rpc.RpcBatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.core.methods.response.TransactionReceipt;
+import org.web3j.protocol.exceptions.TransactionException;
+import org.web3j.utils.Numeric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ReceiptTrackerTest {
+
+    private static final String HASH = "0x" + repeat("ab", 32);
+
+    private FakeNode node;
+    private ReceiptTracker tracker;
+
+    @Before
+    public void setUp() {
+        node = new FakeNode();
+        tracker = new ReceiptTracker(Web3j.build(node), null, 10, 1);
+    }
+
+    @After
+    public void tearDown() {
+        tracker.close();
+    }
+
+    @Test
+    public void keepsWaitingForOtherCallersWhenOneCancels() throws Exception {
+        CompletableFuture<TransactionReceipt> first = tracker.track(HASH);
+        CompletableFuture<TransactionReceipt> second = tracker.track(HASH);
+
+        first.cancel(false);
+        assertEquals(1, tracker.getTrackedCount());
+        node.minedIn = 5;
+
+        assertEquals(HASH, second.get(5, TimeUnit.SECONDS).getTransactionHash());
+    }
+
+    @Test
+    public void stopsTrackingWhenTheLastCallerCancels() {
+        tracker.track(HASH).cancel(false);
+
+        assertEquals(0, tracker.getTrackedCount());
+    }
+
+    @Test
+    public void failsWithTransactionExceptionAfterTheTimeout() throws Exception {
+        tracker.setTimeoutMillis(50);
+        try {
+            tracker.track(HASH).get(5, TimeUnit.SECONDS);
+            fail("Expected a timeout");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionException);
+        }
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+
+    /**
+     * Is always at block 10 and reports {@link #HASH} as mined in {@link #minedIn} once that is
+     * set.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class FakeNode implements BatchWeb3jService {
+
+        volatile long minedIn = -1;
+
+        @Override
+        public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            T response;
+            try {
+                response = responseType.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IOException(e);
+            }
+            if (request.getMethod().equals("eth_blockNumber")) {
+                response.setResult("0xa");
+            } else if (request.getMethod().equals("eth_getTransactionReceipt")) {
+                if (minedIn >= 0) {
+                    TransactionReceipt receipt = new TransactionReceipt();
+                    receipt.setTransactionHash(HASH);
+                    receipt.setBlockNumber(Numeric.toHexStringWithPrefix(BigInteger.valueOf(minedIn)));
+                    response.setResult(receipt);
+                }
+            } else {
+                throw new IOException("Unexpected " + request.getMethod());
+            }
+            return response;
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+            throw new IOException("Batches are not supported");
+        }
+    }
+}
@@ -0,0 +1,283 @@
+package com.trivadis.tricoin.tx;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.trivadis.tricoin.evm.TriCoinSimulator;
+import com.trivadis.tricoin.rpc.BatchWeb3jService;
+import com.trivadis.tricoin.rpc.RpcBatch;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.web3j.abi.datatypes.Address;
+import org.web3j.abi.datatypes.Function;
+import org.web3j.abi.datatypes.generated.Uint256;
+import org.web3j.crypto.Credentials;
+import org.web3j.crypto.Hash;
+import org.web3j.protocol.Web3j;
+import org.web3j.protocol.core.Request;
+import org.web3j.protocol.core.Response;
+import org.web3j.protocol.exceptions.TransactionException;
+import org.web3j.rlp.RlpDecoder;
+import org.web3j.rlp.RlpList;
+import org.web3j.rlp.RlpString;
+import org.web3j.utils.Numeric;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class TransactionPipelineTest {
+
+    private static final Credentials SENDER =
+            Credentials.create("0x4646464646464646464646464646464646464646464646464646464646464646");
+    private static final String RECIPIENT = "0x" + repeat("bb", 20);
+    private static final BigInteger GAS_PRICE = BigInteger.valueOf(1_000);
+    private static final String CONTRACT = "0x78021bafea6605a9bba9a7cc8c12b5d2172fc857";
+    private static final int BALANCES_SLOT = 4;
+
+    private FakeNode node;
+    private Web3j web3j;
+    private TransactionPipeline pipeline;
+
+    @Before
+    public void setUp() {
+        node = new FakeNode();
+        web3j = Web3j.build(node);
+        pipeline = new TransactionPipeline(web3j, SENDER, (byte) -1, GAS_PRICE, BigInteger.valueOf(100_000));
+    }
+
+    @After
+    public void tearDown() {
+        pipeline.close();
+    }
+
+    @Test
+    public void fillsTheNonceOfAnUnderpricedTransaction() throws Exception {
+        node.rejections.add("transaction underpriced");
+
+        CompletableFuture<?> future = pipeline.submit(RECIPIENT, "", BigInteger.ONE);
+
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected a rejection");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TransactionException);
+        }
+        List<Sent> sent = node.awaitSent(2);
+        assertEquals(SENDER.getAddress(), sent.get(1).to);
+        assertEquals(BigInteger.ZERO, sent.get(1).nonce);
+        assertTrue(sent.get(1).gasPrice.compareTo(BigInteger.valueOf(1_100)) >= 0);
+        assertEquals(1, pipeline.getPendingCount());
+    }
+
+    @Test
+    public void keepsTheTransactionPendingWhenItsReplacementIsUnderpriced() throws Exception {
+        pipeline.setStuckTimeoutMillis(0);
+        node.rejections.add("");
+        node.rejections.add("replacement transaction underpriced");
+
+        CompletableFuture<?> future = pipeline.submit(RECIPIENT, "", BigInteger.ONE);
+
+        List<Sent> sent = node.awaitSent(2);
+        assertEquals(RECIPIENT, sent.get(1).to);
+        Thread.sleep(200);
+        assertFalse(future.isDone());
+        assertEquals(1, pipeline.getPendingCount());
+    }
+
+    @Test
+    public void doesNotReplaceBelowTheMinimumReplacementPrice() throws Exception {
+        pipeline.setStuckTimeoutMillis(0);
+        pipeline.setMaxGasPrice(BigInteger.valueOf(1_050));
+
+        pipeline.submit(RECIPIENT, "", BigInteger.ONE);
+
+        node.awaitSent(1);
+        Thread.sleep(2_500);
+        assertEquals(1, node.sent.size());
+    }
+
+    @Test
+    public void simulatesAgainstTheLatestBlockOnceANewOneArrives() throws Exception {
+        pipeline.setSimulator(new TriCoinSimulator(web3j, CONTRACT, null));
+        assertRejectedBySimulation(pipeline.submit(CONTRACT, transfer(50)));
+
+        node.storage.put(balanceSlot(SENDER.getAddress()), BigInteger.valueOf(100));
+        node.blockNumber = 2;
+        Thread.sleep(1_500);
+        pipeline.submit(CONTRACT, transfer(50));
+
+        assertEquals(CONTRACT, node.awaitSent(1).get(0).to);
+    }
+
+    @Test
+    public void keepsTheEffectsOfUnminedTransactionsAcrossBlocks() throws Exception {
+        node.storage.put(balanceSlot(SENDER.getAddress()), BigInteger.valueOf(100));
+        pipeline.setSimulator(new TriCoinSimulator(web3j, CONTRACT, null));
+        pipeline.submit(CONTRACT, transfer(100));
+        node.awaitSent(1);
+
+        node.blockNumber = 2;
+        Thread.sleep(1_500);
+
+        assertRejectedBySimulation(pipeline.submit(CONTRACT, transfer(1)));
+    }
+
+    @Test
+    public void dropsTheSimulatedEffectsOfRejectedTransactions() throws Exception {
+        node.storage.put(balanceSlot(SENDER.getAddress()), BigInteger.valueOf(100));
+        pipeline.setSimulator(new TriCoinSimulator(web3j, CONTRACT, null));
+        node.rejections.add("insufficient funds for gas * price + value");
+        CompletableFuture<?> rejected = pipeline.submit(CONTRACT, transfer(100));
+        assertTrue(rejected.isCompletedExceptionally());
+        node.awaitSent(2);
+
+        pipeline.submit(CONTRACT, transfer(100));
+
+        assertEquals(CONTRACT, node.awaitSent(3).get(2).to);
+    }
+
+    private static void assertRejectedBySimulation(CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected the simulation to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage(), e.getCause().getMessage().startsWith("Transaction would fail"));
+        } catch (java.util.concurrent.TimeoutException e) {
+            fail("Transaction was sent");
+        }
+    }
+
+    private static Function transfer(long value) {
+        return new Function("transfer", Arrays.asList(new Address(RECIPIENT), new Uint256(value)),
+                Collections.emptyList());
+    }
+
+    private static BigInteger balanceSlot(String address) {
+        byte[] key = new byte[64];
+        System.arraycopy(Numeric.toBytesPadded(Numeric.toBigInt(address), 32), 0, key, 0, 32);
+        System.arraycopy(Numeric.toBytesPadded(BigInteger.valueOf(BALANCES_SLOT), 32), 0, key, 32, 32);
+        return new BigInteger(1, Hash.sha3(key));
+    }
+
+    private static String repeat(String s, int times) {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            result.append(s);
+        }
+        return result.toString();
+    }
+
+    private static final class Sent {
+        final BigInteger nonce;
+        final BigInteger gasPrice;
+        final String to;
+
+        Sent(RlpList fields) {
+            nonce = integer(fields, 0);
+            gasPrice = integer(fields, 1);
+            to = Numeric.toHexString(((RlpString) fields.getValues().get(3)).getBytes());
+        }
+
+        private static BigInteger integer(RlpList fields, int index) {
+            return new BigInteger(1, ((RlpString) fields.getValues().get(index)).getBytes());
+        }
+    }
+
+    /**
+     * Is at {@link #blockNumber} with the contract's storage in {@link #storage} and no
+     * transactions mined, and answers each {@code eth_sendRawTransaction} with the next of
+     * {@link #rejections}, where an empty message accepts the transaction, or accepts it once
+     * there are none left.
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static class FakeNode implements BatchWeb3jService {
+
+        final Queue<String> rejections = new ConcurrentLinkedQueue<String>();
+        final List<Sent> sent = new ArrayList<Sent>();
+        final Map<BigInteger, BigInteger> storage = new ConcurrentHashMap<BigInteger, BigInteger>();
+        volatile long blockNumber = 1;
+
+        @Override
+        public <T extends Response> T send(Request request, Class<T> responseType) throws IOException {
+            T response;
+            try {
+                response = responseType.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IOException(e);
+            }
+            switch (request.getMethod()) {
+                case "eth_getTransactionCount":
+                    response.setResult("0x0");
+                    break;
+                case "eth_blockNumber":
+                    response.setResult(Numeric.toHexStringWithPrefix(BigInteger.valueOf(blockNumber)));
+                    break;
+                case "eth_getStorageAt":
+                    BigInteger slot = Numeric.toBigInt((String) request.getParams().get(1));
+                    response.setResult(Numeric.toHexStringWithPrefixZeroPadded(
+                            storage.getOrDefault(slot, BigInteger.ZERO), 64));
+                    break;
+                case "eth_getTransactionReceipt":
+                    break;
+                case "eth_sendRawTransaction":
+                    String signed = (String) request.getParams().get(0);
+                    RlpList fields = (RlpList) RlpDecoder.decode(Numeric.hexStringToByteArray(signed)).getValues().get(0);
+                    synchronized (sent) {
+                        sent.add(new Sent(fields));
+                        sent.notifyAll();
+                    }
+                    String rejection = rejections.poll();
+                    if (rejection == null || rejection.isEmpty()) {
+                        response.setResult(Hash.sha3(signed));
+                    } else {
+                        response.setError(new Response.Error(-32000, rejection));
+                    }
+                    break;
+                default:
+                    throw new IOException("Unexpected " + request.getMethod());
+            }
+            return response;
+        }
+
+        @Override
+        public <T extends Response> CompletableFuture<T> sendAsync(Request request, Class<T> responseType) {
+            CompletableFuture<T> result = new CompletableFuture<T>();
+            try {
+                result.complete(send(request, responseType));
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+            }
+            return result;
+        }
+
+        @Override
+        public List<Response<?>> sendBatch(RpcBatch batch) throws IOException {
+            throw new IOException("Batches are not supported");
+        }
+
+        List<Sent> awaitSent(int count) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + 5_000;
+            synchronized (sent) {
+                while (sent.size() < count && System.currentTimeMillis() < deadline) {
+                    sent.wait(100);
+                }
+                assertTrue("Expected " + count + " transactions but got " + sent.size(), sent.size() >= count);
+                return new ArrayList<Sent>(sent);
+            }
+        }
+    }
+}